@@ -0,0 +1,92 @@
+package io.cloudtrust.benchmark;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pooled Cipher instances used by CryptoAesGcmUtil with the former implementation which was
+ * creating a new Cipher for each call.
+ * Run with: java -jar cloudtrust-benchmark/target/benchmarks.jar CipherPoolBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherPoolBenchmark {
+    private static final int IV_SIZE = 12;
+
+    @Param({"32", "1024"})
+    private int payloadSize;
+
+    private SecretKey key;
+    private byte[] payload;
+    private String encrypted;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        SecureRandom random = new SecureRandom();
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+        payload = new byte[payloadSize];
+        random.nextBytes(payload);
+        encrypted = CryptoAesGcmUtil.gcmEncryptData(key, payload);
+    }
+
+    @Benchmark
+    public String encryptPooled() throws GeneralSecurityException {
+        return CryptoAesGcmUtil.gcmEncryptData(key, payload);
+    }
+
+    @Benchmark
+    public byte[] decryptPooled() throws GeneralSecurityException {
+        return CryptoAesGcmUtil.gcmDecryptData(key, encrypted);
+    }
+
+    @Benchmark
+    public String encryptNewCipherPerCall() throws GeneralSecurityException {
+        byte[] iv = new byte[IV_SIZE];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        byte[] cipheredText = cipher.doFinal(payload);
+        ByteBuffer gcmData = ByteBuffer.allocate(iv.length + cipheredText.length);
+        gcmData.put(iv);
+        gcmData.put(cipheredText);
+        return Base64.getEncoder().encodeToString(gcmData.array());
+    }
+
+    @Benchmark
+    public byte[] decryptNewCipherPerCall() throws GeneralSecurityException {
+        ByteBuffer gcmData = ByteBuffer.wrap(Base64.getDecoder().decode(encrypted));
+        byte[] iv = new byte[IV_SIZE];
+        gcmData.get(iv);
+        byte[] cipheredText = new byte[gcmData.remaining()];
+        gcmData.get(cipheredText);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return cipher.doFinal(cipheredText);
+    }
+}
@@ -0,0 +1,91 @@
+package io.cloudtrust.benchmark;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.StorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption and decryption of values stored in the database, for each storage format and for the legacy and clear
+ * value fallbacks.
+ * Run with: java -jar cloudtrust-benchmark/target/benchmarks.jar DatabaseStorageBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseStorageBenchmark {
+    private static final String KEYS = "[{\"kid\": \"BENCH_2\", \"value\": \"QUJDREVGR0hJSktMTU5PUEFCQ0RFRkdISUpLTE1OT1A=\"}," +
+            "{\"kid\": \"BENCH_1\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]";
+
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    private int payloadSize;
+
+    @Param({"JSON", "COMPACT"})
+    private StorageFormat format;
+
+    private CryptoAesGcmUtil crypto;
+    private byte[] payload;
+    private String encrypted;
+    private String legacy;
+    private String clear;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        crypto = CryptoAesGcmUtil.fromJSON(KEYS);
+        crypto.setStorageFormat(format);
+        payload = new byte[payloadSize];
+        new SecureRandom().nextBytes(payload);
+        encrypted = crypto.encryptForDatabaseStorage(payload);
+        // legacy values are raw Base64 of IV and ciphered text, decrypted with the current key
+        legacy = CryptoAesGcmUtil.gcmEncryptData(new SecretKeySpec("ABCDEFGHIJKLMNOPABCDEFGHIJKLMNOP".getBytes(StandardCharsets.UTF_8), "AES"), payload);
+        StringBuilder sb = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        clear = sb.toString();
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return crypto.encryptForDatabaseStorage(payload);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return crypto.decryptFromDatabaseStorage(encrypted);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() {
+        return crypto.decryptFromDatabaseStorage(crypto.encryptForDatabaseStorage(payload));
+    }
+
+    @Benchmark
+    public byte[] decryptLegacy() {
+        return crypto.decryptFromDatabaseStorage(legacy);
+    }
+
+    @Benchmark
+    public byte[] decryptClearValue() {
+        return crypto.decryptFromDatabaseStorage(clear);
+    }
+}
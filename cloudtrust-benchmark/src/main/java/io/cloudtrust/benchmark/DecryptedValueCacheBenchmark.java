@@ -0,0 +1,82 @@
+package io.cloudtrust.benchmark;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.DecryptedValueCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decryption of stored values with and without a DecryptedValueCache. The same instances are used by all the
+ * benchmark threads, so that running it with several threads (see BenchmarkRunner) measures the contention on the
+ * cache. With a working set larger than the cache, lookups also pay for evictions.
+ * Run with: java -cp cloudtrust-benchmark/target/benchmarks.jar io.cloudtrust.benchmark.BenchmarkRunner DecryptedValueCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecryptedValueCacheBenchmark {
+    private static final String KEYS = "[{\"kid\": \"BENCH_1\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]";
+    private static final int CACHE_SIZE = 10_000;
+
+    @Param({"256", "4096"})
+    private int payloadSize;
+
+    @Param({"1000", "20000"})
+    private int workingSet;
+
+    private CryptoAesGcmUtil uncached;
+    private CryptoAesGcmUtil cached;
+    private String[] stored;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int size) {
+            next = (next + 1) % size;
+            return next;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        uncached = CryptoAesGcmUtil.fromJSON(KEYS);
+        cached = CryptoAesGcmUtil.fromJSON(KEYS);
+        cached.setDecryptedValueCache(new DecryptedValueCache(CACHE_SIZE, Duration.ofMinutes(10)));
+        SecureRandom random = new SecureRandom();
+        stored = new String[workingSet];
+        for (int i = 0; i < workingSet; i++) {
+            byte[] payload = new byte[payloadSize];
+            random.nextBytes(payload);
+            stored[i] = uncached.encryptForDatabaseStorage(payload);
+            cached.decryptFromDatabaseStorage(stored[i]);
+        }
+    }
+
+    @Benchmark
+    public byte[] decryptUncached(Cursor cursor) {
+        return uncached.decryptFromDatabaseStorage(stored[cursor.next(stored.length)]);
+    }
+
+    @Benchmark
+    public byte[] decryptCached(Cursor cursor) {
+        return cached.decryptFromDatabaseStorage(stored[cursor.next(stored.length)]);
+    }
+}
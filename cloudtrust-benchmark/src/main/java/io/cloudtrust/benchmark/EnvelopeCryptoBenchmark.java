@@ -0,0 +1,76 @@
+package io.cloudtrust.benchmark;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.EnvelopeCrypto;
+import io.cloudtrust.crypto.FileDataKeyStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips through the envelope encryption (per-tenant data keys wrapped by the master key), data keys being
+ * served from the cache.
+ * Run with: java -jar cloudtrust-benchmark/target/benchmarks.jar EnvelopeCryptoBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnvelopeCryptoBenchmark {
+    private static final String KEYS = "[{\"kid\": \"BENCH_1\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]";
+
+    @Param({"16", "4096"})
+    private int payloadSize;
+
+    private Path keyFile;
+    private EnvelopeCrypto crypto;
+    private byte[] payload;
+    private String encrypted;
+
+    @Setup
+    public void setup() throws IOException {
+        keyFile = Files.createTempFile("data-keys", ".json");
+        Files.delete(keyFile);
+        crypto = new EnvelopeCrypto(CryptoAesGcmUtil.fromJSON(KEYS), new FileDataKeyStore(keyFile));
+        payload = new byte[payloadSize];
+        new SecureRandom().nextBytes(payload);
+        encrypted = crypto.encrypt("realm", payload);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(keyFile);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return crypto.encrypt("realm", payload);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return crypto.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() {
+        return crypto.decrypt(crypto.encrypt("realm", payload));
+    }
+}
@@ -0,0 +1,65 @@
+package io.cloudtrust.benchmark;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HMAC of lookup values (email, phone number), with one or two active keys.
+ * Run with: java -jar cloudtrust-benchmark/target/benchmarks.jar HmacBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HmacBenchmark {
+    @Param({"16", "256"})
+    private int inputSize;
+
+    private String input;
+    private byte[] inputBytes;
+
+    @Setup
+    public void setup() {
+        CryptoUtil.setHmacKeySource(() -> Map.of(
+                "BENCH_1", "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8),
+                "BENCH_2", "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8)));
+        StringBuilder sb = new StringBuilder(inputSize);
+        for (int i = 0; i < inputSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        input = sb.toString();
+        inputBytes = input.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String hmacForDatabaseStorage() {
+        return CryptoUtil.computeHmacForDatabaseStorage(input);
+    }
+
+    @Benchmark
+    public byte[] hmacBinary() {
+        return CryptoUtil.computeHmac(inputBytes);
+    }
+
+    @Benchmark
+    public List<String> hmacWithAllKeys() {
+        return CryptoUtil.computeHmacsForDatabaseStorage(input);
+    }
+}
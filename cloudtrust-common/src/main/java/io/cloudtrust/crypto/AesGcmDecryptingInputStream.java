@@ -0,0 +1,103 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.function.Function;
+
+/**
+ * Input stream decrypting data written by {@link AesGcmEncryptingOutputStream}, segment by segment.
+ * Each segment is authenticated before any of its bytes is returned, and a truncated stream is detected
+ * when the last segment is missing. Memory usage is bounded by the segment size.
+ */
+public class AesGcmDecryptingInputStream extends InputStream {
+    private final InputStream in;
+    private final Function<String, SecretKey> keyResolver;
+    private AesGcmStreamHeader header;
+    private SecretKey key;
+    private byte[] cipheredSegment;
+    private byte[] plainSegment;
+    private int plainPosition;
+    private int plainLength;
+    private int segmentIndex;
+    private int lookAhead = -1;
+    private boolean lastSegmentRead;
+
+    AesGcmDecryptingInputStream(InputStream in, Function<String, SecretKey> keyResolver) {
+        this.in = in;
+        this.keyResolver = keyResolver;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (plainPosition == plainLength) {
+            if (lastSegmentRead) {
+                return -1;
+            }
+            readSegment();
+        }
+        int count = Math.min(len, plainLength - plainPosition);
+        System.arraycopy(plainSegment, plainPosition, b, off, count);
+        plainPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return plainLength - plainPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void init() throws IOException {
+        header = AesGcmStreamHeader.read(in);
+        key = header.deriveKey(keyResolver.apply(header.getKid()));
+        cipheredSegment = new byte[header.getSegmentSize() + AesGcmStreamHeader.TAG_SIZE];
+        plainSegment = new byte[header.getSegmentSize()];
+    }
+
+    private void readSegment() throws IOException {
+        if (header == null) {
+            init();
+        }
+        int length = 0;
+        if (lookAhead >= 0) {
+            cipheredSegment[length++] = (byte) lookAhead;
+            lookAhead = -1;
+        }
+        length += in.readNBytes(cipheredSegment, length, cipheredSegment.length - length);
+        // the segment is the last one if no byte follows it
+        boolean last = length < cipheredSegment.length || (lookAhead = in.read()) < 0;
+        if (length < AesGcmStreamHeader.TAG_SIZE) {
+            throw new IOException("Encrypted stream is truncated");
+        }
+        Cipher cipher = CipherPool.aesGcm().acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(AesGcmStreamHeader.TAG_SIZE * 8, header.nonce(segmentIndex++, last)));
+            cipher.updateAAD(header.getEncoded());
+            plainLength = cipher.doFinal(cipheredSegment, 0, length, plainSegment, 0);
+            plainPosition = 0;
+            lastSegmentRead = last;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encrypted stream segment can't be authenticated", e);
+        } finally {
+            CipherPool.aesGcm().release(cipher);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Output stream encrypting the written data with AES/GCM, segment by segment (see {@link AesGcmStreamHeader}).
+ * Memory usage is bounded by the segment size whatever the size of the data is.
+ * The stream must be closed to write the last segment.
+ */
+public class AesGcmEncryptingOutputStream extends FilterOutputStream {
+    private final SecretKey key;
+    private final AesGcmStreamHeader header;
+    private final byte[] plainSegment;
+    private final byte[] cipheredSegment;
+    private int plainLength;
+    private int segmentIndex;
+    private boolean headerWritten;
+    private boolean closed;
+
+    AesGcmEncryptingOutputStream(OutputStream out, SecretKey key, String kid, int segmentSize, IvGenerator ivGenerator) {
+        super(out);
+        this.header = AesGcmStreamHeader.create(segmentSize, kid, ivGenerator);
+        this.key = header.deriveKey(key);
+        this.plainSegment = new byte[segmentSize];
+        this.cipheredSegment = new byte[segmentSize + AesGcmStreamHeader.TAG_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (plainLength == plainSegment.length) {
+                // more data is coming: the buffered segment is not the last one
+                writeSegment(false);
+            }
+            int count = Math.min(len, plainSegment.length - plainLength);
+            System.arraycopy(b, off, plainSegment, plainLength, count);
+            plainLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeSegment(true);
+            out.flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        if (!headerWritten) {
+            out.write(header.getEncoded());
+            headerWritten = true;
+        }
+        Cipher cipher = CipherPool.aesGcm().acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(AesGcmStreamHeader.TAG_SIZE * 8, header.nonce(segmentIndex++, last)));
+            cipher.updateAAD(header.getEncoded());
+            int length = cipher.doFinal(plainSegment, 0, plainLength, cipheredSegment, 0);
+            out.write(cipheredSegment, 0, length);
+            plainLength = 0;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt stream segment", e);
+        } finally {
+            CipherPool.aesGcm().release(cipher);
+        }
+    }
+}
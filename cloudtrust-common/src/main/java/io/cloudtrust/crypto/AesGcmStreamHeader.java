@@ -0,0 +1,165 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Header of the segmented AES/GCM streams.
+ * <pre>
+ * | magic/version (1) | segment size (4) | kid length (1) | kid (n) | salt (32) | nonce prefix (7) |
+ * </pre>
+ * As in the AES-GCM-HKDF streaming AEAD of Tink, each stream is encrypted with its own key derived from the key
+ * identified by the kid with HKDF-SHA256, using the salt and the header as info: nonces only have to be unique within
+ * a stream. The first 12 bytes of the salt are drawn from the IV generator of the key, so that streams count as
+ * invocations of the key, the other ones are random. Each segment is encrypted with its own nonce, built as in the
+ * STREAM construction:
+ * <pre>
+ * | nonce prefix (7) | segment counter (4) | last segment flag (1) |
+ * </pre>
+ * The header is authenticated as additional data of each segment and the last segment flag prevents truncation.
+ */
+final class AesGcmStreamHeader {
+    static final byte MAGIC_VERSION_2 = (byte) 0xA2;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MIN_SEGMENT_SIZE = 1024;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final int TAG_SIZE = 16;
+
+    private static final int SALT_SIZE = 32;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final String HKDF_MAC = "HmacSHA256";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final int segmentSize;
+    private final String kid;
+    private final byte[] salt;
+    private final byte[] noncePrefix;
+    private final byte[] encoded;
+
+    private AesGcmStreamHeader(byte version, int segmentSize, String kid, byte[] salt, byte[] noncePrefix) {
+        this.segmentSize = segmentSize;
+        this.kid = kid;
+        this.salt = salt;
+        this.noncePrefix = noncePrefix;
+        byte[] kidBytes = CompactStorageCodec.kidToBytes(kid);
+        this.encoded = new byte[6 + kidBytes.length + salt.length + NONCE_PREFIX_SIZE];
+        encoded[0] = version;
+        encoded[1] = (byte) (segmentSize >>> 24);
+        encoded[2] = (byte) (segmentSize >>> 16);
+        encoded[3] = (byte) (segmentSize >>> 8);
+        encoded[4] = (byte) segmentSize;
+        encoded[5] = (byte) kidBytes.length;
+        System.arraycopy(kidBytes, 0, encoded, 6, kidBytes.length);
+        System.arraycopy(salt, 0, encoded, 6 + kidBytes.length, salt.length);
+        System.arraycopy(noncePrefix, 0, encoded, 6 + kidBytes.length + salt.length, NONCE_PREFIX_SIZE);
+    }
+
+    static AesGcmStreamHeader create(int segmentSize, String kid, IvGenerator ivGenerator) {
+        checkSegmentSize(segmentSize);
+        byte[] salt = new byte[SALT_SIZE];
+        SECURE_RANDOM.nextBytes(salt);
+        ivGenerator.nextIv(salt);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        SECURE_RANDOM.nextBytes(noncePrefix);
+        return new AesGcmStreamHeader(MAGIC_VERSION_2, segmentSize, kid, salt, noncePrefix);
+    }
+
+    static AesGcmStreamHeader read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        try {
+            byte version = dis.readByte();
+            if (version != MAGIC_VERSION_2) {
+                throw new IOException("Unsupported encrypted stream format");
+            }
+            int segmentSize = dis.readInt();
+            if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid segment size " + segmentSize);
+            }
+            byte[] kid = new byte[dis.readUnsignedByte()];
+            dis.readFully(kid);
+            byte[] salt = new byte[SALT_SIZE];
+            dis.readFully(salt);
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            dis.readFully(noncePrefix);
+            return new AesGcmStreamHeader(version, segmentSize, new String(kid, StandardCharsets.UTF_8), salt, noncePrefix);
+        } catch (EOFException e) {
+            throw new IOException("Encrypted stream is truncated", e);
+        }
+    }
+
+    static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + MIN_SEGMENT_SIZE + " and " + MAX_SEGMENT_SIZE);
+        }
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    String getKid() {
+        return kid;
+    }
+
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Key of the segments of the stream
+     *
+     * @param key key identified by the kid of the header
+     * @return the key derived for this stream
+     */
+    SecretKey deriveKey(SecretKey key) {
+        byte[] keyBytes = key.getEncoded();
+        try {
+            // HKDF (RFC 5869): extract then expand to the size of the key, which is at most one block
+            Mac mac = Mac.getInstance(HKDF_MAC);
+            mac.init(new SecretKeySpec(salt, HKDF_MAC));
+            byte[] prk = mac.doFinal(keyBytes);
+            mac.init(new SecretKeySpec(prk, HKDF_MAC));
+            mac.update(encoded);
+            mac.update((byte) 1);
+            byte[] okm = mac.doFinal();
+            Arrays.fill(prk, (byte) 0);
+            SecretKey res = new SecretKeySpec(okm, 0, keyBytes.length, "AES");
+            Arrays.fill(okm, (byte) 0);
+            return res;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot derive stream key", e);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Nonce of a segment
+     *
+     * @param segment segment index
+     * @param last    true if this is the last segment of the stream
+     * @return the nonce
+     */
+    byte[] nonce(int segment, boolean last) {
+        if (segment < 0) {
+            throw new IllegalStateException("Too many segments in encrypted stream");
+        }
+        byte[] nonce = new byte[IvGenerator.IV_SIZE];
+        System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_SIZE);
+        nonce[7] = (byte) (segment >>> 24);
+        nonce[8] = (byte) (segment >>> 16);
+        nonce[9] = (byte) (segment >>> 8);
+        nonce[10] = (byte) segment;
+        nonce[11] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+}
@@ -0,0 +1,353 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic authenticated encryption with AES-SIV (RFC 5297).
+ * Equal values encrypted with the same key give equal stored values, so that an encrypted column can be indexed and
+ * searched for equality without an additional HMAC column. As a consequence, the stored values reveal which values
+ * are equal: this mode is meant for attributes which need to be looked up, other attributes should be encrypted with
+ * {@link CryptoAesGcmUtil}.
+ * Keys are configured as AES keys with a kid and are twice the size of an AES key (32, 48 or 64 bytes): the first
+ * half is the S2V (CMAC) key and the second half is the CTR key.
+ * Values are stored with the compact format, flagged with {@link CompactStorageCodec#FLAG_SIV}, and the header of the
+ * envelope is authenticated as associated data.
+ */
+public class AesSivCrypto {
+    private static final int BLOCK_SIZE = 16;
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+    private static final CipherPool CBC_POOL = new CipherPool("AES/CBC/NoPadding", CipherPool.DEFAULT_MAX_IDLE);
+    private static final CipherPool CTR_POOL = new CipherPool("AES/CTR/NoPadding", CipherPool.DEFAULT_MAX_IDLE);
+
+    private final KeySource keySource;
+    private volatile SivKeys keys;
+
+    private AesSivCrypto(KeySet keySet, KeySource keySource) {
+        this.keys = new SivKeys(keySet);
+        this.keySource = keySource;
+    }
+
+    /**
+     * Load keys from an environment variable or from the file designated by the variable of the same name with
+     * suffix _FILE (see {@link KeySource#environment(String)})
+     */
+    public static AesSivCrypto fromEnvironment(String envKeyName) throws IOException {
+        return fromKeySource(KeySource.environment(envKeyName));
+    }
+
+    /**
+     * Create an instance whose keys are loaded from the given source and can be reloaded with {@link #reload()}
+     *
+     * @param keySource source of the AES-SIV keys
+     * @return a new instance
+     * @throws IOException if the keys can't be loaded
+     */
+    public static AesSivCrypto fromKeySource(KeySource keySource) throws IOException {
+        return new AesSivCrypto(KeySet.of(keySource.load(), AesKeyEntry::new), keySource);
+    }
+
+    /**
+     * Load the keys again from the key source of this instance. If the keys can't be loaded, the current keys are kept.
+     *
+     * @throws IOException if the keys can't be loaded
+     */
+    public void reload() throws IOException {
+        if (keySource == null) {
+            throw new IllegalStateException("Keys of this instance have not been loaded from a key source");
+        }
+        keys = new SivKeys(KeySet.of(keySource.load(), AesKeyEntry::new));
+    }
+
+    /**
+     * @return the identifier of the key used to encrypt new values
+     */
+    public String getCurrentKid() {
+        return keys.current.kid;
+    }
+
+    public String encryptForDatabaseStorage(String data) {
+        return encryptForDatabaseStorage(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encrypt a value with the most recent key. The result only depends on the key and on the value.
+     *
+     * @param data data to be encrypted
+     * @return the value to store
+     */
+    public String encryptForDatabaseStorage(byte[] data) {
+        return encrypt(keys.current, data);
+    }
+
+    /**
+     * Encrypt a value with each key. While a key rotation is in progress, stored values may have been encrypted with
+     * any of these keys: a lookup should match any of the returned values.
+     *
+     * @param data value to look up
+     * @return the value encrypted with each key, the one encrypted with the most recent key first
+     */
+    public List<String> encryptForDatabaseLookup(String data) {
+        byte[] value = data.getBytes(StandardCharsets.UTF_8);
+        List<SivKey> all = keys.all;
+        List<String> res = new ArrayList<>(all.size());
+        for (SivKey key : all) {
+            res.add(encrypt(key, value));
+        }
+        return res;
+    }
+
+    public String decryptFromDatabaseStorageToString(String data) {
+        return new String(decryptFromDatabaseStorage(data), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypt a value encrypted by {@link #encryptForDatabaseStorage(byte[])}
+     *
+     * @param data stored value
+     * @return decrypted data
+     * @throws IllegalArgumentException if the value is not an AES-SIV value or has been tampered with
+     * @throws IllegalStateException    if the key of the value is unknown
+     */
+    public byte[] decryptFromDatabaseStorage(String data) {
+        CompactStorageCodec.Envelope envelope = CompactStorageCodec.decode(data);
+        if (envelope == null || envelope.getFlags() != CompactStorageCodec.FLAG_SIV) {
+            throw new IllegalArgumentException("Value is not encrypted with AES-SIV");
+        }
+        SivKey key = keys.byKid.get(envelope.getKid());
+        if (key == null) {
+            throw new IllegalStateException("Required key " + envelope.getKid() + " cannot be found");
+        }
+        byte[] buffer = envelope.getBuffer();
+        byte[] header = Arrays.copyOf(buffer, envelope.getPayloadOffset());
+        return open(key, new byte[][]{header}, buffer, envelope.getPayloadOffset(), envelope.getPayloadLength());
+    }
+
+    /**
+     * @param data stored value
+     * @return true if the value is not encrypted with the current key
+     */
+    public boolean needsReEncryption(String data) {
+        return !keys.current.kid.equals(CryptoAesGcmUtil.getKid(data));
+    }
+
+    private static String encrypt(SivKey key, byte[] data) {
+        byte[] kidBytes = CompactStorageCodec.kidToBytes(key.kid);
+        int headerSize = CompactStorageCodec.headerSize(kidBytes);
+        byte[] buffer = new byte[headerSize + BLOCK_SIZE + data.length];
+        CompactStorageCodec.writeHeader(buffer, kidBytes, CompactStorageCodec.FLAG_SIV);
+        seal(key, new byte[][]{Arrays.copyOf(buffer, headerSize)}, data, buffer, headerSize);
+        return CompactStorageCodec.encode(buffer);
+    }
+
+    /**
+     * AES-SIV encryption as defined by RFC 5297
+     *
+     * @param key            key of 32, 48 or 64 bytes
+     * @param associatedData associated data, authenticated but not encrypted (a nonce is the last associated data)
+     * @param plaintext      data to encrypt
+     * @return synthetic IV followed by the ciphered text
+     */
+    static byte[] encrypt(byte[] key, byte[][] associatedData, byte[] plaintext) {
+        byte[] res = new byte[BLOCK_SIZE + plaintext.length];
+        seal(new SivKey(null, key), associatedData, plaintext, res, 0);
+        return res;
+    }
+
+    /**
+     * AES-SIV decryption as defined by RFC 5297
+     *
+     * @throws IllegalArgumentException if the ciphered text can't be authenticated
+     */
+    static byte[] decrypt(byte[] key, byte[][] associatedData, byte[] encrypted) {
+        return open(new SivKey(null, key), associatedData, encrypted, 0, encrypted.length);
+    }
+
+    private static void seal(SivKey key, byte[][] associatedData, byte[] plaintext, byte[] out, int offset) {
+        Cipher cbc = CBC_POOL.acquire();
+        Cipher ctr = CTR_POOL.acquire();
+        try {
+            byte[] v = s2v(cbc, key, associatedData, plaintext);
+            System.arraycopy(v, 0, out, offset, BLOCK_SIZE);
+            ctr.init(Cipher.ENCRYPT_MODE, key.ctrKey, new IvParameterSpec(counter(v)));
+            ctr.doFinal(plaintext, 0, plaintext.length, out, offset + BLOCK_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unexpected error while encrypting data with AES-SIV", e);
+        } finally {
+            CBC_POOL.release(cbc);
+            CTR_POOL.release(ctr);
+        }
+    }
+
+    private static byte[] open(SivKey key, byte[][] associatedData, byte[] in, int offset, int length) {
+        if (length < BLOCK_SIZE) {
+            throw new IllegalArgumentException("AES-SIV value is too short");
+        }
+        Cipher cbc = CBC_POOL.acquire();
+        Cipher ctr = CTR_POOL.acquire();
+        try {
+            byte[] v = Arrays.copyOfRange(in, offset, offset + BLOCK_SIZE);
+            ctr.init(Cipher.DECRYPT_MODE, key.ctrKey, new IvParameterSpec(counter(v)));
+            byte[] res = ctr.doFinal(in, offset + BLOCK_SIZE, length - BLOCK_SIZE);
+            if (!MessageDigest.isEqual(v, s2v(cbc, key, associatedData, res))) {
+                Arrays.fill(res, (byte) 0);
+                throw new IllegalArgumentException("AES-SIV value can't be authenticated");
+            }
+            return res;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unexpected error while decrypting data with AES-SIV", e);
+        } finally {
+            CBC_POOL.release(cbc);
+            CTR_POOL.release(ctr);
+        }
+    }
+
+    /**
+     * Q = V bitand (1^64 || 0^1 || 1^31 || 0^1 || 1^31)
+     */
+    private static byte[] counter(byte[] v) {
+        byte[] q = v.clone();
+        q[8] &= 0x7f;
+        q[12] &= 0x7f;
+        return q;
+    }
+
+    private static byte[] s2v(Cipher cbc, SivKey key, byte[][] associatedData, byte[] plaintext) throws GeneralSecurityException {
+        byte[] d = key.cmacZero.clone();
+        for (byte[] ad : associatedData) {
+            dbl(d);
+            xor(d, 0, cmac(cbc, key, ad));
+        }
+        byte[] t;
+        if (plaintext.length >= BLOCK_SIZE) {
+            t = plaintext.clone();
+            xor(t, t.length - BLOCK_SIZE, d);
+        } else {
+            dbl(d);
+            t = d;
+            for (int i = 0; i < plaintext.length; i++) {
+                t[i] ^= plaintext[i];
+            }
+            t[plaintext.length] ^= (byte) 0x80;
+        }
+        try {
+            return cmac(cbc, key, t);
+        } finally {
+            Arrays.fill(t, (byte) 0);
+        }
+    }
+
+    /**
+     * AES-CMAC (RFC 4493) computed as the last block of a CBC encryption
+     */
+    private static byte[] cmac(Cipher cbc, SivKey key, byte[] data) throws GeneralSecurityException {
+        int lastOffset = data.length == 0 ? 0 : (data.length - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        int lastLength = data.length - lastOffset;
+        byte[] last = new byte[BLOCK_SIZE];
+        System.arraycopy(data, lastOffset, last, 0, lastLength);
+        if (lastLength == BLOCK_SIZE) {
+            xor(last, 0, key.cmacK1);
+        } else {
+            last[lastLength] = (byte) 0x80;
+            xor(last, 0, key.cmacK2);
+        }
+        byte[] res = new byte[BLOCK_SIZE];
+        cbc.init(Cipher.ENCRYPT_MODE, key.macKey, new IvParameterSpec(ZERO_BLOCK));
+        for (int i = 0; i < lastOffset; i += BLOCK_SIZE) {
+            cbc.update(data, i, BLOCK_SIZE, res, 0);
+        }
+        cbc.doFinal(last, 0, BLOCK_SIZE, res, 0);
+        return res;
+    }
+
+    /**
+     * Multiplication by x in GF(2^128)
+     */
+    private static void dbl(byte[] block) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int b = block[i] & 0xff;
+            block[i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+        if (carry != 0) {
+            block[BLOCK_SIZE - 1] ^= (byte) 0x87;
+        }
+    }
+
+    private static void xor(byte[] target, int offset, byte[] block) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            target[offset + i] ^= block[i];
+        }
+    }
+
+    /**
+     * Keys of an instance, replaced as a whole when keys are reloaded
+     */
+    private static final class SivKeys {
+        private final SivKey current;
+        private final List<SivKey> all;
+        private final Map<String, SivKey> byKid = new HashMap<>();
+
+        SivKeys(KeySet keySet) {
+            List<SivKey> res = new ArrayList<>();
+            for (KeyEntry entry : keySet.getEntries()) {
+                SivKey key = new SivKey(entry.getKid(), entry.getValue());
+                res.add(key);
+                byKid.put(key.kid, key);
+            }
+            this.all = Collections.unmodifiableList(res);
+            this.current = res.get(0);
+        }
+    }
+
+    /**
+     * AES-SIV key along with its precomputed CMAC values
+     */
+    private static final class SivKey {
+        private final String kid;
+        private final SecretKey macKey;
+        private final SecretKey ctrKey;
+        private final byte[] cmacK1;
+        private final byte[] cmacK2;
+        private final byte[] cmacZero;
+
+        SivKey(String kid, byte[] value) {
+            if (value == null || (value.length != 32 && value.length != 48 && value.length != 64)) {
+                throw new IllegalStateException("AES-SIV key " + kid + " must be 32, 48 or 64 bytes long");
+            }
+            int half = value.length / 2;
+            this.kid = kid;
+            this.macKey = new SecretKeySpec(value, 0, half, "AES");
+            this.ctrKey = new SecretKeySpec(value, half, half, "AES");
+            try {
+                Cipher ecb = Cipher.getInstance("AES/ECB/NoPadding");
+                ecb.init(Cipher.ENCRYPT_MODE, macKey);
+                cmacK1 = ecb.doFinal(ZERO_BLOCK);
+                dbl(cmacK1);
+                cmacK2 = cmacK1.clone();
+                dbl(cmacK2);
+                Cipher cbc = CBC_POOL.acquire();
+                try {
+                    cmacZero = cmac(cbc, this, ZERO_BLOCK);
+                } finally {
+                    CBC_POOL.release(cbc);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize AES-SIV key " + kid, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Bounded pool of {@link Cipher} instances for a given transformation.
+ * Creating a Cipher requires a provider lookup which is expensive compared to the encryption of a small value,
+ * so instances are kept for reuse. Each Cipher is used by a single caller between {@link #acquire()} and
+ * {@link #release(Object)} and is always re-initialized before being used.
+ */
+public class CipherPool extends Pool<Cipher> {
+    public static final int DEFAULT_MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final CipherPool AES_GCM = new CipherPool("AES/GCM/NoPadding", DEFAULT_MAX_IDLE);
+
+    private final String transformation;
+
+    public CipherPool(String transformation, int maxIdle) {
+        super(() -> createCipher(transformation), maxIdle);
+        this.transformation = transformation;
+    }
+
+    private static Cipher createCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Cannot create cipher " + transformation, e);
+        }
+    }
+
+    /**
+     * Pool shared by the AES/GCM/NoPadding helpers
+     */
+    public static CipherPool aesGcm() {
+        return AES_GCM;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+}
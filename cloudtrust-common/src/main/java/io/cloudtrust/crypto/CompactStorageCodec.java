@@ -0,0 +1,122 @@
+package io.cloudtrust.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Codec of the compact storage format (version 2).
+ * The stored value is the prefix {@value #PREFIX} followed by the Base64 encoding of:
+ * <pre>
+ * | magic/version (1) | flags (1) | kid length (1) | kid (n) | payload |
+ * </pre>
+ * where payload is IV and ciphered text (or the clear data when the key is empty).
+ * The prefix is not part of the Base64 alphabet: a compact value can't be confused with a legacy value.
+ */
+final class CompactStorageCodec {
+    static final String PREFIX = "~";
+    static final byte MAGIC_VERSION_2 = (byte) 0xC2;
+    static final int MAX_KID_LENGTH = 255;
+    /**
+     * The kid identifies a data key wrapped by the master key (see {@link EnvelopeCrypto})
+     */
+    static final int FLAG_DATA_KEY = 0x01;
+    /**
+     * The data have been compressed with Deflate before their encryption (see {@link CompressionCodec})
+     */
+    static final int FLAG_DEFLATE = 0x02;
+    /**
+     * The payload is the synthetic IV and ciphered text of a deterministic encryption (see {@link AesSivCrypto})
+     */
+    static final int FLAG_SIV = 0x04;
+
+    private static final int FIXED_HEADER_SIZE = 3;
+
+    private CompactStorageCodec() {
+    }
+
+    static byte[] kidToBytes(String kid) {
+        byte[] res = kid.getBytes(StandardCharsets.UTF_8);
+        if (res.length > MAX_KID_LENGTH) {
+            throw new IllegalArgumentException("Key identifier is too long for the compact storage format");
+        }
+        return res;
+    }
+
+    static int headerSize(byte[] kid) {
+        return FIXED_HEADER_SIZE + kid.length;
+    }
+
+    /**
+     * Write the header at the beginning of the given buffer
+     */
+    static void writeHeader(byte[] buffer, byte[] kid, int flags) {
+        buffer[0] = MAGIC_VERSION_2;
+        buffer[1] = (byte) flags;
+        buffer[2] = (byte) kid.length;
+        System.arraycopy(kid, 0, buffer, FIXED_HEADER_SIZE, kid.length);
+    }
+
+    static String encode(byte[] buffer) {
+        return PREFIX + Base64.getEncoder().encodeToString(buffer);
+    }
+
+    static boolean hasPrefix(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Decode a value stored with the compact format
+     *
+     * @param value stored value
+     * @return the decoded envelope or null if the value does not use the compact format
+     */
+    static Envelope decode(String value) {
+        if (!hasPrefix(value) || !StoredValueFormatDetector.isBase64(value, PREFIX.length())) {
+            return null;
+        }
+        byte[] buffer = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+        if (buffer.length < FIXED_HEADER_SIZE || buffer[0] != MAGIC_VERSION_2) {
+            return null;
+        }
+        int kidLength = buffer[2] & 0xFF;
+        if (buffer.length < FIXED_HEADER_SIZE + kidLength) {
+            return null;
+        }
+        String kid = new String(buffer, FIXED_HEADER_SIZE, kidLength, StandardCharsets.UTF_8);
+        return new Envelope(kid, buffer[1] & 0xFF, buffer, FIXED_HEADER_SIZE + kidLength);
+    }
+
+    static final class Envelope {
+        private final String kid;
+        private final int flags;
+        private final byte[] buffer;
+        private final int payloadOffset;
+
+        Envelope(String kid, int flags, byte[] buffer, int payloadOffset) {
+            this.kid = kid;
+            this.flags = flags;
+            this.buffer = buffer;
+            this.payloadOffset = payloadOffset;
+        }
+
+        String getKid() {
+            return kid;
+        }
+
+        int getFlags() {
+            return flags;
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        int getPayloadOffset() {
+            return payloadOffset;
+        }
+
+        int getPayloadLength() {
+            return buffer.length - payloadOffset;
+        }
+    }
+}
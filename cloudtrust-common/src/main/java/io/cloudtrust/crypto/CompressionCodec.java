@@ -0,0 +1,93 @@
+package io.cloudtrust.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression applied to values before their encryption, see {@link CryptoAesGcmUtil#setCompression}.
+ * Both codecs produce raw Deflate data (no zlib header) and are read the same way: they only differ by the trade-off
+ * between speed and compression ratio.
+ * Compression should not be enabled for values which mix secrets and data controlled by an attacker: the size of
+ * the encrypted value would leak information about the secret.
+ */
+public enum CompressionCodec {
+    /**
+     * Deflate with the default compression level
+     */
+    DEFLATE(Deflater.DEFAULT_COMPRESSION),
+    /**
+     * Deflate with the fastest compression level
+     */
+    DEFLATE_FAST(Deflater.BEST_SPEED);
+
+    /**
+     * Name of the compression in the JSON envelope
+     */
+    static final String DEFLATE_NAME = "deflate";
+    /**
+     * Maximum size of an inflated value, protects against decompression bombs
+     */
+    static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int level;
+
+    CompressionCodec(int level) {
+        this.level = level;
+    }
+
+    byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            Arrays.fill(buffer, (byte) 0);
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] data, int offset, int length) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] res = new byte[Math.min(MAX_INFLATED_SIZE, Math.max(64, length * 4))];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == res.length) {
+                    if (res.length == MAX_INFLATED_SIZE) {
+                        throw new IllegalArgumentException("Inflated value is too large");
+                    }
+                    byte[] larger = Arrays.copyOf(res, Math.min(MAX_INFLATED_SIZE, res.length * 2));
+                    Arrays.fill(res, (byte) 0);
+                    res = larger;
+                }
+                int n = inflater.inflate(res, size, res.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Compressed value is truncated");
+                }
+                size += n;
+            }
+            if (size == res.length) {
+                return res;
+            }
+            byte[] exact = Arrays.copyOf(res, size);
+            Arrays.fill(res, (byte) 0);
+            return exact;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.cloudtrust.crypto;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deterministic IV construction as described in NIST SP 800-38D (section 8.2.1):
+ * a 4 bytes fixed field identifying the instance followed by an 8 bytes invocation counter.
+ * Instances sharing a key must have distinct fixed fields, which is why the fixed field must be supplied by the
+ * caller, for instance as a node identifier. Since a node gets the same fixed field each time it restarts, the counter
+ * of each instance starts at a random value: the IVs of two runs of a node only collide if their counter ranges
+ * overlap, and the invocations of an instance are limited as those of random IVs
+ * ({@link RandomIvGenerator#INVOCATION_LIMIT}). Generating an IV only costs an atomic increment.
+ */
+public class CounterIvGenerator implements IvGenerator {
+    private static final int FIXED_FIELD_SIZE = 4;
+
+    private final byte[] fixedField;
+    private final long counterStart;
+    private final long invocationLimit;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * @param nodeId Identifier unique among the instances sharing a key
+     */
+    public CounterIvGenerator(int nodeId) {
+        this(new byte[]{(byte) (nodeId >>> 24), (byte) (nodeId >>> 16), (byte) (nodeId >>> 8), (byte) nodeId});
+    }
+
+    /**
+     * @param fixedField 4 bytes unique among the instances sharing a key
+     */
+    public CounterIvGenerator(byte[] fixedField) {
+        this(fixedField, new SecureRandom().nextLong());
+    }
+
+    CounterIvGenerator(byte[] fixedField, long counterStart) {
+        this(checkFixedField(fixedField), counterStart, RandomIvGenerator.INVOCATION_LIMIT);
+    }
+
+    private CounterIvGenerator(byte[] fixedField, long counterStart, long invocationLimit) {
+        this.fixedField = fixedField.clone();
+        this.counterStart = counterStart;
+        this.invocationLimit = invocationLimit;
+    }
+
+    /**
+     * Create a generator whose fixed field is random too, for callers which can't give each instance a unique
+     * identifier. The IV sequences of two instances may then overlap as those of two runs of a node.
+     */
+    public static CounterIvGenerator withRandomStart() {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] fixedField = new byte[FIXED_FIELD_SIZE];
+        secureRandom.nextBytes(fixedField);
+        return new CounterIvGenerator(fixedField, secureRandom.nextLong(), RandomIvGenerator.INVOCATION_LIMIT);
+    }
+
+    private static byte[] checkFixedField(byte[] fixedField) {
+        if (fixedField == null || fixedField.length != FIXED_FIELD_SIZE) {
+            throw new IllegalArgumentException("Fixed field must be " + FIXED_FIELD_SIZE + " bytes long");
+        }
+        return fixedField;
+    }
+
+    @Override
+    public void nextIv(byte[] iv) {
+        long invocation = counter.getAndIncrement();
+        if (invocation < 0) {
+            counter.set(Long.MIN_VALUE);
+            throw new IllegalStateException("IV counter exhausted: the key must be rotated");
+        }
+        long value = counterStart + invocation;
+        System.arraycopy(fixedField, 0, iv, 0, FIXED_FIELD_SIZE);
+        for (int i = IV_SIZE - 1; i >= FIXED_FIELD_SIZE; i--) {
+            iv[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    @Override
+    public long getInvocationCount() {
+        long value = counter.get();
+        return value < 0 ? Long.MAX_VALUE : value;
+    }
+
+    @Override
+    public long getInvocationLimit() {
+        return invocationLimit;
+    }
+}
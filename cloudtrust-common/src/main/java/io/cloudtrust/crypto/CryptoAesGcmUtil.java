@@ -7,44 +7,70 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CryptoAesGcmUtil {
     private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
-    private static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
-    private static final int IV_SIZE = 12; //size recommended by NIST
+    private static final int IV_SIZE = IvGenerator.IV_SIZE;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final CipherPool CIPHER_POOL = CipherPool.aesGcm();
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
 
     private static final TypeReference<List<AesKeyEntry>> aesKeysTypeRef = new TypeReference<>() {};
-    private static CryptoAesGcmUtil defaultInstance;
+    private static volatile CryptoAesGcmUtil defaultInstance;
 
-    private KeyEntry currentDbEncryptionKey;
-    private Map<String, SecretKey> historyDbEncryptionKey;
+    private final KeySource keySource;
+    private volatile KeySet keySet;
+    private volatile IvGenerator ivGenerator = new RandomIvGenerator();
+    private volatile StorageFormat storageFormat = StorageFormat.JSON;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile ForkJoinPool batchPool = ForkJoinPool.commonPool();
+    private volatile DecryptedValueCache decryptedValueCache;
+    private volatile CompressionCodec compressionCodec;
+    private volatile CryptoMetrics metrics = CryptoMetrics.NOOP;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private final Map<StoredValueFormat, LongAdder> formatHits = new EnumMap<>(StoredValueFormat.class);
+    private final Map<String, LongAdder> staleReads = new ConcurrentHashMap<>();
 
     static {
         defaultInstance = fromEnvironmentNoException();
     }
 
-    private CryptoAesGcmUtil(List<AesKeyEntry> keys) {
-        if (keys.isEmpty()) {
-            throw new IllegalStateException("Cannot find any appropriate key from configuration");
+    private CryptoAesGcmUtil(KeySet keySet, KeySource keySource) {
+        this(keySet, keySource, true);
+    }
+
+    private CryptoAesGcmUtil(KeySet keySet, KeySource keySource, boolean defaultCandidate) {
+        this.keySet = keySet;
+        this.keySource = keySource;
+        for (StoredValueFormat format : StoredValueFormat.values()) {
+            formatHits.put(format, new LongAdder());
         }
-        Collections.sort(keys);
-        currentDbEncryptionKey = keys.get(0);
-        historyDbEncryptionKey = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
-        if (defaultInstance == null) {
+        if (defaultCandidate && defaultInstance == null) {
             defaultInstance = this;
         }
     }
@@ -53,6 +79,10 @@ public class CryptoAesGcmUtil {
         return defaultInstance;
     }
 
+    static void setDefault(CryptoAesGcmUtil instance) {
+        defaultInstance = instance;
+    }
+
     public static CryptoAesGcmUtil fromEnvironmentNoException() {
         try {
             return fromEnvironment(DB_ENCRYPTION_KEY_ENV_VAR_NAME);
@@ -65,19 +95,62 @@ public class CryptoAesGcmUtil {
         return fromEnvironment(DB_ENCRYPTION_KEY_ENV_VAR_NAME);
     }
 
+    /**
+     * Load keys from an environment variable. If the variable is not set, keys are read from the file designated by
+     * the environment variable of the same name with suffix _FILE: such an instance can be reloaded.
+     */
     public static CryptoAesGcmUtil fromEnvironment(String envKeyName) throws JsonProcessingException {
-        String keys = System.getenv(envKeyName); // each key is encoded in Base64
-        if (keys == null || keys.isBlank()) {
-            throw new IllegalStateException("Cannot find any appropriate key from environment variable " + envKeyName);
+        try {
+            return fromKeySource(KeySource.environment(envKeyName));
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load keys from environment variable " + envKeyName, e);
         }
-        return fromJSON(keys);
     }
 
     public static CryptoAesGcmUtil fromJSON(String jsonContent) throws JsonProcessingException {
         if (jsonContent == null || jsonContent.isBlank()) {
             throw new IllegalStateException("Cannot find any appropriate key from json content");
         }
-        return new CryptoAesGcmUtil(new ObjectMapper().readValue(jsonContent, aesKeysTypeRef));
+        return new CryptoAesGcmUtil(KeySet.of(new ObjectMapper().readValue(jsonContent, aesKeysTypeRef)), null);
+    }
+
+    /**
+     * Create an instance whose keys are loaded from the given source and can be reloaded with {@link #reload()}
+     *
+     * @param keySource source of the AES keys
+     * @return a new instance
+     * @throws IOException if the keys can't be loaded
+     */
+    public static CryptoAesGcmUtil fromKeySource(KeySource keySource) throws IOException {
+        return new CryptoAesGcmUtil(KeySet.of(keySource.load(), AesKeyEntry::new), keySource);
+    }
+
+    /**
+     * Same as {@link #fromKeySource(KeySource)} for keys which are not global: the new instance never becomes the
+     * default instance, even if no global key is configured.
+     */
+    static CryptoAesGcmUtil fromTenantKeySource(KeySource keySource) throws IOException {
+        return new CryptoAesGcmUtil(KeySet.of(keySource.load(), AesKeyEntry::new), keySource, false);
+    }
+
+    /**
+     * Load the keys again from the key source of this instance and replace the current key set atomically.
+     * Operations in progress complete with the previous key set. If the keys can't be loaded, the current key set
+     * is kept.
+     *
+     * @throws IOException if the keys can't be loaded
+     */
+    public void reload() throws IOException {
+        if (keySource == null) {
+            throw new IllegalStateException("Keys of this instance have not been loaded from a key source");
+        }
+        keySet = KeySet.of(keySource.load(), AesKeyEntry::new);
+        DecryptedValueCache cache = decryptedValueCache;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     /**
@@ -103,20 +176,45 @@ public class CryptoAesGcmUtil {
      * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
      */
     public static String gcmEncryptData(SecretKey aesKey, byte[] data) throws BadPaddingException, IllegalBlockSizeException {
-        SecureRandom sr = new SecureRandom();
-        byte[] iv = new byte[IV_SIZE];
-        sr.nextBytes(iv);
+        return gcmEncryptData(aesKey, data, RandomIvGenerator.shared());
+    }
+
+    /**
+     * Encrypts the given byte array with the AES/GCM/NoPadding algorithm.
+     *
+     * @param aesKey      The AES secret key to encrypt the data
+     * @param data        The bytes to encrypt
+     * @param ivGenerator The generator of the initialization vector
+     * @return The encrypted output encoded to a base64 String.
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static String gcmEncryptData(SecretKey aesKey, byte[] data, IvGenerator ivGenerator) throws BadPaddingException, IllegalBlockSizeException {
+        return Base64.getEncoder().encodeToString(gcmEncryptRaw(aesKey, data, ivGenerator, 0));
+    }
+
+    /**
+     * Encrypts the given byte array with the AES/GCM/NoPadding algorithm.
+     *
+     * @param aesKey      The AES secret key to encrypt the data
+     * @param data        The bytes to encrypt
+     * @param ivGenerator The generator of the initialization vector
+     * @param offset      Number of bytes to reserve at the beginning of the returned array
+     * @return An array containing offset reserved bytes, the IV and the ciphered text
+     */
+    static byte[] gcmEncryptRaw(SecretKey aesKey, byte[] data, IvGenerator ivGenerator, int offset) throws BadPaddingException, IllegalBlockSizeException {
+        byte[] iv = ivGenerator.nextIv();
+        Cipher cipher = CIPHER_POOL.acquire();
         try {
-            final Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, aesKey, parameterSpec);
-            byte[] cipheredText = cipher.doFinal(data);
-            ByteBuffer gcmData = ByteBuffer.allocate(iv.length + cipheredText.length);
-            gcmData.put(iv);
-            gcmData.put(cipheredText);
-            return Base64.getEncoder().encodeToString(gcmData.array());
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            byte[] gcmData = new byte[offset + IV_SIZE + cipher.getOutputSize(data.length)];
+            System.arraycopy(iv, 0, gcmData, offset, IV_SIZE);
+            int length = offset + IV_SIZE + cipher.doFinal(data, 0, data.length, gcmData, offset + IV_SIZE);
+            return length == gcmData.length ? gcmData : Arrays.copyOf(gcmData, length);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException e) {
             throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
+        } finally {
+            CIPHER_POOL.release(cipher);
         }
     }
 
@@ -133,18 +231,133 @@ public class CryptoAesGcmUtil {
         if (encryptedData == null) {
             return null;
         }
-        ByteBuffer gcmData = ByteBuffer.wrap(Base64.getDecoder().decode(encryptedData));
-        byte[] iv = new byte[IV_SIZE];
-        gcmData.get(iv);
-        byte[] cipheredText = new byte[gcmData.remaining()];
-        gcmData.get(cipheredText);
+        byte[] gcmData = Base64.getDecoder().decode(encryptedData);
+        return gcmDecryptRaw(aesKey, gcmData, 0, gcmData.length);
+    }
+
+    /**
+     * Decrypts IV and ciphered text read in place from the given array
+     */
+    static byte[] gcmDecryptRaw(SecretKey aesKey, byte[] gcmData, int offset, int length) throws BadPaddingException, IllegalBlockSizeException {
+        if (length < IV_SIZE) {
+            throw new IllegalArgumentException("Encrypted data is too short");
+        }
+        Cipher cipher = CIPHER_POOL.acquire();
+        try {
+            // IV and ciphered text are read in place: no need to copy them into dedicated arrays
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, gcmData, offset, IV_SIZE));
+            return cipher.doFinal(gcmData, offset + IV_SIZE, length - IV_SIZE);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
+        } finally {
+            CIPHER_POOL.release(cipher);
+        }
+    }
+
+    /**
+     * Computes the size of the output of {@link #gcmEncrypt(SecretKey, ByteBuffer, ByteBuffer)}
+     *
+     * @param plainLength Number of bytes to encrypt
+     * @return Number of bytes needed to store the IV and the ciphered text
+     */
+    public static int gcmEncryptedSize(int plainLength) {
+        return IV_SIZE + plainLength + TAG_LENGTH_BITS / 8;
+    }
+
+    /**
+     * Computes the maximum size of the output of {@link #gcmDecrypt(SecretKey, ByteBuffer, ByteBuffer)}
+     *
+     * @param encryptedLength Number of bytes of IV and ciphered text
+     * @return Number of bytes needed to store the decrypted data
+     */
+    public static int gcmDecryptedSize(int encryptedLength) {
+        return Math.max(0, encryptedLength - IV_SIZE - TAG_LENGTH_BITS / 8);
+    }
+
+    /**
+     * Encrypts the remaining bytes of the input buffer with the AES/GCM/NoPadding algorithm.
+     * IV and ciphered text are written in the output buffer, without any intermediate copy or Base64 encoding.
+     * Buffers can be heap or direct buffers.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param input  The bytes to encrypt
+     * @param output The buffer receiving the IV and the ciphered text (see {@link #gcmEncryptedSize(int)})
+     * @return The number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmEncrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        return gcmEncrypt(aesKey, input, output, RandomIvGenerator.shared());
+    }
+
+    /**
+     * Encrypts the remaining bytes of the input buffer with the AES/GCM/NoPadding algorithm.
+     *
+     * @param aesKey      The AES secret key to encrypt the data
+     * @param input       The bytes to encrypt
+     * @param output      The buffer receiving the IV and the ciphered text (see {@link #gcmEncryptedSize(int)})
+     * @param ivGenerator The generator of the initialization vector
+     * @return The number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmEncrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output, IvGenerator ivGenerator) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        int required = gcmEncryptedSize(input.remaining());
+        if (output.remaining() < required) {
+            throw new ShortBufferException("Output buffer needs " + required + " bytes");
+        }
+        byte[] iv = ivGenerator.nextIv();
+        Cipher cipher = CIPHER_POOL.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            output.put(iv);
+            return IV_SIZE + cipher.doFinal(input, output);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
+        } finally {
+            CIPHER_POOL.release(cipher);
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes (IV and ciphered text) of the input buffer with the AES/GCM/NoPadding algorithm.
+     * The decrypted data is written in the output buffer, without any intermediate copy or Base64 decoding.
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The IV and the ciphered text
+     * @param output The buffer receiving the decrypted data (see {@link #gcmDecryptedSize(int)})
+     * @return The number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmDecrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        if (input.remaining() < IV_SIZE) {
+            throw new IllegalArgumentException("Encrypted data is too short");
+        }
+        int required = gcmDecryptedSize(input.remaining());
+        if (output.remaining() < required) {
+            throw new ShortBufferException("Output buffer needs " + required + " bytes");
+        }
+        GCMParameterSpec parameterSpec;
+        if (input.hasArray()) {
+            parameterSpec = new GCMParameterSpec(TAG_LENGTH_BITS, input.array(), input.arrayOffset() + input.position(), IV_SIZE);
+            input.position(input.position() + IV_SIZE);
+        } else {
+            byte[] iv = new byte[IV_SIZE];
+            input.get(iv);
+            parameterSpec = new GCMParameterSpec(TAG_LENGTH_BITS, iv);
+        }
+        Cipher cipher = CIPHER_POOL.acquire();
         try {
-            Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
             cipher.init(Cipher.DECRYPT_MODE, aesKey, parameterSpec);
-            return cipher.doFinal(cipheredText);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return cipher.doFinal(input, output);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
+        } finally {
+            CIPHER_POOL.release(cipher);
         }
     }
 
@@ -161,6 +374,41 @@ public class CryptoAesGcmUtil {
         return new String(gcmDecryptData(aesKey, encryptedText), StandardCharsets.UTF_8);
     }
 
+    public IvGenerator getIvGenerator() {
+        return ivGenerator;
+    }
+
+    /**
+     * Change the strategy used to generate the IVs when encrypting data for database storage.
+     * The generator counts its invocations: it can be used to monitor how close the current key is from its
+     * safe invocation limit.
+     *
+     * @param ivGenerator IV generator
+     */
+    public void setIvGenerator(IvGenerator ivGenerator) {
+        if (ivGenerator == null) {
+            throw new IllegalArgumentException("IV generator can't be null");
+        }
+        this.ivGenerator = ivGenerator;
+    }
+
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    /**
+     * Change the format used to write values encrypted for database storage.
+     * Whatever the configured format is, all the formats can be read by decryptFromDatabaseStorage.
+     *
+     * @param storageFormat storage format
+     */
+    public void setStorageFormat(StorageFormat storageFormat) {
+        if (storageFormat == null) {
+            throw new IllegalArgumentException("Storage format can't be null");
+        }
+        this.storageFormat = storageFormat;
+    }
+
     public String encryptForDatabaseStorage(String data) {
         return this.encryptForDatabaseStorage(data.getBytes(StandardCharsets.UTF_8));
     }
@@ -172,55 +420,522 @@ public class CryptoAesGcmUtil {
      * @return base64 representation of the encrypted data
      */
     public String encryptForDatabaseStorage(byte[] data) {
+        CryptoMetrics m = metrics;
+        if (m == CryptoMetrics.NOOP) {
+            return encryptValue(keySet.getCurrent(), data);
+        }
+        long start = System.nanoTime();
+        KeyEntry current = keySet.getCurrent();
+        String res = encryptValue(current, data);
+        m.encrypted(current.kid, data.length, System.nanoTime() - start);
+        return res;
+    }
+
+    private String encryptValue(KeyEntry current, byte[] data) {
+        CompressionCodec codec = compressionCodec;
+        byte[] compressed = null;
+        if (codec != null && data.length >= compressionThreshold) {
+            compressed = codec.compress(data);
+            if (compressed.length >= data.length) {
+                // not worth it
+                Arrays.fill(compressed, (byte) 0);
+                compressed = null;
+            }
+        }
         try {
-            SecretKey dbEncryptionKey = currentDbEncryptionKey.key;
-            String encData = Base64.getEncoder().encodeToString(data);
-            if (dbEncryptionKey != null && !dbEncryptionKey.getAlgorithm().equals("NONE")) {
-                encData = gcmEncryptData(dbEncryptionKey, data);
+            byte[] payload = compressed != null ? compressed : data;
+            SecretKey dbEncryptionKey = current.key;
+            if (storageFormat == StorageFormat.COMPACT) {
+                return encryptCompact(current.kid, dbEncryptionKey, payload, compressed != null ? CompactStorageCodec.FLAG_DEFLATE : 0);
             }
-            EncryptedData encryptedData = new EncryptedData(currentDbEncryptionKey.kid, encData);
-            return new ObjectMapper().writeValueAsString(encryptedData);
+            String encData = Base64.getEncoder().encodeToString(payload);
+            if (!isEmptyKey(dbEncryptionKey)) {
+                encData = gcmEncryptData(dbEncryptionKey, payload, ivGenerator);
+            }
+            return EncryptedDataCodec.encode(current.kid, encData, compressed != null ? CompressionCodec.DEFLATE_NAME : null);
         } catch (BadPaddingException | IllegalBlockSizeException | JsonProcessingException ex) {
             throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
+        } finally {
+            if (compressed != null) {
+                Arrays.fill(compressed, (byte) 0);
+            }
         }
     }
 
+    private String encryptCompact(String kid, SecretKey dbEncryptionKey, byte[] data, int flags) throws BadPaddingException, IllegalBlockSizeException {
+        byte[] kidBytes = CompactStorageCodec.kidToBytes(kid);
+        int headerSize = CompactStorageCodec.headerSize(kidBytes);
+        byte[] buffer;
+        if (isEmptyKey(dbEncryptionKey)) {
+            buffer = new byte[headerSize + data.length];
+            System.arraycopy(data, 0, buffer, headerSize, data.length);
+        } else {
+            buffer = gcmEncryptRaw(dbEncryptionKey, data, ivGenerator, headerSize);
+        }
+        CompactStorageCodec.writeHeader(buffer, kidBytes, flags);
+        return CompactStorageCodec.encode(buffer);
+    }
+
+    private byte[] decryptCompact(CompactStorageCodec.Envelope envelope) throws BadPaddingException, IllegalBlockSizeException {
+        if ((envelope.getFlags() & ~CompactStorageCodec.FLAG_DEFLATE) != 0) {
+            throw new IllegalArgumentException("Unsupported flags " + envelope.getFlags() + " in compact storage format");
+        }
+        SecretKey dbEncryptionKey = getHistoryKey(envelope.getKid());
+        byte[] res;
+        if (isEmptyKey(dbEncryptionKey)) {
+            res = Arrays.copyOfRange(envelope.getBuffer(), envelope.getPayloadOffset(), envelope.getBuffer().length);
+        } else {
+            res = gcmDecryptRaw(dbEncryptionKey, envelope.getBuffer(), envelope.getPayloadOffset(), envelope.getPayloadLength());
+        }
+        return (envelope.getFlags() & CompactStorageCodec.FLAG_DEFLATE) != 0 ? inflate(res) : res;
+    }
+
+    private static byte[] inflate(byte[] compressed) {
+        try {
+            return CompressionCodec.inflate(compressed, 0, compressed.length);
+        } finally {
+            Arrays.fill(compressed, (byte) 0);
+        }
+    }
+
+    private SecretKey getHistoryKey(String kid) {
+        SecretKey dbEncryptionKey = keySet.getKey(kid);
+        if (dbEncryptionKey == null) {
+            // key cannot be found
+            throw new IllegalStateException("Required key " + kid + " cannot be found");
+        }
+        return dbEncryptionKey;
+    }
+
+    private static boolean isEmptyKey(SecretKey key) {
+        return key == null || "NONE".equals(key.getAlgorithm());
+    }
+
     public String decryptFromDatabaseStorageToString(String data) {
         return new String(decryptFromDatabaseStorage(data), StandardCharsets.UTF_8);
     }
 
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Batches with at least this number of values are processed in parallel by the batch methods
+     *
+     * @param parallelThreshold minimum batch size for parallel processing
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Change the fork/join pool used to process large batches (common pool by default)
+     *
+     * @param batchPool fork/join pool
+     */
+    public void setBatchPool(ForkJoinPool batchPool) {
+        if (batchPool == null) {
+            throw new IllegalArgumentException("Batch pool can't be null");
+        }
+        this.batchPool = batchPool;
+    }
+
+    /**
+     * Encrypt several values meant to be stored encrypted into the database.
+     *
+     * @param values values to be encrypted
+     * @return encrypted values, in the same order as the input values
+     */
+    public List<String> encryptAll(Collection<byte[]> values) {
+        return encryptAll(values, true);
+    }
+
     /**
-     * Decrypt data that are stored encrypted into the database
+     * Encrypt several values meant to be stored encrypted into the database.
+     * Large batches (see {@link #setParallelThreshold(int)}) are processed in parallel.
      *
-     * @param data base64-encoded data to be decrypted
-     * @return decrypted data as a UTF-8 encoded String
+     * @param values    values to be encrypted
+     * @param keepOrder true if the results must be in the same order as the input values
+     * @return encrypted values
+     */
+    public List<String> encryptAll(Collection<byte[]> values, boolean keepOrder) {
+        return processAll(values, keepOrder, this::encryptForDatabaseStorage);
+    }
+
+    /**
+     * Decrypt several values stored encrypted into the database.
+     *
+     * @param values values to be decrypted, in any of the supported formats
+     * @return decrypted values, in the same order as the input values
+     */
+    public List<byte[]> decryptAll(Collection<String> values) {
+        return decryptAll(values, true);
+    }
+
+    /**
+     * Decrypt several values stored encrypted into the database.
+     * Large batches (see {@link #setParallelThreshold(int)}) are processed in parallel.
+     *
+     * @param values    values to be decrypted, in any of the supported formats
+     * @param keepOrder true if the results must be in the same order as the input values
+     * @return decrypted values
+     */
+    public List<byte[]> decryptAll(Collection<String> values, boolean keepOrder) {
+        return processAll(values, keepOrder, this::decryptFromDatabaseStorage);
+    }
+
+    /**
+     * Lazily decrypt a stream of values stored encrypted into the database.
+     * The returned stream is parallel if the input stream is.
+     *
+     * @param values values to be decrypted, in any of the supported formats
+     * @return decrypted values
+     */
+    public Stream<byte[]> decryptAll(Stream<String> values) {
+        return values.map(this::decryptFromDatabaseStorage);
+    }
+
+    private <T, R> List<R> processAll(Collection<T> values, boolean keepOrder, Function<T, R> operation) {
+        if (values.size() < parallelThreshold) {
+            return values.stream().map(operation).collect(Collectors.toList());
+        }
+        Callable<List<R>> task = () -> {
+            Stream<T> stream = values.parallelStream();
+            if (!keepOrder) {
+                stream = stream.unordered();
+            }
+            return stream.map(operation).collect(Collectors.toList());
+        };
+        // running the parallel stream from a task of the pool makes the stream use this pool
+        return batchPool.submit(task).join();
+    }
+
+    /**
+     * Wrap an output stream so that the data written to it get encrypted with the current key.
+     * Data is encrypted in segments of 64 KiB: memory usage does not depend on the size of the data.
+     * Each stream is encrypted with its own key derived from the current key, and counts as one invocation of the
+     * IV generator. The returned stream must be closed to complete the encryption.
+     *
+     * @param out stream receiving the encrypted data
+     * @return stream to write the data to encrypt
+     */
+    public OutputStream encryptingStream(OutputStream out) {
+        return encryptingStream(out, AesGcmStreamHeader.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Wrap an output stream so that the data written to it get encrypted with the current key.
+     *
+     * @param out         stream receiving the encrypted data
+     * @param segmentSize size of the encrypted segments (between 1 KiB and 16 MiB)
+     * @return stream to write the data to encrypt
+     */
+    public OutputStream encryptingStream(OutputStream out, int segmentSize) {
+        KeyEntry current = keySet.getCurrent();
+        if (isEmptyKey(current.key)) {
+            throw new IllegalStateException("Stream encryption requires an AES key");
+        }
+        AesGcmStreamHeader.checkSegmentSize(segmentSize);
+        return new AesGcmEncryptingOutputStream(out, current.key, current.kid, segmentSize, ivGenerator);
+    }
+
+    /**
+     * Wrap an input stream containing data encrypted with {@link #encryptingStream(OutputStream)}.
+     * The key is selected according to the kid written in the stream header.
+     *
+     * @param in stream providing the encrypted data
+     * @return stream providing the decrypted data
+     */
+    public InputStream decryptingStream(InputStream in) {
+        return new AesGcmDecryptingInputStream(in, kid -> {
+            SecretKey key = getHistoryKey(kid);
+            if (isEmptyKey(key)) {
+                throw new IllegalStateException("Stream decryption requires an AES key");
+            }
+            return key;
+        });
+    }
+
+    /**
+     * @return the identifier of the key used to encrypt new values
+     */
+    public String getCurrentKid() {
+        return keySet.getCurrent().kid;
+    }
+
+    /**
+     * Get the identifier of the key used to encrypt a stored value, without decrypting it
+     *
+     * @param data stored value
+     * @return the key identifier or null if the value is not stored in an envelope (legacy or clear value)
+     */
+    public static String getKid(String data) {
+        switch (StoredValueFormatDetector.detect(data)) {
+            case COMPACT:
+                CompactStorageCodec.Envelope envelope = CompactStorageCodec.decode(data);
+                return envelope != null ? envelope.getKid() : null;
+            case JSON_ENVELOPE:
+                EncryptedData encData = decodeJsonEnvelope(data);
+                return encData != null ? encData.getKid() : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Tells whether a stored value should be encrypted again: values encrypted with a key which is not the current
+     * one, legacy values and clear values need to be re-encrypted.
+     *
+     * @param data stored value
+     * @return true if the value is not encrypted with the current key
+     */
+    public boolean needsReEncryption(String data) {
+        return !keySet.getCurrent().kid.equals(getKid(data));
+    }
+
+    /**
+     * Decrypt a stored value and encrypt it again with the current key
+     *
+     * @param data stored value
+     * @return the value encrypted with the current key
+     */
+    public String reEncrypt(String data) {
+        byte[] decrypted = decryptFromDatabaseStorage(data);
+        try {
+            return encryptForDatabaseStorage(decrypted);
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+
+    /**
+     * Detects the format of a value stored in the database, without decrypting it
+     *
+     * @param data stored value
+     * @return the detected format
+     */
+    public static StoredValueFormat detectFormat(String data) {
+        return StoredValueFormatDetector.detect(data);
+    }
+
+    /**
+     * @param format a stored value format
+     * @return the number of values of the given format which have been decrypted by this instance
+     */
+    public long getFormatHits(StoredValueFormat format) {
+        return formatHits.get(format).sum();
+    }
+
+    /**
+     * @return the number of values decrypted by this instance, for each format
+     */
+    public Map<StoredValueFormat, Long> getFormatStatistics() {
+        Map<StoredValueFormat, Long> res = new EnumMap<>(StoredValueFormat.class);
+        formatHits.forEach((format, hits) -> res.put(format, hits.sum()));
+        return res;
+    }
+
+    /**
+     * Decrypt data that are stored encrypted into the database.
+     * The format of the value is detected before decoding it, so that legacy and clear values do not cost any
+     * parsing exception.
+     *
+     * @param data data to be decrypted, in any of the supported formats (compact, JSON envelope, legacy)
+     * @return decrypted data
      */
     public byte[] decryptFromDatabaseStorage(String data) {
+        return decryptFromDatabaseStorageWithStatus(data).getValue();
+    }
+
+    /**
+     * Decrypt data that are stored encrypted into the database and report how the value was stored.
+     * A result flagged as stale (old key, legacy or clear value) can be encrypted again with the current key and
+     * written back by the caller.
+     *
+     * @param data data to be decrypted, in any of the supported formats (compact, JSON envelope, legacy)
+     * @return decrypted data along with its format and key identifier
+     */
+    public DecryptionResult decryptFromDatabaseStorageWithStatus(String data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Can't decrypt null data");
+        }
+        CryptoMetrics m = metrics;
+        if (m == CryptoMetrics.NOOP) {
+            return decryptWithCache(data);
+        }
+        long start = System.nanoTime();
+        DecryptionResult res;
         try {
-            // parse json structure
-            EncryptedData encData = new ObjectMapper().readValue(data, EncryptedData.class);
-            SecretKey dbEncryptionKey = historyDbEncryptionKey.get(encData.getKid());
-            if (dbEncryptionKey == null) {
-                // key cannot be found
-                throw new IllegalStateException("Required key " + encData.getKid() + " cannot be found");
-            }
-            if (dbEncryptionKey.getEncoded().length == 1) {
-                // empty key, no decryption necessary
-                return Base64.getDecoder().decode(encData.getVal());
+            res = decryptWithCache(data);
+        } catch (RuntimeException e) {
+            m.decryptionFailed(StoredValueFormatDetector.detect(data));
+            throw e;
+        }
+        m.decrypted(res.getKid(), res.getFormat(), res.getValue().length, System.nanoTime() - start);
+        return res;
+    }
+
+    private DecryptionResult decryptWithCache(String data) {
+        DecryptedValueCache cache = decryptedValueCache;
+        if (cache == null) {
+            return decryptStoredValue(data);
+        }
+        // entries are bound to the key set: a cache shared with other instances never returns their values
+        long keySetId = keySet.getId();
+        DecryptionResult cached = cache.get(keySetId, data);
+        if (cached != null) {
+            return result(cached.getFormat(), cached.getKid(), cached.getValue());
+        }
+        DecryptionResult res = decryptStoredValue(data);
+        if (res.getFormat() != StoredValueFormat.PLAIN_TEXT) {
+            cache.put(keySetId, data, res);
+        }
+        return res;
+    }
+
+    private DecryptionResult decryptStoredValue(String data) {
+        try {
+            switch (StoredValueFormatDetector.detect(data)) {
+                case COMPACT:
+                    CompactStorageCodec.Envelope envelope = CompactStorageCodec.decode(data);
+                    if (envelope != null) {
+                        return result(StoredValueFormat.COMPACT, envelope.getKid(), decryptCompact(envelope));
+                    }
+                    break;
+                case JSON_ENVELOPE:
+                    EncryptedData encData = decodeJsonEnvelope(data);
+                    if (encData != null) {
+                        return result(StoredValueFormat.JSON_ENVELOPE, encData.getKid(), decryptJsonEnvelope(encData));
+                    }
+                    break;
+                case LEGACY_GCM:
+                    byte[] res = decryptLegacy(data);
+                    if (res != null) {
+                        return result(StoredValueFormat.LEGACY_GCM, null, res);
+                    }
+                    break;
+                default:
+                    break;
             }
-            return gcmDecryptData(dbEncryptionKey, encData.getVal());
         } catch (BadPaddingException | IllegalBlockSizeException ex) {
             throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
+        }
+        // data is assumed to be in clear
+        return result(StoredValueFormat.PLAIN_TEXT, null, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private DecryptionResult result(StoredValueFormat format, String kid, byte[] value) {
+        formatHits.get(format).increment();
+        // legacy and clear values have no kid and are always stale
+        boolean stale = !keySet.getCurrent().kid.equals(kid);
+        if (stale && kid != null) {
+            staleReads.computeIfAbsent(kid, k -> new LongAdder()).increment();
+        }
+        return new DecryptionResult(value, kid, format, stale);
+    }
+
+    /**
+     * Cache decrypted values, so that a value read several times is decrypted once. The cache is cleared when keys
+     * are reloaded. A cache can be shared by several instances: each one only gets the values decrypted with its keys.
+     *
+     * @param decryptedValueCache cache of decrypted values or null to disable caching
+     */
+    public void setDecryptedValueCache(DecryptedValueCache decryptedValueCache) {
+        this.decryptedValueCache = decryptedValueCache;
+    }
+
+    public DecryptedValueCache getDecryptedValueCache() {
+        return decryptedValueCache;
+    }
+
+    /**
+     * Compress values before encrypting them. Values smaller than the threshold, and values which do not get smaller
+     * once compressed, are stored uncompressed. Compressed values are flagged in the stored value, so they can be
+     * read whatever the current configuration is. Compressed values can't be read by versions of this library which
+     * do not support compression.
+     *
+     * @param codec     compression codec or null to disable compression
+     * @param threshold minimum size in bytes of the values to compress
+     */
+    public void setCompression(CompressionCodec codec, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold can't be negative");
+        }
+        this.compressionThreshold = threshold;
+        this.compressionCodec = codec;
+    }
+
+    /**
+     * @param metrics receiver of the measures of encryption and decryption operations
+     */
+    public void setMetrics(CryptoMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics can't be null, use CryptoMetrics.NOOP instead");
+        }
+        this.metrics = metrics;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Values read with a key which is not the current one give an idea of the remaining old-key debt.
+     * Legacy and clear values are counted by {@link #getFormatStatistics()}.
+     *
+     * @return the number of values decrypted with each non-current key
+     */
+    public Map<String, Long> getStaleReadStatistics() {
+        Map<String, Long> res = new HashMap<>();
+        staleReads.forEach((kid, count) -> res.put(kid, count.sum()));
+        return res;
+    }
+
+    private static EncryptedData decodeJsonEnvelope(String data) {
+        try {
+            return EncryptedDataCodec.decode(data);
         } catch (JsonProcessingException ex) {
-            // legacy: support for missing structure
-            // try to decrypt with the current key
-            try {
-                SecretKey key = currentDbEncryptionKey.key;
-                return gcmDecryptData(key, data);
-            } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exc) {
-                // if decryption fails, assumes that the data is in clear
-                return data.getBytes(StandardCharsets.UTF_8);
-            }
+            // looks like JSON but is not an envelope
+            return null;
+        }
+    }
+
+    private byte[] decryptJsonEnvelope(EncryptedData encData) throws BadPaddingException, IllegalBlockSizeException {
+        if (encData.getCmp() != null && !CompressionCodec.DEFLATE_NAME.equals(encData.getCmp())) {
+            throw new IllegalArgumentException("Unsupported compression " + encData.getCmp());
+        }
+        SecretKey dbEncryptionKey = getHistoryKey(encData.getKid());
+        byte[] res;
+        if (dbEncryptionKey.getEncoded().length == 1) {
+            // empty key, no decryption necessary
+            res = Base64.getDecoder().decode(encData.getVal());
+        } else {
+            res = gcmDecryptData(dbEncryptionKey, encData.getVal());
+        }
+        return encData.getCmp() != null ? inflate(res) : res;
+    }
+
+    /**
+     * Legacy: support for missing structure. Try to decrypt with the current key
+     *
+     * @return decrypted data or null if the decryption failed
+     */
+    private byte[] decryptLegacy(String data) {
+        SecretKey key = keySet.getCurrent().key;
+        if (isEmptyKey(key)) {
+            return null;
+        }
+        try {
+            return gcmDecryptData(key, data);
+        } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exc) {
+            return null;
         }
     }
 }
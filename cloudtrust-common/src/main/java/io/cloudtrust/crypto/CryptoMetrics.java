@@ -0,0 +1,53 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Receives measures of the cryptographic operations of {@link CryptoAesGcmUtil} and {@link CryptoUtil}.
+ * Implementations are called on the hot path and must be thread-safe and cheap: they should only update
+ * pre-registered meters. All methods do nothing by default.
+ */
+public interface CryptoMetrics {
+    /**
+     * Implementation which does not record anything, used unless another implementation is configured
+     */
+    CryptoMetrics NOOP = new CryptoMetrics() {
+    };
+
+    /**
+     * A value has been encrypted for database storage
+     *
+     * @param kid           identifier of the key used
+     * @param payloadSize   size of the clear value in bytes
+     * @param durationNanos duration of the operation
+     */
+    default void encrypted(String kid, int payloadSize, long durationNanos) {
+    }
+
+    /**
+     * A stored value has been decrypted
+     *
+     * @param kid           identifier of the key used, null for legacy and clear values
+     * @param format        format of the stored value
+     * @param payloadSize   size of the clear value in bytes
+     * @param durationNanos duration of the operation
+     */
+    default void decrypted(String kid, StoredValueFormat format, int payloadSize, long durationNanos) {
+    }
+
+    /**
+     * A stored value could not be decrypted
+     *
+     * @param format format of the stored value
+     */
+    default void decryptionFailed(StoredValueFormat format) {
+    }
+
+    /**
+     * An HMAC has been computed
+     *
+     * @param kid           identifier of the key used
+     * @param inputSize     size of the input in bytes
+     * @param durationNanos duration of the operation
+     */
+    default void hmacComputed(String kid, int inputSize, long durationNanos) {
+    }
+}
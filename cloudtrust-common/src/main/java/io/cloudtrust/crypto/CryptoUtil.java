@@ -1,33 +1,19 @@
 package io.cloudtrust.crypto;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.cloudtrust.exception.CloudtrustRuntimeException;
-
-import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
-import java.util.Collections;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility class for the module
  */
 public class CryptoUtil {
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
-    private static final String HMAC_SHA512 = "HmacSHA512";
-
-    private static final TypeReference<List<HmacKeyEntry>> hmacKeysTypeRef = new TypeReference<>() {
-    };
 
-    private static KeyEntry CURRENT_DB_HMAC_KEY;
-    private static Map<String, SecretKey> HISTORY_DB_HMAC_KEY;
+    private static final AtomicReference<HmacKeys> HMAC_KEYS = new AtomicReference<>();
+    private static volatile KeySource hmacKeySource = KeySource.environment(DB_HMAC_KEY_ENV_VAR_NAME);
+    private static volatile CryptoMetrics metrics = CryptoMetrics.NOOP;
 
     //Avoid class instantiation
     private CryptoUtil() {
@@ -35,52 +21,109 @@ public class CryptoUtil {
 
     /**
      * Compute the HMAC of a given string.
-     * The key is taken from the DB_HMAC_KEY environment variable
+     * The key is taken from the DB_HMAC_KEY environment variable unless another key source has been configured
      *
      * @param input the string to HMAC
      * @return the HMAC value as a base64-encoded string
      */
     public static String computeHmacForDatabaseStorage(String input) {
-        try {
-            SecretKey dbHmacKey = getCtDatabaseHmacKey().key;
-            Mac sha512Hmac = Mac.getInstance(HMAC_SHA512);
-            sha512Hmac.init(dbHmacKey);
-            byte[] macData = sha512Hmac.doFinal(input.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(macData);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new CloudtrustRuntimeException("Error while computing HMAC for database storage", e);
+        return getHmacKeys().computeHmacForDatabaseStorage(input);
+    }
+
+    /**
+     * Compute the HMAC of a given string with each active HMAC key. While a key rotation is in progress, stored HMACs
+     * may have been computed with any of these keys: a lookup should match any of the returned values.
+     *
+     * @param input the string to HMAC
+     * @return the HMAC values as base64-encoded strings, the one computed with the most recent key first
+     */
+    public static List<String> computeHmacsForDatabaseStorage(String input) {
+        return getHmacKeys().computeHmacsForDatabaseStorage(input);
+    }
+
+    /**
+     * Compute the HMAC of the given data with the current HMAC key
+     *
+     * @param data data to authenticate
+     * @return the raw HMAC value
+     */
+    public static byte[] computeHmac(byte[] data) {
+        return getHmacKeys().computeHmac(data);
+    }
+
+    /**
+     * Compute the HMAC of the remaining bytes of the given buffer with the current HMAC key
+     *
+     * @param data data to authenticate, its position is moved to its limit
+     * @return the raw HMAC value
+     */
+    public static byte[] computeHmac(ByteBuffer data) {
+        return getHmacKeys().computeHmac(data);
+    }
+
+    /**
+     * @param metrics receiver of the measures of HMAC computations
+     */
+    public static void setMetrics(CryptoMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics can't be null, use CryptoMetrics.NOOP instead");
+        }
+        CryptoUtil.metrics = metrics;
+        HmacKeys keys = HMAC_KEYS.get();
+        if (keys != null) {
+            keys.setMetrics(metrics);
         }
     }
 
-    private static KeyEntry getCtDatabaseHmacKey() {
-        try {
-            if (CURRENT_DB_HMAC_KEY == null) {
-                List<HmacKeyEntry> keys = loadKeysFromEnvironment(DB_HMAC_KEY_ENV_VAR_NAME, hmacKeysTypeRef);
-                if (keys.isEmpty()) {
-                    throw new IllegalStateException("Cannot find an appropriate key from environment variable " +
-                            DB_HMAC_KEY_ENV_VAR_NAME);
-                }
-                Collections.sort(keys);
-                CURRENT_DB_HMAC_KEY = keys.get(0); // take the most recent key (top-most one)
-                HISTORY_DB_HMAC_KEY = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
-            }
-            return CURRENT_DB_HMAC_KEY;
-        } catch (Exception ex) {
-            throw new IllegalStateException("Cannot load the " + DB_HMAC_KEY_ENV_VAR_NAME, ex);
+    /**
+     * Use another source for the HMAC keys. Keys are loaded again on next use.
+     *
+     * @param keySource source of the HMAC keys
+     */
+    public static void setHmacKeySource(KeySource keySource) {
+        if (keySource == null) {
+            throw new IllegalArgumentException("Key source can't be null");
         }
+        hmacKeySource = keySource;
+        HMAC_KEYS.set(null);
+    }
+
+    /**
+     * Load the HMAC keys again from their source and replace them atomically.
+     * If the keys can't be loaded, the current ones are kept.
+     *
+     * @throws IOException if the keys can't be loaded
+     */
+    public static void reloadHmacKeys() throws IOException {
+        HMAC_KEYS.set(loadHmacKeys());
     }
 
-    private static <T> T loadKeysFromEnvironment(String envVariableName, TypeReference<T> type) throws JsonProcessingException {
-        String keys = System.getenv(envVariableName); // each key is encoded in Base64
+    /**
+     * @return the global HMAC key set
+     */
+    public static HmacKeys getHmacKeys() {
+        HmacKeys keys = HMAC_KEYS.get();
         if (keys == null) {
-            throw new IllegalStateException("Cannot load the environment variable" + envVariableName);
+            try {
+                // concurrent first uses may load the keys more than once but all of them will use the same key set
+                HMAC_KEYS.compareAndSet(null, loadHmacKeys());
+            } catch (Exception ex) {
+                throw new IllegalStateException("Cannot load the " + DB_HMAC_KEY_ENV_VAR_NAME, ex);
+            }
+            keys = HMAC_KEYS.get();
         }
-        return new ObjectMapper().readValue(keys, type);
+        return keys;
+    }
+
+    private static HmacKeys loadHmacKeys() throws IOException {
+        HmacKeys res = HmacKeys.fromKeySource(hmacKeySource);
+        res.setMetrics(metrics);
+        return res;
     }
 
     // package-protected method for clearing the keys, for test purpose
     static void clearKeys() {
-        CURRENT_DB_HMAC_KEY = null;
-        HISTORY_DB_HMAC_KEY = null;
+        hmacKeySource = KeySource.environment(DB_HMAC_KEY_ENV_VAR_NAME);
+        HMAC_KEYS.set(null);
     }
 }
@@ -0,0 +1,31 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Storage of the wrapped data keys used by {@link EnvelopeCrypto}
+ */
+public interface DataKeyStore {
+    /**
+     * @param id data key identifier
+     * @return the data key or null if it does not exist
+     */
+    WrappedDataKey find(String id) throws IOException;
+
+    /**
+     * @param tenant tenant identifier
+     * @return the data key used to encrypt new values of the tenant or null if the tenant has no data key yet
+     */
+    WrappedDataKey findCurrent(String tenant) throws IOException;
+
+    /**
+     * @return all the data keys
+     */
+    List<WrappedDataKey> findAll() throws IOException;
+
+    /**
+     * Create or update a data key. A created data key becomes the current key of its tenant.
+     */
+    void save(WrappedDataKey key) throws IOException;
+}
@@ -0,0 +1,237 @@
+package io.cloudtrust.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of decrypted values, to be used with {@link CryptoAesGcmUtil#setDecryptedValueCache}.
+ * Entries are indexed by the SHA-256 digest of the stored value along with the identity of the key set which
+ * decrypted it: a stored value is never modified in place, so entries never need to be invalidated, the cache does
+ * not retain the stored values themselves, and a cache shared by several instances only returns to an instance the
+ * values decrypted with its own keys.
+ * The cache is split into segments, each one with its own lock and its own share of the entries, so that concurrent
+ * lookups of different values do not wait for each other; least recently used entries are evicted per segment.
+ * Entries expire after a given time and the cached plaintext is overwritten with zeros when an entry is evicted.
+ * Locks are used rather than monitors so that virtual threads are not pinned.
+ */
+public class DecryptedValueCache {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final Pool<MessageDigest> DIGESTS = new Pool<>(DecryptedValueCache::createDigest, CipherPool.DEFAULT_MAX_IDLE);
+
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DecryptedValueCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    DecryptedValueCache(int maxEntries, Duration ttl, LongSupplier nanoClock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        // small caches keep a single segment, and thus an exact LRU order
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // the first segments hold the remainder of the division
+            segments[i] = new Segment(maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0));
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot create digest " + DIGEST_ALGORITHM, e);
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        // the hash comes from a digest: its low bits are evenly distributed
+        return segments[key.hash & (segments.length - 1)];
+    }
+
+    /**
+     * @param keySetId    identity of the keys of the caller
+     * @param storedValue stored value to look for
+     * @return a copy of the cached value or null if the stored value is not cached
+     */
+    DecryptionResult get(long keySetId, String storedValue) {
+        Key key = new Key(keySetId, storedValue);
+        DecryptionResult res = segmentFor(key).get(key);
+        if (res == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return res;
+    }
+
+    void put(long keySetId, String storedValue, DecryptionResult result) {
+        Key key = new Key(keySetId, storedValue);
+        Entry entry = new Entry(result.getValue().clone(), result.getKid(), result.getFormat(), nanoClock.getAsLong() + ttlNanos);
+        segmentFor(key).put(key, entry);
+    }
+
+    /**
+     * Remove all the entries
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int res = 0;
+        for (Segment segment : segments) {
+            res += segment.size();
+        }
+        return res;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries removed because the cache was full or because they expired
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Key, Entry> entries;
+
+        Segment(int maxEntries) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    if (size() > maxEntries) {
+                        eldest.getValue().wipe();
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        DecryptionResult get(Key key) {
+            lock.lock();
+            try {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.expiresAt - nanoClock.getAsLong() <= 0) {
+                    entries.remove(key);
+                    entry.wipe();
+                    evictions.increment();
+                    return null;
+                }
+                return entry == null ? null : new DecryptionResult(entry.value.clone(), entry.kid, entry.format, false);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(Key key, Entry entry) {
+            lock.lock();
+            try {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    previous.wipe();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.values().forEach(Entry::wipe);
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final long keySetId;
+        private final byte[] digest;
+        private final int hash;
+
+        Key(long keySetId, String storedValue) {
+            MessageDigest md = DIGESTS.acquire();
+            try {
+                digest = md.digest(storedValue.getBytes(StandardCharsets.UTF_8));
+            } finally {
+                DIGESTS.release(md);
+            }
+            this.keySetId = keySetId;
+            hash = Arrays.hashCode(digest) ^ Long.hashCode(keySetId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && keySetId == ((Key) o).keySetId && Arrays.equals(digest, ((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final String kid;
+        private final StoredValueFormat format;
+        private final long expiresAt;
+
+        Entry(byte[] value, String kid, StoredValueFormat format, long expiresAt) {
+            this.value = value;
+            this.kid = kid;
+            this.format = format;
+            this.expiresAt = expiresAt;
+        }
+
+        void wipe() {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
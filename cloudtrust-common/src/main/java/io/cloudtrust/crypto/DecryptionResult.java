@@ -0,0 +1,40 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Decrypted value along with information about the way it was stored
+ */
+public class DecryptionResult {
+    private final byte[] value;
+    private final String kid;
+    private final StoredValueFormat format;
+    private final boolean stale;
+
+    DecryptionResult(byte[] value, String kid, StoredValueFormat format, boolean stale) {
+        this.value = value;
+        this.kid = kid;
+        this.format = format;
+        this.stale = stale;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return identifier of the key used to decrypt the value, null for legacy and clear values
+     */
+    public String getKid() {
+        return kid;
+    }
+
+    public StoredValueFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if the value should be encrypted again with the current key
+     */
+    public boolean isStale() {
+        return stale;
+    }
+}
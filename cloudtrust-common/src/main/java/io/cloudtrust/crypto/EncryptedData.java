@@ -1,6 +1,7 @@
 package io.cloudtrust.crypto;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class EncryptedData {
@@ -10,10 +11,19 @@ public class EncryptedData {
     @JsonProperty("val")
     private String val;
 
+    @JsonProperty("cmp")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String cmp;
+
+    EncryptedData(String kid, String val) {
+        this(kid, val, null);
+    }
+
     @JsonCreator
-    EncryptedData(@JsonProperty("kid") String kid, @JsonProperty("val") String val) {
+    EncryptedData(@JsonProperty("kid") String kid, @JsonProperty("val") String val, @JsonProperty("cmp") String cmp) {
         this.kid = kid;
         this.val = val;
+        this.cmp = cmp;
     }
 
     public String getKid() {
@@ -31,4 +41,15 @@ public class EncryptedData {
     public void setVal(String val) {
         this.val = val;
     }
+
+    /**
+     * @return the compression applied to the data before their encryption, null if they are not compressed
+     */
+    public String getCmp() {
+        return cmp;
+    }
+
+    public void setCmp(String cmp) {
+        this.cmp = cmp;
+    }
 }
@@ -0,0 +1,63 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Codec of the {kid,val[,cmp]} JSON envelope stored in the database.
+ * Reader and writer are built once and are thread-safe. The envelope is written without any databind call when
+ * kid and value do not need to be escaped (which is always the case of the Base64 values): the output is the
+ * same as the one produced by an ObjectMapper.
+ */
+final class EncryptedDataCodec {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.readerFor(EncryptedData.class);
+    private static final ObjectWriter WRITER = MAPPER.writerFor(EncryptedData.class);
+
+    private static final String KID_PREFIX = "{\"kid\":";
+    private static final String VAL_PREFIX = ",\"val\":";
+    private static final String CMP_PREFIX = ",\"cmp\":";
+
+    private EncryptedDataCodec() {
+    }
+
+    static String encode(String kid, String val) throws JsonProcessingException {
+        return encode(kid, val, null);
+    }
+
+    static String encode(String kid, String val, String cmp) throws JsonProcessingException {
+        if (!isPlain(kid) || !isPlain(val) || (cmp != null && !isPlain(cmp))) {
+            return WRITER.writeValueAsString(new EncryptedData(kid, val, cmp));
+        }
+        int cmpLength = cmp == null ? 0 : CMP_PREFIX.length() + cmp.length() + 2;
+        StringBuilder sb = new StringBuilder(KID_PREFIX.length() + VAL_PREFIX.length() + kid.length() + val.length() + 5 + cmpLength);
+        sb.append(KID_PREFIX).append('"').append(kid).append('"');
+        sb.append(VAL_PREFIX).append('"').append(val).append('"');
+        if (cmp != null) {
+            sb.append(CMP_PREFIX).append('"').append(cmp).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    static EncryptedData decode(String json) throws JsonProcessingException {
+        return READER.readValue(json);
+    }
+
+    /**
+     * Checks that a value can be written as a JSON string without being escaped
+     */
+    private static boolean isPlain(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
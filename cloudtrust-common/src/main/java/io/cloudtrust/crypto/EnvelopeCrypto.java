@@ -0,0 +1,216 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Envelope encryption: values of each tenant are encrypted with a data key (DEK) of the tenant, and data keys are
+ * stored encrypted (wrapped) by the master key of a {@link CryptoAesGcmUtil}. Rotating the master key then only
+ * requires to rewrap the data keys, see {@link #rewrapDataKeys()}.
+ * Unwrapped data keys are kept in a bounded cache with expiry.
+ * Values are written with the compact storage format, the kid being the identifier of the data key.
+ */
+public class EnvelopeCrypto {
+    public static final int DEFAULT_MAX_CACHED_KEYS = 1000;
+    public static final Duration DEFAULT_CACHED_KEY_TTL = Duration.ofMinutes(10);
+
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    private static final int DATA_KEY_SIZE_BITS = 256;
+
+    private final CryptoAesGcmUtil master;
+    private final DataKeyStore store;
+    private final BoundedExpiringCache<String, DataKey> keysById;
+    private final BoundedExpiringCache<String, DataKey> currentKeys;
+    private final ReentrantLock creationLock = new ReentrantLock();
+    private final LongAdder unwraps = new LongAdder();
+    private volatile IvGenerator ivGenerator = RandomIvGenerator.shared();
+
+    public EnvelopeCrypto(CryptoAesGcmUtil master, DataKeyStore store) {
+        this(master, store, DEFAULT_MAX_CACHED_KEYS, DEFAULT_CACHED_KEY_TTL);
+    }
+
+    public EnvelopeCrypto(CryptoAesGcmUtil master, DataKeyStore store, int maxCachedKeys, Duration cachedKeyTtl) {
+        this(master, store, maxCachedKeys, cachedKeyTtl, System::nanoTime);
+    }
+
+    EnvelopeCrypto(CryptoAesGcmUtil master, DataKeyStore store, int maxCachedKeys, Duration cachedKeyTtl, LongSupplier nanoClock) {
+        this.master = master;
+        this.store = store;
+        this.keysById = new BoundedExpiringCache<>(maxCachedKeys, cachedKeyTtl, nanoClock);
+        this.currentKeys = new BoundedExpiringCache<>(maxCachedKeys, cachedKeyTtl, nanoClock);
+    }
+
+    public void setIvGenerator(IvGenerator ivGenerator) {
+        if (ivGenerator == null) {
+            throw new IllegalArgumentException("IV generator can't be null");
+        }
+        this.ivGenerator = ivGenerator;
+    }
+
+    public String encrypt(String tenant, String data) {
+        return encrypt(tenant, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encrypt data with the current data key of a tenant. A data key is created if the tenant has none.
+     *
+     * @param tenant tenant identifier (realm...)
+     * @param data   data to be encrypted
+     * @return the value to be stored
+     */
+    public String encrypt(String tenant, byte[] data) {
+        DataKey dataKey = getCurrentDataKey(tenant);
+        byte[] kidBytes = CompactStorageCodec.kidToBytes(dataKey.id);
+        int headerSize = CompactStorageCodec.headerSize(kidBytes);
+        try {
+            byte[] buffer = CryptoAesGcmUtil.gcmEncryptRaw(dataKey.key, data, ivGenerator, headerSize);
+            CompactStorageCodec.writeHeader(buffer, kidBytes, CompactStorageCodec.FLAG_DATA_KEY);
+            return CompactStorageCodec.encode(buffer);
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
+        }
+    }
+
+    public String decryptToString(String data) {
+        return new String(decrypt(data), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypt a value produced by {@link #encrypt(String, byte[])}
+     *
+     * @param data stored value
+     * @return decrypted data
+     */
+    public byte[] decrypt(String data) {
+        CompactStorageCodec.Envelope envelope = CompactStorageCodec.decode(data);
+        if (envelope == null || envelope.getFlags() != CompactStorageCodec.FLAG_DATA_KEY) {
+            throw new IllegalArgumentException("Value is not encrypted with a data key");
+        }
+        DataKey dataKey = getDataKey(envelope.getKid());
+        try {
+            return CryptoAesGcmUtil.gcmDecryptRaw(dataKey.key, envelope.getBuffer(), envelope.getPayloadOffset(), envelope.getPayloadLength());
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            throw new IllegalArgumentException("Unexpected error while decrypting data from database storage", ex);
+        }
+    }
+
+    /**
+     * Encrypt again with the current master key the data keys wrapped with an older master key.
+     * Values encrypted with the data keys are not modified.
+     *
+     * @return number of rewrapped data keys
+     * @throws IOException if the data key store can't be read or updated
+     */
+    public int rewrapDataKeys() throws IOException {
+        int count = 0;
+        for (WrappedDataKey key : store.findAll()) {
+            if (master.needsReEncryption(key.getWrappedKey())) {
+                store.save(key.rewrap(master.reEncrypt(key.getWrappedKey())));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of data keys unwrapped since creation, a high value means that the cache is too small
+     */
+    public long getUnwrapCount() {
+        return unwraps.sum();
+    }
+
+    private DataKey getCurrentDataKey(String tenant) {
+        DataKey res = currentKeys.get(tenant);
+        if (res != null) {
+            return res;
+        }
+        creationLock.lock();
+        try {
+            res = currentKeys.get(tenant);
+            if (res == null) {
+                WrappedDataKey wrapped = store.findCurrent(tenant);
+                res = wrapped != null ? unwrap(wrapped) : createDataKey(tenant);
+                currentKeys.put(tenant, res);
+            }
+            return res;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load the data key of tenant " + tenant, e);
+        } finally {
+            creationLock.unlock();
+        }
+    }
+
+    private DataKey getDataKey(String id) {
+        DataKey res = keysById.get(id);
+        if (res == null) {
+            try {
+                WrappedDataKey wrapped = store.find(id);
+                if (wrapped == null) {
+                    throw new IllegalStateException("Required data key " + id + " cannot be found");
+                }
+                res = unwrap(wrapped);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load data key " + id, e);
+            }
+        }
+        return res;
+    }
+
+    private DataKey createDataKey(String tenant) throws IOException {
+        byte[] raw;
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance(DATA_KEY_ALGORITHM);
+            generator.init(DATA_KEY_SIZE_BITS);
+            raw = generator.generateKey().getEncoded();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot generate data key", e);
+        }
+        try {
+            WrappedDataKey wrapped = new WrappedDataKey(UUID.randomUUID().toString(), tenant, master.encryptForDatabaseStorage(raw));
+            store.save(wrapped);
+            DataKey res = new DataKey(wrapped.getId(), new SecretKeySpec(raw, DATA_KEY_ALGORITHM));
+            keysById.put(res.id, res);
+            return res;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private DataKey unwrap(WrappedDataKey wrapped) {
+        DecryptionResult result = master.decryptFromDatabaseStorageWithStatus(wrapped.getWrappedKey());
+        byte[] raw = result.getValue();
+        try {
+            if (result.getFormat() != StoredValueFormat.COMPACT && result.getFormat() != StoredValueFormat.JSON_ENVELOPE) {
+                throw new IllegalStateException("Data key " + wrapped.getId() + " is not wrapped by the master key");
+            }
+            DataKey res = new DataKey(wrapped.getId(), new SecretKeySpec(raw, DATA_KEY_ALGORITHM));
+            unwraps.increment();
+            keysById.put(res.id, res);
+            return res;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private static final class DataKey {
+        private final String id;
+        private final SecretKey key;
+
+        DataKey(String id, SecretKey key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+}
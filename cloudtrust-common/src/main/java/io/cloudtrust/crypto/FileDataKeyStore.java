@@ -0,0 +1,81 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Data key store backed by a local JSON file, for development and tests.
+ * Keys are kept in creation order: the last key of a tenant is its current key. The file is replaced atomically on
+ * each update.
+ */
+public class FileDataKeyStore implements DataKeyStore {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<WrappedDataKey>> KEYS_TYPE_REF = new TypeReference<>() {
+    };
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public FileDataKeyStore(Path path) {
+        this.path = path;
+    }
+
+    private List<WrappedDataKey> read() throws IOException {
+        if (!Files.exists(path)) {
+            return new ArrayList<>();
+        }
+        return MAPPER.readValue(path.toFile(), KEYS_TYPE_REF);
+    }
+
+    @Override
+    public WrappedDataKey find(String id) throws IOException {
+        return read().stream().filter(k -> k.getId().equals(id)).findFirst().orElse(null);
+    }
+
+    @Override
+    public WrappedDataKey findCurrent(String tenant) throws IOException {
+        WrappedDataKey res = null;
+        for (WrappedDataKey key : read()) {
+            if (key.getTenant().equals(tenant)) {
+                res = key;
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public List<WrappedDataKey> findAll() throws IOException {
+        return read();
+    }
+
+    @Override
+    public void save(WrappedDataKey key) throws IOException {
+        lock.lock();
+        try {
+            List<WrappedDataKey> keys = read();
+            boolean updated = false;
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).getId().equals(key.getId())) {
+                    keys.set(i, key);
+                    updated = true;
+                }
+            }
+            if (!updated) {
+                keys.add(key);
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            MAPPER.writeValue(tmp.toFile(), keys);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.exception.CloudtrustRuntimeException;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * HMAC computation with a given key.
+ * Getting a Mac instance and initializing it with the key cost more than computing the HMAC of a short value, so
+ * initialized instances are kept in a bounded {@link Pool}: they are reset by doFinal and reused as is.
+ */
+public class HmacEngine {
+    public static final String HMAC_SHA512 = "HmacSHA512";
+
+    private final String kid;
+    private final SecretKey key;
+    private final int macLength;
+    private final Pool<Mac> pool;
+
+    public HmacEngine(String kid, SecretKey key) {
+        this(kid, key, CipherPool.DEFAULT_MAX_IDLE);
+    }
+
+    public HmacEngine(String kid, SecretKey key, int maxIdle) {
+        this.kid = kid;
+        this.key = key;
+        this.pool = new Pool<>(() -> createMac(key), maxIdle);
+        Mac mac = pool.acquire();
+        this.macLength = mac.getMacLength();
+        pool.release(mac);
+    }
+
+    public String getKid() {
+        return kid;
+    }
+
+    /**
+     * @return size in bytes of the computed HMAC
+     */
+    public int getMacLength() {
+        return macLength;
+    }
+
+    /**
+     * Compute the HMAC of the given data
+     *
+     * @param data data to authenticate
+     * @return the HMAC value
+     */
+    public byte[] compute(byte[] data) {
+        Mac mac = pool.acquire();
+        try {
+            return mac.doFinal(data);
+        } finally {
+            pool.release(mac);
+        }
+    }
+
+    /**
+     * Compute the HMAC of the remaining bytes of the given buffer. The buffer position is moved to its limit.
+     *
+     * @param data data to authenticate
+     * @return the HMAC value
+     */
+    public byte[] compute(ByteBuffer data) {
+        Mac mac = pool.acquire();
+        try {
+            mac.update(data);
+            return mac.doFinal();
+        } catch (RuntimeException e) {
+            // do not give back an instance holding partial data
+            mac.reset();
+            throw e;
+        } finally {
+            pool.release(mac);
+        }
+    }
+
+    private static Mac createMac(SecretKey key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA512);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CloudtrustRuntimeException("Error while computing HMAC for database storage", e);
+        }
+    }
+
+    /**
+     * @return Number of instances currently available in the pool
+     */
+    int getIdleCount() {
+        return pool.getIdleCount();
+    }
+}
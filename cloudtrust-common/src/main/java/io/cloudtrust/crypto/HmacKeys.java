@@ -0,0 +1,133 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HMAC key set with one engine per key. Engines are created once per key set: a key set is immutable and is replaced
+ * as a whole when keys are reloaded.
+ * {@link CryptoUtil} relies on a global instance; instances can also be created for a given tenant.
+ */
+public final class HmacKeys {
+    private final List<HmacEngine> engines;
+    private volatile CryptoMetrics metrics = CryptoMetrics.NOOP;
+
+    HmacKeys(KeySet keySet) {
+        List<HmacEngine> res = new ArrayList<>();
+        for (KeyEntry entry : keySet.getEntries()) {
+            res.add(new HmacEngine(entry.getKid(), entry.getKey()));
+        }
+        this.engines = Collections.unmodifiableList(res);
+    }
+
+    /**
+     * @param keySource source of the HMAC keys
+     * @return the key set loaded from the given source
+     * @throws IOException if the keys can't be loaded
+     */
+    public static HmacKeys fromKeySource(KeySource keySource) throws IOException {
+        return new HmacKeys(KeySet.of(keySource.load(), HmacKeyEntry::new));
+    }
+
+    /**
+     * @param metrics receiver of the measures of HMAC computations
+     */
+    public void setMetrics(CryptoMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics can't be null, use CryptoMetrics.NOOP instead");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the identifier of the most recent key
+     */
+    public String getCurrentKid() {
+        return getCurrent().getKid();
+    }
+
+    /**
+     * Compute the HMAC of a given string with the most recent key
+     *
+     * @param input the string to HMAC
+     * @return the HMAC value as a base64-encoded string
+     */
+    public String computeHmacForDatabaseStorage(String input) {
+        return Base64.getEncoder().encodeToString(computeHmac(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Compute the HMAC of a given string with each key. While a key rotation is in progress, stored HMACs may have
+     * been computed with any of these keys: a lookup should match any of the returned values.
+     *
+     * @param input the string to HMAC
+     * @return the HMAC values as base64-encoded strings, the one computed with the most recent key first
+     */
+    public List<String> computeHmacsForDatabaseStorage(String input) {
+        byte[] data = input.getBytes(StandardCharsets.UTF_8);
+        List<String> res = new ArrayList<>(engines.size());
+        for (HmacEngine engine : engines) {
+            res.add(Base64.getEncoder().encodeToString(compute(engine, data)));
+        }
+        return res;
+    }
+
+    /**
+     * Compute the HMAC of the given data with the most recent key
+     *
+     * @param data data to authenticate
+     * @return the raw HMAC value
+     */
+    public byte[] computeHmac(byte[] data) {
+        return compute(getCurrent(), data);
+    }
+
+    /**
+     * Compute the HMAC of the remaining bytes of the given buffer with the most recent key
+     *
+     * @param data data to authenticate, its position is moved to its limit
+     * @return the raw HMAC value
+     */
+    public byte[] computeHmac(ByteBuffer data) {
+        HmacEngine engine = getCurrent();
+        CryptoMetrics m = metrics;
+        if (m == CryptoMetrics.NOOP) {
+            return engine.compute(data);
+        }
+        long start = System.nanoTime();
+        int size = data.remaining();
+        byte[] res = engine.compute(data);
+        m.hmacComputed(engine.getKid(), size, System.nanoTime() - start);
+        return res;
+    }
+
+    private byte[] compute(HmacEngine engine, byte[] data) {
+        CryptoMetrics m = metrics;
+        if (m == CryptoMetrics.NOOP) {
+            return engine.compute(data);
+        }
+        long start = System.nanoTime();
+        byte[] res = engine.compute(data);
+        m.hmacComputed(engine.getKid(), data.length, System.nanoTime() - start);
+        return res;
+    }
+
+    /**
+     * @return engine of the most recent key
+     */
+    HmacEngine getCurrent() {
+        return engines.get(0);
+    }
+
+    /**
+     * @return engines of all the keys, most recent first
+     */
+    List<HmacEngine> getEngines() {
+        return engines;
+    }
+}
@@ -0,0 +1,56 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Generates the initialization vectors used by the AES/GCM encryption.
+ * An IV generator is meant to be used with a single key: NIST SP 800-38D requires the (key, IV) pairs to be unique
+ * and limits the number of invocations of the encryption function for a given key.
+ */
+public interface IvGenerator {
+    /**
+     * Size of the generated IVs (size recommended by NIST)
+     */
+    int IV_SIZE = 12;
+
+    /**
+     * Fill the given array with a new IV
+     *
+     * @param iv Array of at least {@link #IV_SIZE} bytes
+     */
+    void nextIv(byte[] iv);
+
+    /**
+     * @return A new IV
+     */
+    default byte[] nextIv() {
+        byte[] iv = new byte[IV_SIZE];
+        nextIv(iv);
+        return iv;
+    }
+
+    /**
+     * @return Number of IVs generated so far
+     */
+    long getInvocationCount();
+
+    /**
+     * @return Maximum number of IVs which can safely be generated for a single key
+     */
+    long getInvocationLimit();
+
+    /**
+     * @return Number of IVs which can still be safely generated
+     */
+    default long getRemainingInvocations() {
+        return Math.max(0, getInvocationLimit() - getInvocationCount());
+    }
+
+    /**
+     * Tells whether the key used with this generator should be rotated
+     *
+     * @param ratio Ratio of the invocation limit considered as critical (0.9 means 90% of the limit)
+     * @return true if the invocation count reached the given ratio of the invocation limit
+     */
+    default boolean isNearInvocationLimit(double ratio) {
+        return getInvocationCount() >= getInvocationLimit() * ratio;
+    }
+}
@@ -0,0 +1,104 @@
+package io.cloudtrust.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watch the directory of a key file and reload keys when it changes.
+ * The whole directory is watched so that files replaced by a rename or a symbolic link swap (mounted secrets) are
+ * detected. Events received within the settle delay are handled by a single reload.
+ */
+public class KeyFileWatcher implements Closeable {
+    public static final long DEFAULT_SETTLE_DELAY_MILLIS = 200;
+
+    /**
+     * Action run when the watched file changes, typically {@link CryptoAesGcmUtil#reload()}
+     */
+    @FunctionalInterface
+    public interface Reloader {
+        void reload() throws IOException;
+    }
+
+    private final WatchService watchService;
+    private final Reloader reloader;
+    private final long settleDelayMillis;
+    private final Thread thread;
+    private final LongAdder reloads = new LongAdder();
+    private volatile Exception lastFailure;
+
+    public KeyFileWatcher(Path file, Reloader reloader) throws IOException {
+        this(file, reloader, DEFAULT_SETTLE_DELAY_MILLIS);
+    }
+
+    public KeyFileWatcher(Path file, Reloader reloader, long settleDelayMillis) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        this.reloader = reloader;
+        this.settleDelayMillis = settleDelayMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::watch, "key-file-watcher-" + file.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+                key.reset();
+                // let the writer complete its update before reloading
+                WatchKey next;
+                while ((next = watchService.poll(settleDelayMillis, TimeUnit.MILLISECONDS)) != null) {
+                    next.pollEvents();
+                    next.reset();
+                }
+                reload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // watcher closed
+        }
+    }
+
+    private void reload() {
+        try {
+            reloader.reload();
+            reloads.increment();
+            lastFailure = null;
+        } catch (IOException | RuntimeException e) {
+            // previous keys remain in use
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * @return number of successful reloads
+     */
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    /**
+     * @return the error of the last reload or null if it succeeded
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
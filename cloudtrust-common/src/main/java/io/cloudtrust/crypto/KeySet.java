@@ -0,0 +1,80 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Immutable set of keys: the current key and all the keys indexed by kid.
+ * A key set is replaced as a whole when keys are reloaded, so that readers never see a partially updated set.
+ */
+final class KeySet {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final KeyEntry current;
+    private final List<KeyEntry> entries;
+    private final Map<String, SecretKey> keys;
+
+    private KeySet(List<KeyEntry> entries) {
+        if (entries.isEmpty()) {
+            throw new IllegalStateException("Cannot find any appropriate key from configuration");
+        }
+        Collections.sort(entries);
+        this.current = entries.get(0);
+        this.entries = Collections.unmodifiableList(entries);
+        Map<String, SecretKey> byKid = new HashMap<>();
+        for (KeyEntry entry : entries) {
+            if (byKid.putIfAbsent(entry.getKid(), entry.getKey()) != null) {
+                throw new IllegalStateException("Duplicate kid " + entry.getKid());
+            }
+        }
+        this.keys = byKid;
+    }
+
+    static KeySet of(List<? extends KeyEntry> entries) {
+        return new KeySet(new ArrayList<>(entries));
+    }
+
+    static KeySet of(Map<String, byte[]> rawKeys, Supplier<? extends KeyEntry> entryFactory) {
+        List<KeyEntry> entries = new ArrayList<>(rawKeys.size());
+        rawKeys.forEach((kid, value) -> {
+            KeyEntry entry = entryFactory.get();
+            try {
+                entry.setKid(kid);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("Invalid key identifier " + kid, e);
+            }
+            entry.setValue(value);
+            entries.add(entry);
+        });
+        return new KeySet(entries);
+    }
+
+    /**
+     * @return identifier of this key set, unique within the JVM
+     */
+    long getId() {
+        return id;
+    }
+
+    KeyEntry getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return all the keys, most recent first
+     */
+    List<KeyEntry> getEntries() {
+        return entries;
+    }
+
+    SecretKey getKey(String kid) {
+        return keys.get(kid);
+    }
+}
@@ -0,0 +1,44 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Source of the keys used for encryption or HMAC.
+ * Keys are identified by their kid: the key with the highest kid suffix is the current one, others are kept to read
+ * values produced with older keys.
+ */
+public interface KeySource {
+    /**
+     * Load the keys
+     *
+     * @return raw value of the keys, indexed by key identifier
+     * @throws IOException if the keys can't be read
+     */
+    Map<String, byte[]> load() throws IOException;
+
+    /**
+     * Keys provided as JSON content [{"kid":"...","value":"base64"}] in an environment variable.
+     * If the variable is not set but a variable of the same name with suffix _FILE is, keys are read from the file it
+     * designates.
+     */
+    static KeySource environment(String envVariableName) {
+        return new KeySources.EnvironmentKeySource(envVariableName);
+    }
+
+    /**
+     * Keys provided as JSON content [{"kid":"...","value":"base64"}] in a file
+     */
+    static KeySource file(Path path) {
+        return new KeySources.FileKeySource(path);
+    }
+
+    /**
+     * Secret keys of a local key store (PKCS12 or JCEKS). The alias of each entry, upper-cased, is used as key
+     * identifier.
+     */
+    static KeySource keyStore(Path path, String type, char[] password) {
+        return new KeySources.KeyStoreKeySource(path, type, password);
+    }
+}
@@ -0,0 +1,118 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Implementations of {@link KeySource}
+ */
+final class KeySources {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private KeySources() {
+    }
+
+    static Map<String, byte[]> parseJson(String jsonContent) throws IOException {
+        if (jsonContent == null || jsonContent.isBlank()) {
+            throw new IllegalStateException("Cannot find any appropriate key from json content");
+        }
+        JsonNode root = MAPPER.readTree(jsonContent);
+        if (!root.isArray()) {
+            throw new IllegalStateException("Keys are expected to be provided as a JSON array");
+        }
+        Map<String, byte[]> res = new LinkedHashMap<>();
+        for (JsonNode node : root) {
+            JsonNode kid = node.get("kid");
+            JsonNode value = node.get("value");
+            if (kid == null || value == null) {
+                throw new IllegalStateException("Keys require a kid and a value");
+            }
+            putUnique(res, kid.asText(), value.binaryValue());
+        }
+        return res;
+    }
+
+    private static void putUnique(Map<String, byte[]> keys, String kid, byte[] key) {
+        if (keys.putIfAbsent(kid, key) != null) {
+            throw new IllegalStateException("Duplicate kid " + kid);
+        }
+    }
+
+    static final class EnvironmentKeySource implements KeySource {
+        private final String envVariableName;
+
+        EnvironmentKeySource(String envVariableName) {
+            this.envVariableName = envVariableName;
+        }
+
+        @Override
+        public Map<String, byte[]> load() throws IOException {
+            String keys = System.getenv(envVariableName);
+            if (keys == null || keys.isBlank()) {
+                String file = System.getenv(envVariableName + "_FILE");
+                if (file != null && !file.isBlank()) {
+                    return new FileKeySource(Paths.get(file)).load();
+                }
+                throw new IllegalStateException("Cannot find any appropriate key from environment variable " + envVariableName);
+            }
+            return parseJson(keys);
+        }
+    }
+
+    static final class FileKeySource implements KeySource {
+        private final Path path;
+
+        FileKeySource(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public Map<String, byte[]> load() throws IOException {
+            return parseJson(Files.readString(path));
+        }
+    }
+
+    static final class KeyStoreKeySource implements KeySource {
+        private final Path path;
+        private final String type;
+        private final char[] password;
+
+        KeyStoreKeySource(Path path, String type, char[] password) {
+            this.path = path;
+            this.type = type;
+            this.password = password.clone();
+        }
+
+        @Override
+        public Map<String, byte[]> load() throws IOException {
+            try (InputStream in = Files.newInputStream(path)) {
+                KeyStore keyStore = KeyStore.getInstance(type);
+                keyStore.load(in, password);
+                Map<String, byte[]> res = new LinkedHashMap<>();
+                for (String alias : Collections.list(keyStore.aliases())) {
+                    if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                        Key key = keyStore.getKey(alias, password);
+                        // aliases are case-insensitive (PKCS12 stores them lower-cased) while kids are upper-case
+                        putUnique(res, alias.toUpperCase(Locale.ROOT), key.getEncoded());
+                    }
+                }
+                return res;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot load keys from key store " + path, e);
+            }
+        }
+    }
+}
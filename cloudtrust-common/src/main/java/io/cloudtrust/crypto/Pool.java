@@ -0,0 +1,71 @@
+package io.cloudtrust.crypto;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of instances which are expensive to create, such as {@link javax.crypto.Cipher} or
+ * {@link javax.crypto.Mac}. Each instance is used by a single caller between {@link #acquire()} and
+ * {@link #release(Object)}; when no idle instance is available, a new one is created.
+ * The pool does not rely on thread-local storage nor on monitors, so it can safely be used from virtual threads.
+ *
+ * @param <T> type of the pooled instances
+ */
+public class Pool<T> {
+    private final Supplier<T> factory;
+    private final int maxIdle;
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param factory creates the instances when the pool is empty
+     * @param maxIdle maximum number of idle instances kept by the pool
+     */
+    public Pool(Supplier<T> factory, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle can't be negative");
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Get an instance from the pool or create a new one if no idle instance is available.
+     * The caller is responsible for giving it back using {@link #release(Object)}.
+     *
+     * @return An instance
+     */
+    public T acquire() {
+        T instance = idle.poll();
+        if (instance != null) {
+            idleCount.decrementAndGet();
+            return instance;
+        }
+        return factory.get();
+    }
+
+    /**
+     * Give an instance back to the pool. If the pool already holds enough idle instances, the instance is discarded.
+     *
+     * @param instance instance previously obtained with {@link #acquire()}
+     */
+    public void release(T instance) {
+        if (instance == null) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(instance);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return Number of instances currently available in the pool
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+}
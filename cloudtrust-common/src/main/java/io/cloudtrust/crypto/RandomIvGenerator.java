@@ -0,0 +1,73 @@
+package io.cloudtrust.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IV generator drawing the IVs from a SecureRandom (DRBG when available).
+ * By default all the instances share the same SecureRandom which is seeded once, instead of once per encryption.
+ * Each instance counts its own invocations.
+ * NIST SP 800-38D limits the number of random IVs to 2^32 for a given key.
+ */
+public class RandomIvGenerator implements IvGenerator {
+    public static final long INVOCATION_LIMIT = 1L << 32;
+
+    private static final SecureRandom SHARED_SECURE_RANDOM = createSecureRandom();
+    private static final RandomIvGenerator SHARED = new RandomIvGenerator();
+
+    private final SecureRandom secureRandom;
+    private final LongAdder invocations = new LongAdder();
+
+    public RandomIvGenerator() {
+        this(SHARED_SECURE_RANDOM);
+    }
+
+    public RandomIvGenerator(SecureRandom secureRandom) {
+        this.secureRandom = secureRandom;
+    }
+
+    /**
+     * IV generator used by the static helpers of CryptoAesGcmUtil
+     */
+    public static RandomIvGenerator shared() {
+        return SHARED;
+    }
+
+    private static SecureRandom createSecureRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    @Override
+    public void nextIv(byte[] iv) {
+        if (iv.length == IV_SIZE) {
+            secureRandom.nextBytes(iv);
+        } else {
+            System.arraycopy(nextIv(), 0, iv, 0, IV_SIZE);
+            return;
+        }
+        invocations.increment();
+    }
+
+    @Override
+    public byte[] nextIv() {
+        byte[] iv = new byte[IV_SIZE];
+        secureRandom.nextBytes(iv);
+        invocations.increment();
+        return iv;
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return invocations.sum();
+    }
+
+    @Override
+    public long getInvocationLimit() {
+        return INVOCATION_LIMIT;
+    }
+}
@@ -0,0 +1,15 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Format used to write values encrypted for database storage
+ */
+public enum StorageFormat {
+    /**
+     * JSON envelope {"kid":"...","val":"..."} where val is the Base64 encoding of IV and ciphered text
+     */
+    JSON,
+    /**
+     * Versioned binary envelope (magic/version, flags, kid, IV and ciphered text) encoded once in Base64
+     */
+    COMPACT
+}
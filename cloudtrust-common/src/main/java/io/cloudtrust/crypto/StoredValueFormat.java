@@ -0,0 +1,23 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Formats of the values which can be read by CryptoAesGcmUtil.decryptFromDatabaseStorage
+ */
+public enum StoredValueFormat {
+    /**
+     * Compact binary envelope (see {@link StorageFormat#COMPACT})
+     */
+    COMPACT,
+    /**
+     * JSON envelope (see {@link StorageFormat#JSON})
+     */
+    JSON_ENVELOPE,
+    /**
+     * Legacy value: Base64 encoding of IV and ciphered text, without any envelope
+     */
+    LEGACY_GCM,
+    /**
+     * Value stored in clear
+     */
+    PLAIN_TEXT
+}
@@ -0,0 +1,71 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Detects the format of a stored value by looking at its characters, without trying to parse or decrypt it.
+ * A value detected as JSON_ENVELOPE or LEGACY_GCM can still turn out to be a clear value: the detection only tells
+ * which decoding is worth trying first.
+ */
+final class StoredValueFormatDetector {
+    // IV followed by at least the GCM authentication tag
+    private static final int MIN_LEGACY_GCM_SIZE = IvGenerator.IV_SIZE + 16;
+
+    private StoredValueFormatDetector() {
+    }
+
+    static StoredValueFormat detect(String value) {
+        if (CompactStorageCodec.hasPrefix(value) && isBase64(value, CompactStorageCodec.PREFIX.length())) {
+            return StoredValueFormat.COMPACT;
+        }
+        if (isJsonObject(value)) {
+            return StoredValueFormat.JSON_ENVELOPE;
+        }
+        if (isBase64(value, 0) && decodedLength(value) >= MIN_LEGACY_GCM_SIZE) {
+            return StoredValueFormat.LEGACY_GCM;
+        }
+        return StoredValueFormat.PLAIN_TEXT;
+    }
+
+    static boolean isJsonObject(String value) {
+        int start = 0;
+        int end = value.length() - 1;
+        while (start <= end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end))) {
+            end--;
+        }
+        return start < end && value.charAt(start) == '{' && value.charAt(end) == '}';
+    }
+
+    /**
+     * Checks that the value, starting at the given offset, is a padded Base64 string (standard alphabet)
+     */
+    static boolean isBase64(String value, int offset) {
+        int length = value.length() - offset;
+        if (length == 0 || length % 4 != 0) {
+            return false;
+        }
+        int padding = 0;
+        for (int i = offset; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '=') {
+                padding++;
+            } else if (padding > 0 || !isBase64Char(c)) {
+                return false;
+            }
+        }
+        return padding <= 2;
+    }
+
+    private static boolean isBase64Char(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/';
+    }
+
+    private static int decodedLength(String base64) {
+        int padding = 0;
+        for (int i = base64.length() - 1; i >= 0 && base64.charAt(i) == '='; i--) {
+            padding++;
+        }
+        return base64.length() / 4 * 3 - padding;
+    }
+}
@@ -0,0 +1,231 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the AES and HMAC keys of each tenant (realm, customer...).
+ * The keys of a tenant are loaded on first use and kept in a concurrent map, so that callers get them with a single
+ * lookup on the request path. A tenant without dedicated keys uses the global keys ({@link CryptoAesGcmUtil#getDefault()}
+ * and {@link CryptoUtil#getHmacKeys()}).
+ * The keys of a tenant never become the global keys. Settings of the instances of a tenant (storage format, cache...)
+ * are applied by a {@link TenantKeysCustomizer} each time they are created.
+ * The number of tenants kept in memory is bounded: when the limit is reached, the least recently used tenant is
+ * evicted and will be loaded again on its next use.
+ */
+public class TenantKeyRegistry {
+    public static final int DEFAULT_MAX_TENANTS = 1000;
+
+    private static final long ACCESS_RESOLUTION_NANOS = 1_000_000_000L;
+
+    /**
+     * Provides the key sources of a tenant
+     */
+    public interface TenantKeySources {
+        /**
+         * @return the source of the AES keys of the tenant or null if it uses the global keys
+         */
+        KeySource aesKeys(String tenant);
+
+        /**
+         * @return the source of the HMAC keys of the tenant or null if it uses the global keys
+         */
+        KeySource hmacKeys(String tenant);
+    }
+
+    /**
+     * Configures the instances created for a tenant
+     */
+    public interface TenantKeysCustomizer {
+        TenantKeysCustomizer NONE = new TenantKeysCustomizer() {};
+
+        default void customizeAes(String tenant, CryptoAesGcmUtil aes) {
+        }
+
+        default void customizeHmac(String tenant, HmacKeys hmac) {
+        }
+    }
+
+    private final TenantKeySources keySources;
+    private final int maxTenants;
+    private final TenantKeysCustomizer customizer;
+    private final Map<String, TenantKeys> tenants = new ConcurrentHashMap<>();
+
+    public TenantKeyRegistry(TenantKeySources keySources) {
+        this(keySources, DEFAULT_MAX_TENANTS);
+    }
+
+    public TenantKeyRegistry(TenantKeySources keySources, int maxTenants) {
+        this(keySources, maxTenants, TenantKeysCustomizer.NONE);
+    }
+
+    public TenantKeyRegistry(TenantKeySources keySources, int maxTenants, TenantKeysCustomizer customizer) {
+        if (maxTenants < 1) {
+            throw new IllegalArgumentException("Maximum number of tenants must be positive");
+        }
+        this.keySources = keySources;
+        this.maxTenants = maxTenants;
+        this.customizer = customizer;
+    }
+
+    /**
+     * Get the keys of a tenant, loading them if needed
+     *
+     * @param tenant tenant identifier
+     * @return the keys of the tenant
+     * @throws IllegalStateException if the keys of the tenant can't be loaded
+     */
+    public TenantKeys get(String tenant) {
+        TenantKeys res = tenants.get(tenant);
+        if (res == null) {
+            // keys are loaded outside the locks of the map: concurrent first lookups may load them more than once
+            TenantKeys loaded;
+            try {
+                loaded = load(tenant);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load the keys of tenant " + tenant, e);
+            }
+            res = tenants.putIfAbsent(tenant, loaded);
+            if (res == null) {
+                res = loaded;
+                evictIfNeeded();
+            }
+        }
+        long now = System.nanoTime();
+        if (now - res.lastAccess > ACCESS_RESOLUTION_NANOS) {
+            // avoid writing the shared field on each lookup of a busy tenant
+            res.lastAccess = now;
+        }
+        return res;
+    }
+
+    public CryptoAesGcmUtil getAes(String tenant) {
+        return get(tenant).getAes();
+    }
+
+    public HmacKeys getHmac(String tenant) {
+        return get(tenant).getHmac();
+    }
+
+    /**
+     * Load again the keys of a tenant. Callers keep using the previous keys until the new ones are loaded.
+     * The AES instance of a loaded tenant is reloaded in place ({@link CryptoAesGcmUtil#reload()}) and keeps its
+     * settings.
+     *
+     * @param tenant tenant identifier
+     * @throws IOException if the keys can't be loaded, in which case the previous keys are kept
+     */
+    public void reload(String tenant) throws IOException {
+        TenantKeys current = tenants.get(tenant);
+        if (current == null || current.aes == null) {
+            tenants.put(tenant, load(tenant));
+            evictIfNeeded();
+            return;
+        }
+        HmacKeys hmac = loadHmac(tenant);
+        current.aes.reload();
+        tenants.replace(tenant, current, new TenantKeys(current.aes, hmac));
+    }
+
+    /**
+     * Forget the keys of a tenant: they will be loaded again on next use
+     */
+    public void invalidate(String tenant) {
+        tenants.remove(tenant);
+    }
+
+    /**
+     * @return number of tenants currently loaded
+     */
+    public int size() {
+        return tenants.size();
+    }
+
+    private TenantKeys load(String tenant) throws IOException {
+        KeySource aesSource = keySources.aesKeys(tenant);
+        CryptoAesGcmUtil aes = null;
+        if (aesSource != null) {
+            aes = CryptoAesGcmUtil.fromTenantKeySource(aesSource);
+            customizer.customizeAes(tenant, aes);
+        }
+        return new TenantKeys(aes, loadHmac(tenant));
+    }
+
+    private HmacKeys loadHmac(String tenant) throws IOException {
+        KeySource hmacSource = keySources.hmacKeys(tenant);
+        if (hmacSource == null) {
+            return null;
+        }
+        HmacKeys res = HmacKeys.fromKeySource(hmacSource);
+        customizer.customizeHmac(tenant, res);
+        return res;
+    }
+
+    private void evictIfNeeded() {
+        // loading a tenant is rare compared to lookups: a scan is cheaper than maintaining an access order
+        while (tenants.size() > maxTenants) {
+            String oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, TenantKeys> entry : tenants.entrySet()) {
+                if (entry.getValue().lastAccess - oldestAccess < 0 || oldest == null) {
+                    oldest = entry.getKey();
+                    oldestAccess = entry.getValue().lastAccess;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            tenants.remove(oldest);
+        }
+    }
+
+    /**
+     * AES and HMAC keys of a tenant
+     */
+    public static final class TenantKeys {
+        private final CryptoAesGcmUtil aes;
+        private final HmacKeys hmac;
+        private volatile long lastAccess = System.nanoTime();
+
+        TenantKeys(CryptoAesGcmUtil aes, HmacKeys hmac) {
+            this.aes = aes;
+            this.hmac = hmac;
+        }
+
+        /**
+         * @return the AES keys of the tenant, or the global ones if the tenant has no dedicated AES keys
+         */
+        public CryptoAesGcmUtil getAes() {
+            if (aes != null) {
+                return aes;
+            }
+            CryptoAesGcmUtil res = CryptoAesGcmUtil.getDefault();
+            if (res == null) {
+                throw new IllegalStateException("No AES key is configured");
+            }
+            return res;
+        }
+
+        /**
+         * @return the HMAC keys of the tenant, or the global ones if the tenant has no dedicated HMAC keys
+         */
+        public HmacKeys getHmac() {
+            return hmac != null ? hmac : CryptoUtil.getHmacKeys();
+        }
+
+        /**
+         * @return true if the tenant has its own AES keys
+         */
+        public boolean hasOwnAesKeys() {
+            return aes != null;
+        }
+
+        /**
+         * @return true if the tenant has its own HMAC keys
+         */
+        public boolean hasOwnHmacKeys() {
+            return hmac != null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Data key of a tenant, stored encrypted by the master key
+ */
+public class WrappedDataKey {
+    @JsonProperty("id")
+    private final String id;
+
+    @JsonProperty("tenant")
+    private final String tenant;
+
+    @JsonProperty("wrapped")
+    private final String wrappedKey;
+
+    @JsonCreator
+    public WrappedDataKey(@JsonProperty("id") String id, @JsonProperty("tenant") String tenant, @JsonProperty("wrapped") String wrappedKey) {
+        this.id = id;
+        this.tenant = tenant;
+        this.wrappedKey = wrappedKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * @return the data key encrypted by the master key, in a database storage format of {@link CryptoAesGcmUtil}
+     */
+    public String getWrappedKey() {
+        return wrappedKey;
+    }
+
+    /**
+     * @return a copy of this data key wrapped with another value
+     */
+    public WrappedDataKey rewrap(String wrappedKey) {
+        return new WrappedDataKey(id, tenant, wrappedKey);
+    }
+}
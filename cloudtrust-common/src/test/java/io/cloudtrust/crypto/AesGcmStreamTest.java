@@ -0,0 +1,133 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AesGcmStreamTest {
+    private static final int SEGMENT_SIZE = 1024;
+
+    private CryptoAesGcmUtil codec;
+
+    @BeforeEach
+    void init() throws Exception {
+        codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try (OutputStream out = codec.encryptingStream(res, SEGMENT_SIZE)) {
+            // write using chunks which are not aligned on segments
+            for (int i = 0; i < data.length; i += 700) {
+                out.write(data, i, Math.min(700, data.length - i));
+            }
+        }
+        return res.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] data) throws IOException {
+        try (InputStream in = codec.decryptingStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE, 10_000}) {
+            byte[] data = new byte[size];
+            new SecureRandom().nextBytes(data);
+            assertThat(decrypt(encrypt(data)), equalTo(data));
+        }
+    }
+
+    @Test
+    void testSingleByteOperations() throws IOException {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try (OutputStream out = codec.encryptingStream(res)) {
+            out.write('a');
+            out.write('b');
+        }
+        try (InputStream in = codec.decryptingStream(new ByteArrayInputStream(res.toByteArray()))) {
+            assertThat(in.read(), equalTo((int) 'a'));
+            assertThat(in.read(), equalTo((int) 'b'));
+            assertThat(in.read(), equalTo(-1));
+        }
+    }
+
+    @Test
+    void testTruncatedStream() throws IOException {
+        byte[] encrypted = encrypt(new byte[3 * SEGMENT_SIZE]);
+        // remove the last segment: the previous one is now the last but was not encrypted as such
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - AesGcmStreamHeader.TAG_SIZE);
+        assertThrows(IOException.class, () -> decrypt(truncated));
+        byte[] truncatedHeader = Arrays.copyOf(encrypted, 5);
+        assertThrows(IOException.class, () -> decrypt(truncatedHeader));
+    }
+
+    @Test
+    void testTamperedStream() throws IOException {
+        byte[] encrypted = encrypt(new byte[2 * SEGMENT_SIZE]);
+        encrypted[encrypted.length / 2] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+
+    @Test
+    void testKeySelection() throws Exception {
+        byte[] encrypted = encrypt("content".getBytes());
+        CryptoAesGcmUtil rotated = CryptoAesGcmUtil.fromJSON("[" +
+                "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        try (InputStream in = rotated.decryptingStream(new ByteArrayInputStream(encrypted))) {
+            assertThat(in.readAllBytes(), equalTo("content".getBytes()));
+        }
+        CryptoAesGcmUtil unknownKey = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]");
+        assertThrows(IllegalStateException.class, () -> unknownKey.decryptingStream(new ByteArrayInputStream(encrypted)).read());
+    }
+
+    @Test
+    void testInvalidConfiguration() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class, () -> codec.encryptingStream(out, 10));
+        CryptoAesGcmUtil emptyKey = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"\"}]");
+        assertThrows(IllegalStateException.class, () -> emptyKey.encryptingStream(out));
+    }
+
+    @Test
+    void testStreamKeyDerivation() throws IOException {
+        CounterIvGenerator generator = new CounterIvGenerator(1);
+        codec.setIvGenerator(generator);
+        byte[] first = encrypt("content".getBytes());
+        byte[] second = encrypt("content".getBytes());
+        // each stream counts as one invocation of the key
+        assertThat(generator.getInvocationCount(), is(2L));
+        assertThat(decrypt(first), equalTo("content".getBytes()));
+        assertThat(decrypt(second), equalTo("content".getBytes()));
+
+        SecretKeySpec key = new SecretKeySpec("1234567890123456".getBytes(), "AES");
+        AesGcmStreamHeader header1 = AesGcmStreamHeader.create(SEGMENT_SIZE, "TEE_3", generator);
+        AesGcmStreamHeader header2 = AesGcmStreamHeader.create(SEGMENT_SIZE, "TEE_3", generator);
+        assertThat(header1.deriveKey(key).getEncoded().length, is(16));
+        assertThat(Arrays.equals(header1.deriveKey(key).getEncoded(), header2.deriveKey(key).getEncoded()), is(false));
+        assertThat(header1.deriveKey(key).getEncoded(), equalTo(header1.deriveKey(key).getEncoded()));
+    }
+
+    @Test
+    void testUnsupportedVersion() throws Exception {
+        byte[] encrypted = encrypt("content".getBytes());
+        encrypted[0] = (byte) 0xA1;
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+}
@@ -0,0 +1,128 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class AesSivCryptoTest {
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static byte[] hex(String value) {
+        return HEX.parseHex(value.replace(" ", ""));
+    }
+
+    private static Map<String, byte[]> keys(int... kids) {
+        Map<String, byte[]> res = new HashMap<>();
+        for (int kid : kids) {
+            byte[] key = new byte[32];
+            key[0] = (byte) kid;
+            res.put("SIV_" + kid, key);
+        }
+        return res;
+    }
+
+    @Test
+    void testRfc5297DeterministicVector() {
+        // RFC 5297, appendix A.1
+        byte[] key = hex("fffefdfc fbfaf9f8 f7f6f5f4 f3f2f1f0 f0f1f2f3 f4f5f6f7 f8f9fafb fcfdfeff");
+        byte[][] ad = {hex("10111213 14151617 18191a1b 1c1d1e1f 20212223 24252627")};
+        byte[] plaintext = hex("11223344 55667788 99aabbcc ddee");
+        byte[] expected = hex("85632d07 c6e8f37f 950acd32 0a2ecc93 40c02b96 90c4dc04 daef7f6a fe5c");
+
+        assertThat(AesSivCrypto.encrypt(key, ad, plaintext), equalTo(expected));
+        assertThat(AesSivCrypto.decrypt(key, ad, expected), equalTo(plaintext));
+    }
+
+    @Test
+    void testRfc5297NonceBasedVector() {
+        // RFC 5297, appendix A.2
+        byte[] key = hex("7f7e7d7c 7b7a7978 77767574 73727170 40414243 44454647 48494a4b 4c4d4e4f");
+        byte[][] ad = {
+                hex("00112233 44556677 8899aabb ccddeeff deaddada deaddada ffeeddcc bbaa9988 77665544 33221100"),
+                hex("10203040 50607080 90a0"),
+                hex("09f91102 9d74e35b d84156c5 635688c0")
+        };
+        byte[] plaintext = hex("74686973 20697320 736f6d65 20706c61 696e7465 78742074 6f20656e 63727970 74207573 696e6720 5349562d 414553");
+        byte[] expected = hex("7bdb6e3b 432667eb 06f4d14b ff2fbd0f cb900f2f ddbe4043 26601965 c889bf17 dba77ceb 094fa663 b7a3f748 ba8af829 ea64ad54 4a272e9c 485b62a3 fd5c0d");
+
+        assertThat(AesSivCrypto.encrypt(key, ad, plaintext), equalTo(expected));
+        assertThat(AesSivCrypto.decrypt(key, ad, expected), equalTo(plaintext));
+    }
+
+    @Test
+    void testTamperedValue() {
+        byte[] key = hex("fffefdfc fbfaf9f8 f7f6f5f4 f3f2f1f0 f0f1f2f3 f4f5f6f7 f8f9fafb fcfdfeff");
+        byte[][] ad = {new byte[0]};
+        byte[] encrypted = AesSivCrypto.encrypt(key, ad, "value".getBytes(StandardCharsets.UTF_8));
+        encrypted[encrypted.length - 1] ^= 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AesSivCrypto.decrypt(key, ad, encrypted));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AesSivCrypto.decrypt(key, ad, new byte[8]));
+    }
+
+    @Test
+    void testDatabaseStorage() throws Exception {
+        AesSivCrypto crypto = AesSivCrypto.fromKeySource(() -> keys(1));
+        for (String value : new String[]{"", "short", "exactly 16 bytes", "a value which is longer than a few AES blocks"}) {
+            String stored = crypto.encryptForDatabaseStorage(value);
+            assertThat(stored, equalTo(crypto.encryptForDatabaseStorage(value)));
+            assertThat(crypto.decryptFromDatabaseStorageToString(stored), equalTo(value));
+            assertThat(CryptoAesGcmUtil.getKid(stored), equalTo("SIV_1"));
+        }
+        assertThat(crypto.encryptForDatabaseStorage("value1"), not(equalTo(crypto.encryptForDatabaseStorage("value2"))));
+    }
+
+    @Test
+    void testKeyRotation() throws Exception {
+        Map<String, byte[]> keys = keys(1);
+        AesSivCrypto crypto = AesSivCrypto.fromKeySource(() -> keys);
+        String stored = crypto.encryptForDatabaseStorage("value");
+
+        keys.putAll(keys(2));
+        crypto.reload();
+        assertThat(crypto.getCurrentKid(), equalTo("SIV_2"));
+        assertThat(crypto.needsReEncryption(stored), is(true));
+        assertThat(crypto.decryptFromDatabaseStorageToString(stored), equalTo("value"));
+
+        List<String> lookup = crypto.encryptForDatabaseLookup("value");
+        assertThat(lookup.size(), is(2));
+        assertThat(lookup.get(0), equalTo(crypto.encryptForDatabaseStorage("value")));
+        assertThat(lookup.get(1), equalTo(stored));
+
+        keys.remove("SIV_1");
+        crypto.reload();
+        Assertions.assertThrows(IllegalStateException.class, () -> crypto.decryptFromDatabaseStorage(stored));
+    }
+
+    @Test
+    void testInvalidValues() throws Exception {
+        AesSivCrypto crypto = AesSivCrypto.fromKeySource(() -> keys(1));
+        String stored = crypto.encryptForDatabaseStorage("value");
+
+        // the kid is authenticated
+        byte[] buffer = Base64.getDecoder().decode(stored.substring(1));
+        buffer[3] = 'X';
+        String otherKid = CompactStorageCodec.encode(buffer);
+        Assertions.assertThrows(IllegalStateException.class, () -> crypto.decryptFromDatabaseStorage(otherKid));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> crypto.decryptFromDatabaseStorage("value"));
+        CryptoAesGcmUtil gcm = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"SIV_1\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        gcm.setStorageFormat(StorageFormat.COMPACT);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> crypto.decryptFromDatabaseStorage(gcm.encryptForDatabaseStorage("value")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> gcm.decryptFromDatabaseStorage(stored));
+
+        Map<String, byte[]> shortKey = new HashMap<>();
+        shortKey.put("SIV_1", new byte[16]);
+        Assertions.assertThrows(IllegalStateException.class, () -> AesSivCrypto.fromKeySource(() -> shortKey));
+    }
+}
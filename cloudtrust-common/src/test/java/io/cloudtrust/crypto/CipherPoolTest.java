@@ -0,0 +1,70 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CipherPoolTest {
+    @Test
+    void testReleasedCipherIsReused() {
+        CipherPool pool = new CipherPool("AES/GCM/NoPadding", 2);
+        Cipher cipher = pool.acquire();
+        assertThat(pool.getIdleCount(), is(0));
+        pool.release(cipher);
+        assertThat(pool.getIdleCount(), is(1));
+        assertThat(pool.acquire(), sameInstance(cipher));
+    }
+
+    @Test
+    void testPoolIsBounded() {
+        CipherPool pool = new CipherPool("AES/GCM/NoPadding", 1);
+        Cipher cipher1 = pool.acquire();
+        Cipher cipher2 = pool.acquire();
+        assertThat(cipher1, not(sameInstance(cipher2)));
+        pool.release(cipher1);
+        pool.release(cipher2);
+        pool.release(null);
+        assertThat(pool.getIdleCount(), is(1));
+    }
+
+    @Test
+    void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new CipherPool("AES/GCM/NoPadding", -1));
+        CipherPool pool = new CipherPool("UNKNOWN/ALGO/NoPadding", 1);
+        assertThrows(IllegalStateException.class, pool::acquire);
+    }
+
+    @Test
+    void testConcurrentUseFromVirtualThreads() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+
+        List<Future<String>> results = new ArrayList<>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 200; i++) {
+                String value = "value-" + i;
+                results.add(executor.submit(() -> CryptoAesGcmUtil.gcmDecrypt(secretKey, CryptoAesGcmUtil.gcmEncrypt(secretKey, value))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get(), equalTo("value-" + i));
+            }
+        }
+        assertThat(CipherPool.aesGcm().getIdleCount() <= CipherPool.DEFAULT_MAX_IDLE, is(true));
+        assertThat(new String(CryptoAesGcmUtil.gcmDecryptData(secretKey, CryptoAesGcmUtil.gcmEncryptData(secretKey, new byte[0])), StandardCharsets.UTF_8), equalTo(""));
+    }
+}
@@ -0,0 +1,87 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CryptoAesGcmUtilBatchTest {
+    private CryptoAesGcmUtil codec;
+
+    @BeforeEach
+    void init() throws Exception {
+        codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+    }
+
+    private static List<byte[]> values(int count) {
+        List<byte[]> res = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            res.add(String.format("value-%05d", i).getBytes(StandardCharsets.UTF_8));
+        }
+        return res;
+    }
+
+    private static List<String> toStrings(List<byte[]> values) {
+        return values.stream().map(v -> new String(v, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    @Test
+    void testSequentialBatch() {
+        List<byte[]> values = values(10);
+        List<String> encrypted = codec.encryptAll(values);
+        assertThat(encrypted.size(), is(10));
+        assertThat(toStrings(codec.decryptAll(encrypted)), equalTo(toStrings(values)));
+    }
+
+    @Test
+    void testParallelBatchKeepsOrder() {
+        codec.setParallelThreshold(10);
+        codec.setBatchPool(new ForkJoinPool(4));
+        List<byte[]> values = values(500);
+        List<String> encrypted = codec.encryptAll(values);
+        assertThat(toStrings(codec.decryptAll(encrypted)), equalTo(toStrings(values)));
+        assertThat(codec.getParallelThreshold(), is(10));
+    }
+
+    @Test
+    void testParallelBatchWithoutOrder() {
+        codec.setParallelThreshold(10);
+        List<byte[]> values = values(500);
+        List<String> encrypted = codec.encryptAll(values, false);
+        List<String> decrypted = toStrings(codec.decryptAll(encrypted, false));
+        decrypted.sort(Comparator.naturalOrder());
+        assertThat(decrypted, equalTo(toStrings(values)));
+    }
+
+    @Test
+    void testStreamBatch() {
+        List<byte[]> values = values(50);
+        List<String> encrypted = codec.encryptAll(values);
+        assertThat(toStrings(codec.decryptAll(encrypted.parallelStream()).collect(Collectors.toList())), equalTo(toStrings(values)));
+    }
+
+    @Test
+    void testBatchFailure() throws Exception {
+        codec.setParallelThreshold(2);
+        CryptoAesGcmUtil otherCodec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_2\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        List<String> encrypted = new ArrayList<>(codec.encryptAll(values(5)));
+        encrypted.add(otherCodec.encryptForDatabaseStorage("value"));
+        assertThrows(IllegalStateException.class, () -> codec.decryptAll(encrypted));
+    }
+
+    @Test
+    void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> codec.setParallelThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> codec.setBatchPool(null));
+    }
+}
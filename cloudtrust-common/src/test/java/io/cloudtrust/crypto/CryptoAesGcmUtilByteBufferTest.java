@@ -0,0 +1,77 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CryptoAesGcmUtilByteBufferTest {
+    private static final byte[] DATA = "This is a test string to encrypt and decrypt!".getBytes(StandardCharsets.UTF_8);
+
+    private SecretKey secretKey;
+
+    @BeforeEach
+    void init() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        secretKey = keyGen.generateKey();
+    }
+
+    private void roundTrip(ByteBuffer encrypted, ByteBuffer decrypted) throws Exception {
+        ByteBuffer input = ByteBuffer.wrap(DATA);
+        int written = CryptoAesGcmUtil.gcmEncrypt(secretKey, input, encrypted);
+        assertThat(written, is(CryptoAesGcmUtil.gcmEncryptedSize(DATA.length)));
+        assertThat(input.remaining(), is(0));
+
+        encrypted.flip();
+        assertThat(CryptoAesGcmUtil.gcmDecrypt(secretKey, encrypted, decrypted), is(DATA.length));
+        decrypted.flip();
+        byte[] res = new byte[decrypted.remaining()];
+        decrypted.get(res);
+        assertThat(res, equalTo(DATA));
+    }
+
+    @Test
+    void testHeapBuffers() throws Exception {
+        // use buffers with an offset to check array offsets handling
+        ByteBuffer encrypted = ByteBuffer.allocate(CryptoAesGcmUtil.gcmEncryptedSize(DATA.length) + 10);
+        encrypted.position(10);
+        encrypted = encrypted.slice();
+        roundTrip(encrypted, ByteBuffer.allocate(DATA.length));
+    }
+
+    @Test
+    void testDirectBuffers() throws Exception {
+        roundTrip(ByteBuffer.allocateDirect(CryptoAesGcmUtil.gcmEncryptedSize(DATA.length)), ByteBuffer.allocateDirect(DATA.length));
+    }
+
+    @Test
+    void testCompatibilityWithBase64Api() throws Exception {
+        ByteBuffer encrypted = ByteBuffer.allocate(CryptoAesGcmUtil.gcmEncryptedSize(DATA.length));
+        CryptoAesGcmUtil.gcmEncrypt(secretKey, ByteBuffer.wrap(DATA), encrypted);
+        assertThat(CryptoAesGcmUtil.gcmDecryptData(secretKey, Base64.getEncoder().encodeToString(encrypted.array())), equalTo(DATA));
+
+        byte[] fromString = Base64.getDecoder().decode(CryptoAesGcmUtil.gcmEncryptData(secretKey, DATA));
+        ByteBuffer decrypted = ByteBuffer.allocate(CryptoAesGcmUtil.gcmDecryptedSize(fromString.length));
+        CryptoAesGcmUtil.gcmDecrypt(secretKey, ByteBuffer.wrap(fromString), decrypted);
+        assertThat(decrypted.array(), equalTo(DATA));
+    }
+
+    @Test
+    void testShortBuffers() {
+        assertThrows(ShortBufferException.class, () -> CryptoAesGcmUtil.gcmEncrypt(secretKey, ByteBuffer.wrap(DATA), ByteBuffer.allocate(DATA.length)));
+        assertThrows(ShortBufferException.class, () -> CryptoAesGcmUtil.gcmDecrypt(secretKey, ByteBuffer.allocate(100), ByteBuffer.allocate(10)));
+        assertThrows(IllegalArgumentException.class, () -> CryptoAesGcmUtil.gcmDecrypt(secretKey, ByteBuffer.allocate(5), ByteBuffer.allocate(10)));
+        assertThat(CryptoAesGcmUtil.gcmDecryptedSize(5), is(0));
+    }
+}
@@ -15,9 +15,15 @@ import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.OrderingComparison.lessThan;
@@ -119,6 +125,12 @@ class CryptoAesGcmUtilTest {
         Assertions.assertThrows(IllegalStateException.class, () -> CryptoAesGcmUtil.fromJSON("[]"));
     }
 
+    @Test
+    void testDuplicateKidInJson() {
+        Assertions.assertThrows(IllegalStateException.class, () -> CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]"));
+    }
+
     @Test
     void testMissingKeyWhenDecrypting() throws Exception {
         String jsonKeys = "[" +
@@ -129,4 +141,292 @@ class CryptoAesGcmUtilTest {
         Assertions.assertThrows(IllegalStateException.class, () -> codec.decryptFromDatabaseStorage(encValue));
     }
 
+    @Test
+    void testCompactStorageFormat() throws Exception {
+        byte[] plainText = new byte[32];
+        new SecureRandom().nextBytes(plainText);
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        String jsonValue = codec.encryptForDatabaseStorage(plainText);
+        codec.setStorageFormat(StorageFormat.COMPACT);
+        assertThat(codec.getStorageFormat(), equalTo(StorageFormat.COMPACT));
+        String compactValue = codec.encryptForDatabaseStorage(plainText);
+
+        assertThat(compactValue.startsWith(CompactStorageCodec.PREFIX), is(true));
+        assertThat(compactValue.length(), lessThan(jsonValue.length()));
+        assertThat(codec.decryptFromDatabaseStorage(compactValue), equalTo(plainText));
+        // all formats can be read whatever the configured storage format is
+        assertThat(codec.decryptFromDatabaseStorage(jsonValue), equalTo(plainText));
+        codec.setStorageFormat(StorageFormat.JSON);
+        assertThat(codec.decryptFromDatabaseStorage(compactValue), equalTo(plainText));
+        assertThrows(IllegalArgumentException.class, () -> codec.setStorageFormat(null));
+    }
+
+    @Test
+    void testCompactStorageFormatWithEmptyKey() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"\"}]");
+        codec.setStorageFormat(StorageFormat.COMPACT);
+        String compactValue = codec.encryptForDatabaseStorage("TEST");
+        assertThat(codec.decryptFromDatabaseStorageToString(compactValue), equalTo("TEST"));
+    }
+
+    @Test
+    void testCompactStorageFormatErrors() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CryptoAesGcmUtil otherCodec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_2\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        otherCodec.setStorageFormat(StorageFormat.COMPACT);
+        String unknownKidValue = otherCodec.encryptForDatabaseStorage("TEST");
+        assertThrows(IllegalStateException.class, () -> codec.decryptFromDatabaseStorage(unknownKidValue));
+
+        byte[] buffer = Base64.getDecoder().decode(unknownKidValue.substring(1));
+        buffer[1] = 1;
+        String unknownFlags = CompactStorageCodec.encode(buffer);
+        assertThrows(IllegalArgumentException.class, () -> otherCodec.decryptFromDatabaseStorage(unknownFlags));
+
+        // values looking like the compact format but which are not are considered as clear text
+        assertThat(codec.decryptFromDatabaseStorageToString("~not base64"), equalTo("~not base64"));
+        assertThat(codec.decryptFromDatabaseStorageToString("~AAAA"), equalTo("~AAAA"));
+    }
+
+    @Test
+    void testDetectFormat() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        String jsonValue = codec.encryptForDatabaseStorage("TEST");
+        String legacyValue = CryptoAesGcmUtil.gcmEncrypt(new SecretKeySpec("1234567890123456".getBytes(StandardCharsets.UTF_8), "AES"), "TEST");
+        codec.setStorageFormat(StorageFormat.COMPACT);
+        String compactValue = codec.encryptForDatabaseStorage("TEST");
+
+        assertThat(CryptoAesGcmUtil.detectFormat(compactValue), is(StoredValueFormat.COMPACT));
+        assertThat(CryptoAesGcmUtil.detectFormat(jsonValue), is(StoredValueFormat.JSON_ENVELOPE));
+        assertThat(CryptoAesGcmUtil.detectFormat(" " + jsonValue + " "), is(StoredValueFormat.JSON_ENVELOPE));
+        assertThat(CryptoAesGcmUtil.detectFormat(legacyValue), is(StoredValueFormat.LEGACY_GCM));
+        assertThat(CryptoAesGcmUtil.detectFormat("TEST_value"), is(StoredValueFormat.PLAIN_TEXT));
+        assertThat(CryptoAesGcmUtil.detectFormat("QUJD"), is(StoredValueFormat.PLAIN_TEXT));
+        assertThat(CryptoAesGcmUtil.detectFormat("~abc"), is(StoredValueFormat.PLAIN_TEXT));
+        assertThat(CryptoAesGcmUtil.detectFormat("{"), is(StoredValueFormat.PLAIN_TEXT));
+        assertThat(CryptoAesGcmUtil.detectFormat(""), is(StoredValueFormat.PLAIN_TEXT));
+    }
+
+    @Test
+    void testFormatStatistics() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        String jsonValue = codec.encryptForDatabaseStorage("TEST");
+        String legacyValue = CryptoAesGcmUtil.gcmEncrypt(new SecretKeySpec("1234567890123456".getBytes(StandardCharsets.UTF_8), "AES"), "TEST");
+        codec.setStorageFormat(StorageFormat.COMPACT);
+        String compactValue = codec.encryptForDatabaseStorage("TEST");
+        // Base64 content which can't be decrypted is considered as clear text
+        String base64ClearValue = Base64.getEncoder().encodeToString(new byte[40]);
+
+        for (String value : List.of(compactValue, jsonValue, legacyValue)) {
+            assertThat(codec.decryptFromDatabaseStorageToString(value), equalTo("TEST"));
+        }
+        assertThat(codec.decryptFromDatabaseStorageToString("TEST"), equalTo("TEST"));
+        assertThat(codec.decryptFromDatabaseStorageToString("{not json}"), equalTo("{not json}"));
+        assertThat(codec.decryptFromDatabaseStorageToString(base64ClearValue), equalTo(base64ClearValue));
+
+        assertThat(codec.getFormatHits(StoredValueFormat.COMPACT), is(1L));
+        assertThat(codec.getFormatHits(StoredValueFormat.JSON_ENVELOPE), is(1L));
+        assertThat(codec.getFormatHits(StoredValueFormat.LEGACY_GCM), is(1L));
+        assertThat(codec.getFormatStatistics().get(StoredValueFormat.PLAIN_TEXT), is(3L));
+        assertThrows(IllegalArgumentException.class, () -> codec.decryptFromDatabaseStorage(null));
+    }
+
+    @Test
+    void testReEncryption() throws Exception {
+        CryptoAesGcmUtil oldCodec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[" +
+                "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        String oldValue = oldCodec.encryptForDatabaseStorage("TEST");
+        oldCodec.setStorageFormat(StorageFormat.COMPACT);
+        String oldCompactValue = oldCodec.encryptForDatabaseStorage("TEST");
+
+        assertThat(codec.getCurrentKid(), equalTo("TEE_4"));
+        assertThat(CryptoAesGcmUtil.getKid(oldValue), equalTo("TEE_3"));
+        assertThat(CryptoAesGcmUtil.getKid(oldCompactValue), equalTo("TEE_3"));
+        assertThat(CryptoAesGcmUtil.getKid("TEST"), nullValue());
+        assertThat(codec.needsReEncryption(oldValue), is(true));
+        assertThat(codec.needsReEncryption(oldCompactValue), is(true));
+        assertThat(codec.needsReEncryption("TEST"), is(true));
+
+        String newValue = codec.reEncrypt(oldValue);
+        assertThat(CryptoAesGcmUtil.getKid(newValue), equalTo("TEE_4"));
+        assertThat(codec.needsReEncryption(newValue), is(false));
+        assertThat(codec.decryptFromDatabaseStorageToString(newValue), equalTo("TEST"));
+        assertThat(codec.decryptFromDatabaseStorageToString(codec.reEncrypt("TEST")), equalTo("TEST"));
+    }
+
+    @Test
+    void testDecryptionWithStatus() throws Exception {
+        CryptoAesGcmUtil oldCodec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[" +
+                "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+
+        DecryptionResult current = codec.decryptFromDatabaseStorageWithStatus(codec.encryptForDatabaseStorage("TEST"));
+        assertThat(current.getValue(), equalTo("TEST".getBytes(StandardCharsets.UTF_8)));
+        assertThat(current.getKid(), equalTo("TEE_4"));
+        assertThat(current.getFormat(), is(StoredValueFormat.JSON_ENVELOPE));
+        assertThat(current.isStale(), is(false));
+
+        String oldValue = oldCodec.encryptForDatabaseStorage("TEST");
+        DecryptionResult old = codec.decryptFromDatabaseStorageWithStatus(oldValue);
+        assertThat(old.getKid(), equalTo("TEE_3"));
+        assertThat(old.isStale(), is(true));
+        codec.decryptFromDatabaseStorage(oldValue);
+
+        DecryptionResult clear = codec.decryptFromDatabaseStorageWithStatus("TEST");
+        assertThat(clear.getKid(), nullValue());
+        assertThat(clear.getFormat(), is(StoredValueFormat.PLAIN_TEXT));
+        assertThat(clear.isStale(), is(true));
+
+        assertThat(codec.getStaleReadStatistics().get("TEE_3"), is(2L));
+        assertThat(codec.getStaleReadStatistics().containsKey("TEE_4"), is(false));
+    }
+
+    @Test
+    void testReloadFromKeySource() throws Exception {
+        Map<String, byte[]> keys = new HashMap<>();
+        keys.put("TEE_3", "1234567890123456".getBytes(StandardCharsets.UTF_8));
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromKeySource(() -> new HashMap<>(keys));
+        String oldValue = codec.encryptForDatabaseStorage("TEST");
+        assertThat(codec.getCurrentKid(), equalTo("TEE_3"));
+
+        keys.put("TEE_4", "ABCDEFGHIJKLMNOP".getBytes(StandardCharsets.UTF_8));
+        codec.reload();
+        assertThat(codec.getCurrentKid(), equalTo("TEE_4"));
+        assertThat(codec.needsReEncryption(oldValue), is(true));
+        assertThat(codec.decryptFromDatabaseStorageToString(oldValue), equalTo("TEST"));
+
+        keys.clear();
+        assertThrows(IllegalStateException.class, codec::reload);
+        assertThat(codec.getCurrentKid(), equalTo("TEE_4"));
+    }
+
+    @Test
+    void testReloadWithoutKeySource() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"\"}]");
+        assertThrows(IllegalStateException.class, codec::reload);
+    }
+
+    @Test
+    void testDecryptedValueCache() throws Exception {
+        CryptoAesGcmUtil oldCodec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[" +
+                "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofMinutes(1));
+        codec.setDecryptedValueCache(cache);
+
+        String oldValue = oldCodec.encryptForDatabaseStorage("TEST");
+        for (int i = 0; i < 3; i++) {
+            DecryptionResult res = codec.decryptFromDatabaseStorageWithStatus(oldValue);
+            assertThat(new String(res.getValue(), StandardCharsets.UTF_8), equalTo("TEST"));
+            assertThat(res.getKid(), equalTo("TEE_3"));
+            assertThat(res.isStale(), is(true));
+        }
+        assertThat(codec.decryptFromDatabaseStorageToString("clear"), equalTo("clear"));
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.size(), is(1));
+        assertThat(codec.getStaleReadStatistics().get("TEE_3"), is(3L));
+    }
+
+    @Test
+    void testSharedDecryptedValueCache() throws Exception {
+        CryptoAesGcmUtil tenant1 = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CryptoAesGcmUtil tenant2 = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]");
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofMinutes(1));
+        tenant1.setDecryptedValueCache(cache);
+        tenant2.setDecryptedValueCache(cache);
+
+        String stored = tenant1.encryptForDatabaseStorage("TEST");
+        assertThat(tenant1.decryptFromDatabaseStorageToString(stored), equalTo("TEST"));
+        // same kid but another key: the value cached for the first instance is not returned to the second one
+        assertThrows(RuntimeException.class, () -> tenant2.decryptFromDatabaseStorage(stored));
+        assertThat(cache.getHits(), is(0L));
+    }
+
+    @Test
+    void testCompression() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            sb.append("{\"type\":\"ACCREDITATION\",\"expiryDate\":\"01.01.2030\",\"index\":").append(i).append("},");
+        }
+        String json = sb.append("{}]").toString();
+        String uncompressed = codec.encryptForDatabaseStorage(json);
+
+        for (StorageFormat format : StorageFormat.values()) {
+            for (CompressionCodec compression : CompressionCodec.values()) {
+                codec.setStorageFormat(format);
+                codec.setCompression(compression, 512);
+                String stored = codec.encryptForDatabaseStorage(json);
+                assertThat(stored.length(), lessThan(uncompressed.length() / 4));
+                assertThat(codec.decryptFromDatabaseStorageToString(stored), equalTo(json));
+
+                // small values are not compressed
+                String small = codec.encryptForDatabaseStorage("TEST");
+                codec.setCompression(null, 0);
+                assertThat(codec.decryptFromDatabaseStorageToString(small), equalTo("TEST"));
+                // compressed values remain readable when compression is disabled
+                assertThat(codec.decryptFromDatabaseStorageToString(stored), equalTo(json));
+            }
+        }
+        assertThat(uncompressed.contains("cmp"), is(false));
+        assertThrows(IllegalArgumentException.class, () -> codec.setCompression(CompressionCodec.DEFLATE, -1));
+    }
+
+    @Test
+    void testCompressionWithEmptyKey() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"\"}]");
+        codec.setCompression(CompressionCodec.DEFLATE_FAST, 0);
+        String value = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+        String stored = codec.encryptForDatabaseStorage(value);
+        assertThat(stored.contains("\"cmp\":\"deflate\""), is(true));
+        assertThat(codec.decryptFromDatabaseStorageToString(stored), equalTo(value));
+    }
+
+    @Test
+    void testUnsupportedCompression() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"\"}]");
+        assertThrows(IllegalArgumentException.class, () -> codec.decryptFromDatabaseStorage("{\"kid\":\"TEE_3\",\"val\":\"QUFB\",\"cmp\":\"zstd\"}"));
+        assertThrows(IllegalArgumentException.class, () -> codec.decryptFromDatabaseStorage("{\"kid\":\"TEE_3\",\"val\":\"QUFB\",\"cmp\":\"deflate\"}"));
+    }
+
+    @Test
+    void testDecompressionBomb() {
+        byte[] zeros = new byte[CompressionCodec.MAX_INFLATED_SIZE + 1];
+        byte[] compressed = CompressionCodec.DEFLATE.compress(zeros);
+        assertThrows(IllegalArgumentException.class, () -> CompressionCodec.inflate(compressed, 0, compressed.length));
+        byte[] fits = CompressionCodec.DEFLATE.compress(new byte[1000]);
+        assertThat(CompressionCodec.inflate(fits, 0, fits.length), equalTo(new byte[1000]));
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        List<String> events = new ArrayList<>();
+        codec.setMetrics(new CryptoMetrics() {
+            @Override
+            public void encrypted(String kid, int payloadSize, long durationNanos) {
+                events.add("encrypted " + kid + " " + payloadSize);
+            }
+
+            @Override
+            public void decrypted(String kid, StoredValueFormat format, int payloadSize, long durationNanos) {
+                events.add("decrypted " + kid + " " + format + " " + payloadSize);
+            }
+
+            @Override
+            public void decryptionFailed(StoredValueFormat format) {
+                events.add("failed " + format);
+            }
+        });
+        codec.decryptFromDatabaseStorage(codec.encryptForDatabaseStorage("TEST"));
+        codec.decryptFromDatabaseStorage("clear");
+        assertThrows(IllegalStateException.class, () -> codec.decryptFromDatabaseStorage("{\"kid\":\"TEE_2\",\"val\":\"QUFB\"}"));
+        assertThat(events, equalTo(List.of("encrypted TEE_3 4", "decrypted TEE_3 JSON_ENVELOPE 4", "decrypted null PLAIN_TEXT 5",
+                "failed JSON_ENVELOPE")));
+        assertThrows(IllegalArgumentException.class, () -> codec.setMetrics(null));
+    }
 }
@@ -5,8 +5,14 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class CryptoUtilHmacTest {
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
@@ -40,4 +46,64 @@ class CryptoUtilHmacTest {
         String textToMac = "Test-String";
         Assertions.assertThrows(IllegalStateException.class, () -> CryptoUtil.computeHmacForDatabaseStorage(textToMac));
     }
+
+    @Test
+    void testHmacKeyReload() throws Exception {
+        Map<String, byte[]> keys = new HashMap<>();
+        keys.put("TEH_1", "OLD_KEY".getBytes(StandardCharsets.UTF_8));
+        CryptoUtil.setHmacKeySource(() -> new HashMap<>(keys));
+        String oldHmac = CryptoUtil.computeHmacForDatabaseStorage("Test-String");
+
+        keys.put("TEH_2", "NEW_KEY".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(oldHmac, CryptoUtil.computeHmacForDatabaseStorage("Test-String"));
+        CryptoUtil.reloadHmacKeys();
+        Assertions.assertNotEquals(oldHmac, CryptoUtil.computeHmacForDatabaseStorage("Test-String"));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.setHmacKeySource(null));
+    }
+
+    @Test
+    void testBinaryHmac() throws Exception {
+        SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure).execute(() -> {
+            byte[] data = "Test-String".getBytes(StandardCharsets.UTF_8);
+            byte[] hmac = CryptoUtil.computeHmac(data);
+            Assertions.assertEquals(Base64.getEncoder().encodeToString(hmac), CryptoUtil.computeHmacForDatabaseStorage("Test-String"));
+            Assertions.assertArrayEquals(hmac, CryptoUtil.computeHmac(ByteBuffer.wrap(data)));
+        });
+    }
+
+    @Test
+    void testHmacsWithAllKeys() throws Exception {
+        Map<String, byte[]> keys = new HashMap<>();
+        keys.put("TEH_1", "OLD_KEY".getBytes(StandardCharsets.UTF_8));
+        CryptoUtil.setHmacKeySource(() -> new HashMap<>(keys));
+        String oldHmac = CryptoUtil.computeHmacForDatabaseStorage("Test-String");
+        Assertions.assertEquals(List.of(oldHmac), CryptoUtil.computeHmacsForDatabaseStorage("Test-String"));
+
+        keys.put("TEH_2", "NEW_KEY".getBytes(StandardCharsets.UTF_8));
+        CryptoUtil.reloadHmacKeys();
+        List<String> hmacs = CryptoUtil.computeHmacsForDatabaseStorage("Test-String");
+        Assertions.assertEquals(List.of(CryptoUtil.computeHmacForDatabaseStorage("Test-String"), oldHmac), hmacs);
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        CryptoUtil.setHmacKeySource(() -> Map.of("TEH_1", "OLD_KEY".getBytes(StandardCharsets.UTF_8),
+                "TEH_2", "NEW_KEY".getBytes(StandardCharsets.UTF_8)));
+        List<String> events = new ArrayList<>();
+        CryptoUtil.setMetrics(new CryptoMetrics() {
+            @Override
+            public void hmacComputed(String kid, int inputSize, long durationNanos) {
+                events.add(kid + " " + inputSize);
+            }
+        });
+        try {
+            CryptoUtil.computeHmacForDatabaseStorage("Test");
+            CryptoUtil.computeHmac(ByteBuffer.wrap(new byte[10]));
+            CryptoUtil.computeHmacsForDatabaseStorage("Test-String");
+            Assertions.assertEquals(List.of("TEH_2 4", "TEH_2 10", "TEH_2 11", "TEH_1 11"), events);
+        } finally {
+            CryptoUtil.setMetrics(CryptoMetrics.NOOP);
+        }
+    }
 }
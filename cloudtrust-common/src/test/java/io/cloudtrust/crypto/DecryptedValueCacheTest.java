@@ -0,0 +1,106 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class DecryptedValueCacheTest {
+    private static final long KEY_SET = 1;
+
+    private final AtomicLong clock = new AtomicLong();
+    private DecryptedValueCache cache;
+
+    @BeforeEach
+    void setup() {
+        cache = new DecryptedValueCache(2, Duration.ofSeconds(10), clock::get);
+    }
+
+    private static DecryptionResult result(String value) {
+        return new DecryptionResult(value.getBytes(StandardCharsets.UTF_8), "TEE_3", StoredValueFormat.JSON_ENVELOPE, false);
+    }
+
+    @Test
+    void testHitAndMiss() {
+        assertThat(cache.get(KEY_SET, "stored-1"), nullValue());
+        DecryptionResult value = result("value-1");
+        cache.put(KEY_SET, "stored-1", value);
+        // the cache holds its own copy of the value
+        value.getValue()[0] = 0;
+
+        DecryptionResult cached = cache.get(KEY_SET, "stored-1");
+        assertThat(new String(cached.getValue(), StandardCharsets.UTF_8), equalTo("value-1"));
+        assertThat(cached.getKid(), equalTo("TEE_3"));
+        assertThat(cached.getFormat(), is(StoredValueFormat.JSON_ENVELOPE));
+        cached.getValue()[0] = 0;
+        assertThat(new String(cache.get(KEY_SET, "stored-1").getValue(), StandardCharsets.UTF_8), equalTo("value-1"));
+
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEviction() {
+        cache.put(KEY_SET, "stored-1", result("value-1"));
+        cache.put(KEY_SET, "stored-2", result("value-2"));
+        cache.get(KEY_SET, "stored-1");
+        cache.put(KEY_SET, "stored-3", result("value-3"));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(KEY_SET, "stored-2"), nullValue());
+        assertThat(cache.get(KEY_SET, "stored-1") != null, is(true));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+    @Test
+    void testExpiration() {
+        cache.put(KEY_SET, "stored-1", result("value-1"));
+        clock.addAndGet(Duration.ofSeconds(9).toNanos());
+        assertThat(cache.get(KEY_SET, "stored-1") != null, is(true));
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertThat(cache.get(KEY_SET, "stored-1"), nullValue());
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+    @Test
+    void testClear() {
+        cache.put(KEY_SET, "stored-1", result("value-1"));
+        cache.clear();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.get(KEY_SET, "stored-1"), nullValue());
+    }
+
+    @Test
+    void testInvalidParameters() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DecryptedValueCache(0, Duration.ofSeconds(1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DecryptedValueCache(1, Duration.ZERO));
+    }
+
+    @Test
+    void testKeySetSeparation() {
+        cache.put(KEY_SET, "stored-1", result("value-1"));
+        assertThat(cache.get(KEY_SET + 1, "stored-1"), nullValue());
+        assertThat(cache.get(KEY_SET, "stored-1") != null, is(true));
+    }
+
+    @Test
+    void testSegmentedCache() {
+        DecryptedValueCache large = new DecryptedValueCache(1000, Duration.ofSeconds(10), clock::get);
+        for (int i = 0; i < 2000; i++) {
+            large.put(KEY_SET, "stored-" + i, result("value-" + i));
+        }
+        assertThat(large.size(), is(1000));
+        assertThat(large.getEvictions(), is(1000L));
+        assertThat(new String(large.get(KEY_SET, "stored-1999").getValue(), StandardCharsets.UTF_8), equalTo("value-1999"));
+        large.clear();
+        assertThat(large.size(), is(0));
+    }
+}
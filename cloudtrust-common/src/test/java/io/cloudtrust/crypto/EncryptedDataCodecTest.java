@@ -0,0 +1,52 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EncryptedDataCodecTest {
+    @Test
+    void testEncodeIsCompatibleWithObjectMapper() throws JsonProcessingException {
+        String[][] samples = {
+                {"TEE_3", "MomkIMM9+oVegQefSs9kwsTxUNRtSSv4g+F2JiLwl0IY50Wk/B8="},
+                {"kc_dev_1", ""},
+                {"kc_dev_1", null},
+                {"kid\"with\\quotes", "val\tue"},
+                {"kïd", "välue"}
+        };
+        ObjectMapper mapper = new ObjectMapper();
+        for (String[] sample : samples) {
+            String expected = mapper.writeValueAsString(new EncryptedData(sample[0], sample[1]));
+            assertThat(EncryptedDataCodec.encode(sample[0], sample[1]), equalTo(expected));
+        }
+    }
+
+    @Test
+    void testEncodeWithCompression() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        String expected = mapper.writeValueAsString(new EncryptedData("TEE_3", "abc", "deflate"));
+        assertThat(EncryptedDataCodec.encode("TEE_3", "abc", "deflate"), equalTo(expected));
+        EncryptedData data = EncryptedDataCodec.decode(expected);
+        assertThat(data.getCmp(), equalTo("deflate"));
+        assertThat(EncryptedDataCodec.decode(EncryptedDataCodec.encode("TEE_3", "abc")).getCmp(), equalTo(null));
+    }
+
+    @Test
+    void testDecode() throws JsonProcessingException {
+        EncryptedData data = EncryptedDataCodec.decode("{\"kid\": \"TEE_2\", \"val\": \"Test\"}");
+        assertThat(data.getKid(), equalTo("TEE_2"));
+        assertThat(data.getVal(), equalTo("Test"));
+        data = EncryptedDataCodec.decode(EncryptedDataCodec.encode("TEE_3", "abc"));
+        assertThat(data.getKid(), equalTo("TEE_3"));
+        assertThat(data.getVal(), equalTo("abc"));
+    }
+
+    @Test
+    void testDecodeInvalidContent() {
+        assertThrows(JsonProcessingException.class, () -> EncryptedDataCodec.decode("TEST_value"));
+    }
+}
@@ -0,0 +1,98 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class EnvelopeCryptoTest {
+    private static final String OLD_KEY = "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}";
+
+    @TempDir
+    Path tempDir;
+
+    private CryptoAesGcmUtil master;
+    private FileDataKeyStore store;
+
+    @BeforeEach
+    void setup() throws Exception {
+        master = CryptoAesGcmUtil.fromJSON("[" + OLD_KEY + "]");
+        store = new FileDataKeyStore(tempDir.resolve("data-keys.json"));
+    }
+
+    @Test
+    void testEncryptionPerTenant() throws Exception {
+        EnvelopeCrypto crypto = new EnvelopeCrypto(master, store);
+        String value1 = crypto.encrypt("realm-1", "value-1");
+        String value2 = crypto.encrypt("realm-2", "value-2");
+        String value3 = crypto.encrypt("realm-1", "value-3");
+
+        assertThat(crypto.decryptToString(value1), equalTo("value-1"));
+        assertThat(crypto.decryptToString(value2), equalTo("value-2"));
+        assertThat(crypto.decryptToString(value3), equalTo("value-3"));
+        assertThat(CryptoAesGcmUtil.getKid(value1), equalTo(CryptoAesGcmUtil.getKid(value3)));
+        assertThat(CryptoAesGcmUtil.getKid(value1), not(equalTo(CryptoAesGcmUtil.getKid(value2))));
+        assertThat(store.findAll().size(), is(2));
+        assertThat(crypto.getUnwrapCount(), is(0L));
+
+        // values can't be decrypted directly with the master key
+        Assertions.assertThrows(IllegalArgumentException.class, () -> master.decryptFromDatabaseStorage(value1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> crypto.decrypt(master.encryptForDatabaseStorage("value")));
+    }
+
+    @Test
+    void testDataKeysAreReloadedFromStore() {
+        String value = new EnvelopeCrypto(master, store).encrypt("realm-1", "value-1");
+
+        EnvelopeCrypto crypto = new EnvelopeCrypto(master, store);
+        assertThat(crypto.decryptToString(value), equalTo("value-1"));
+        assertThat(crypto.decryptToString(crypto.encrypt("realm-1", "value-2")), equalTo("value-2"));
+        assertThat(CryptoAesGcmUtil.getKid(crypto.encrypt("realm-1", "value-2")), equalTo(CryptoAesGcmUtil.getKid(value)));
+        assertThat(crypto.getUnwrapCount(), is(2L));
+    }
+
+    @Test
+    void testMasterKeyRotation() throws Exception {
+        String value = new EnvelopeCrypto(master, store).encrypt("realm-1", "value-1");
+        new EnvelopeCrypto(master, store).encrypt("realm-2", "value-2");
+
+        CryptoAesGcmUtil rotatedMaster = CryptoAesGcmUtil.fromJSON("[" + NEW_KEY + "," + OLD_KEY + "]");
+        EnvelopeCrypto crypto = new EnvelopeCrypto(rotatedMaster, store);
+        assertThat(crypto.rewrapDataKeys(), is(2));
+        assertThat(crypto.rewrapDataKeys(), is(0));
+
+        // the old master key is no longer needed
+        CryptoAesGcmUtil newMaster = CryptoAesGcmUtil.fromJSON("[" + NEW_KEY + "]");
+        assertThat(new EnvelopeCrypto(newMaster, store).decryptToString(value), equalTo("value-1"));
+    }
+
+    @Test
+    void testCachedKeysExpire() {
+        AtomicLong clock = new AtomicLong();
+        String value = new EnvelopeCrypto(master, store).encrypt("realm-1", "value-1");
+        EnvelopeCrypto crypto = new EnvelopeCrypto(master, store, 10, Duration.ofMinutes(1), clock::get);
+        crypto.decrypt(value);
+        crypto.decrypt(value);
+        assertThat(crypto.getUnwrapCount(), is(1L));
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        crypto.decrypt(value);
+        assertThat(crypto.getUnwrapCount(), is(2L));
+    }
+
+    @Test
+    void testUnknownDataKey() {
+        String value = new EnvelopeCrypto(master, store).encrypt("realm-1", "value-1");
+        EnvelopeCrypto otherStore = new EnvelopeCrypto(master, new FileDataKeyStore(tempDir.resolve("other.json")));
+        Assertions.assertThrows(IllegalStateException.class, () -> otherStore.decrypt(value));
+    }
+}
@@ -0,0 +1,81 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+
+class HmacEngineTest {
+    private static final SecretKey KEY = new SecretKeySpec("0123456789abcdef".getBytes(StandardCharsets.UTF_8), HmacEngine.HMAC_SHA512);
+
+    private static byte[] reference(byte[] data) throws Exception {
+        Mac mac = Mac.getInstance(HmacEngine.HMAC_SHA512);
+        mac.init(KEY);
+        return mac.doFinal(data);
+    }
+
+    @Test
+    void testComputeMatchesMac() throws Exception {
+        HmacEngine engine = new HmacEngine("TEH_1", KEY);
+        byte[] data = "someone@example.com".getBytes(StandardCharsets.UTF_8);
+        assertThat(engine.getKid(), equalTo("TEH_1"));
+        assertThat(engine.getMacLength(), is(64));
+        for (int i = 0; i < 3; i++) {
+            assertThat(engine.compute(data), equalTo(reference(data)));
+        }
+    }
+
+    @Test
+    void testByteBuffers() throws Exception {
+        HmacEngine engine = new HmacEngine("TEH_1", KEY);
+        byte[] data = "+41790000000".getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        assertThat(engine.compute(heap), equalTo(reference(data)));
+        assertThat(heap.remaining(), is(0));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 4);
+        direct.putInt(42).put(data).flip().position(4);
+        assertThat(engine.compute(direct), equalTo(reference(data)));
+    }
+
+    @Test
+    void testConcurrentUse() throws Exception {
+        HmacEngine engine = new HmacEngine("TEH_1", KEY, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] data = ("value-" + i).getBytes(StandardCharsets.UTF_8);
+                byte[] expected = reference(data);
+                futures.add(executor.submit(() -> Arrays.equals(expected, engine.compute(data))));
+            }
+            for (Future<Boolean> future : futures) {
+                Assertions.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(engine.getIdleCount(), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    void testInvalidParameters() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HmacEngine("TEH_1", KEY, -1));
+    }
+}
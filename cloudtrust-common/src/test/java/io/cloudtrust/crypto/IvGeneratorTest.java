@@ -0,0 +1,99 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IvGeneratorTest {
+    @Test
+    void testRandomIvGenerator() {
+        RandomIvGenerator generator = new RandomIvGenerator();
+        Set<String> ivs = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] iv = generator.nextIv();
+            assertThat(iv.length, is(IvGenerator.IV_SIZE));
+            ivs.add(Arrays.toString(iv));
+        }
+        generator.nextIv(new byte[IvGenerator.IV_SIZE]);
+        assertThat(ivs.size(), is(100));
+        assertThat(generator.getInvocationCount(), is(101L));
+        assertThat(generator.getInvocationLimit(), is(RandomIvGenerator.INVOCATION_LIMIT));
+        assertThat(generator.isNearInvocationLimit(0.9), is(false));
+    }
+
+    @Test
+    void testCounterIvGenerator() {
+        CounterIvGenerator generator = new CounterIvGenerator(new byte[]{1, 2, 3, 4}, 0);
+        assertThat(generator.nextIv(), equalTo(new byte[]{1, 2, 3, 4, 0, 0, 0, 0, 0, 0, 0, 0}));
+        assertThat(generator.nextIv(), equalTo(new byte[]{1, 2, 3, 4, 0, 0, 0, 0, 0, 0, 0, 1}));
+        for (int i = 2; i < 300; i++) {
+            generator.nextIv();
+        }
+        assertThat(generator.nextIv(), equalTo(new byte[]{1, 2, 3, 4, 0, 0, 0, 0, 0, 0, 1, 44}));
+        assertThat(generator.getInvocationCount(), is(301L));
+        assertThat(generator.getRemainingInvocations(), is(RandomIvGenerator.INVOCATION_LIMIT - 301L));
+    }
+
+    @Test
+    void testCounterIvGeneratorNodeId() {
+        byte[] iv = new CounterIvGenerator(0x01020304).nextIv();
+        assertThat(Arrays.copyOf(iv, 4), equalTo(new byte[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    void testCounterIvGeneratorRestartedNode() {
+        // a restarted node gets the same node id but must not generate the IVs of its previous run again
+        CounterIvGenerator previousRun = new CounterIvGenerator(1);
+        CounterIvGenerator nextRun = new CounterIvGenerator(1);
+        assertThat(Arrays.equals(previousRun.nextIv(), nextRun.nextIv()), is(false));
+        assertThat(nextRun.getInvocationLimit(), is(RandomIvGenerator.INVOCATION_LIMIT));
+    }
+
+    @Test
+    void testCounterIvGeneratorRandomStart() {
+        CounterIvGenerator generator = CounterIvGenerator.withRandomStart();
+        byte[] first = generator.nextIv();
+        byte[] second = generator.nextIv();
+        assertThat(Arrays.copyOf(second, 4), equalTo(Arrays.copyOf(first, 4)));
+        assertThat(Arrays.equals(first, second), is(false));
+        assertThat(generator.getInvocationCount(), is(2L));
+        // the IV sequences of instances with random starts may overlap: limit of random IVs
+        assertThat(generator.getInvocationLimit(), is(RandomIvGenerator.INVOCATION_LIMIT));
+    }
+
+    @Test
+    void testCounterIvGeneratorInvalidFixedField() {
+        assertThrows(IllegalArgumentException.class, () -> new CounterIvGenerator(new byte[3]));
+    }
+
+    @Test
+    void testEncryptionWithCounterIvGenerator() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+        CounterIvGenerator generator = new CounterIvGenerator(1);
+        String encrypted = CryptoAesGcmUtil.gcmEncryptData(secretKey, "value".getBytes(), generator);
+        assertThat(CryptoAesGcmUtil.gcmDecrypt(secretKey, encrypted), equalTo("value"));
+        assertThat(generator.getInvocationCount(), is(1L));
+    }
+
+    @Test
+    void testDatabaseStorageUsesConfiguredGenerator() throws Exception {
+        CryptoAesGcmUtil codec = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}]");
+        CounterIvGenerator generator = new CounterIvGenerator(2);
+        codec.setIvGenerator(generator);
+        String encrypted = codec.encryptForDatabaseStorage("value");
+        assertThat(codec.decryptFromDatabaseStorageToString(encrypted), equalTo("value"));
+        assertThat(codec.getIvGenerator().getInvocationCount(), is(1L));
+        assertThrows(IllegalArgumentException.class, () -> codec.setIvGenerator(null));
+    }
+}
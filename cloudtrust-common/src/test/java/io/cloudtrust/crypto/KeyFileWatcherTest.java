@@ -0,0 +1,62 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class KeyFileWatcherTest {
+    private static final String OLD_KEY = "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}";
+
+    @TempDir
+    Path tempDir;
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timeout");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void testReloadOnChange() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), "[" + OLD_KEY + "]");
+        CryptoAesGcmUtil crypto = CryptoAesGcmUtil.fromKeySource(KeySource.file(file));
+        String oldValue = crypto.encryptForDatabaseStorage("value");
+        try (KeyFileWatcher watcher = new KeyFileWatcher(file, crypto::reload, 50)) {
+            Files.writeString(file, "[" + NEW_KEY + "," + OLD_KEY + "]");
+            waitFor(() -> "TEE_4".equals(crypto.getCurrentKid()));
+            assertThat(crypto.decryptFromDatabaseStorageToString(oldValue), equalTo("value"));
+
+            // invalid content keeps the previous keys
+            Files.writeString(file, "not json");
+            waitFor(() -> watcher.getLastFailure() != null);
+            assertThat(crypto.getCurrentKid(), equalTo("TEE_4"));
+        }
+    }
+
+    @Test
+    void testReloadFailureIsReported() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), "[" + OLD_KEY + "]");
+        try (KeyFileWatcher watcher = new KeyFileWatcher(file, () -> {
+            throw new IOException("failure");
+        }, 10)) {
+            assertThat(watcher.getLastFailure(), nullValue());
+            Files.writeString(tempDir.resolve("other"), "x");
+            waitFor(() -> watcher.getLastFailure() != null);
+            assertThat(watcher.getLastFailure(), notNullValue());
+            assertThat(watcher.getReloadCount(), is(0L));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class KeySourceTest {
+    private static final String KEYS = "[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}," +
+            "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]";
+
+    @TempDir
+    Path tempDir;
+
+    private void assertKeys(Map<String, byte[]> keys) {
+        assertThat(keys.size(), is(2));
+        assertThat(new String(keys.get("TEE_3"), StandardCharsets.UTF_8), equalTo("1234567890123456"));
+        assertThat(new String(keys.get("TEE_4"), StandardCharsets.UTF_8), equalTo("ABCDEFGHIJKLMNOP"));
+    }
+
+    @Test
+    void testFileSource() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), KEYS);
+        assertKeys(KeySource.file(file).load());
+    }
+
+    @Test
+    void testEnvironmentSource() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), KEYS);
+        SystemLambda.withEnvironmentVariable("TEST_KEYS", KEYS)
+                .execute(() -> assertKeys(KeySource.environment("TEST_KEYS").load()));
+        SystemLambda.withEnvironmentVariable("TEST_KEYS_FILE", file.toString())
+                .execute(() -> assertKeys(KeySource.environment("TEST_KEYS").load()));
+        Assertions.assertThrows(IllegalStateException.class, () -> KeySource.environment("TEST_KEYS").load());
+    }
+
+    @Test
+    void testKeyStoreSource() throws Exception {
+        char[] password = "changeit".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, password);
+        KeyStore.ProtectionParameter protection = new KeyStore.PasswordProtection(password);
+        keyStore.setEntry("TEE_3", new KeyStore.SecretKeyEntry(new SecretKeySpec("1234567890123456".getBytes(StandardCharsets.UTF_8), "AES")), protection);
+        keyStore.setEntry("TEE_4", new KeyStore.SecretKeyEntry(new SecretKeySpec("ABCDEFGHIJKLMNOP".getBytes(StandardCharsets.UTF_8), "AES")), protection);
+        Path file = tempDir.resolve("keys.p12");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            keyStore.store(out, password);
+        }
+        assertKeys(KeySource.keyStore(file, "PKCS12", password).load());
+    }
+
+    @Test
+    void testInvalidContent() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), "{\"kid\": \"TEE_3\"}");
+        Assertions.assertThrows(IllegalStateException.class, () -> KeySource.file(file).load());
+        Path badKid = Files.writeString(tempDir.resolve("bad.json"), "[{\"kid\": \"TEE\", \"value\": \"\"}]");
+        Assertions.assertThrows(IllegalStateException.class, () -> CryptoAesGcmUtil.fromKeySource(KeySource.file(badKid)));
+    }
+
+    @Test
+    void testDuplicateKid() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("keys.json"), "[{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}," +
+                "{\"kid\": \"TEE_3\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]");
+        Assertions.assertThrows(IllegalStateException.class, () -> KeySource.file(file).load());
+        Assertions.assertThrows(IllegalStateException.class, () -> CryptoAesGcmUtil.fromKeySource(KeySource.file(file)));
+    }
+}
@@ -0,0 +1,150 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class TenantKeyRegistryTest {
+    private final Map<String, Map<String, byte[]>> aesKeys = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, byte[]>> hmacKeys = new ConcurrentHashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final TenantKeyRegistry.TenantKeySources sources = new TenantKeyRegistry.TenantKeySources() {
+        @Override
+        public KeySource aesKeys(String tenant) {
+            loads.incrementAndGet();
+            return aesKeys.containsKey(tenant) ? () -> new HashMap<>(aesKeys.get(tenant)) : null;
+        }
+
+        @Override
+        public KeySource hmacKeys(String tenant) {
+            return hmacKeys.containsKey(tenant) ? () -> new HashMap<>(hmacKeys.get(tenant)) : null;
+        }
+    };
+
+    private static Map<String, byte[]> keys(String kid, String value) {
+        Map<String, byte[]> res = new HashMap<>();
+        res.put(kid, value.getBytes(StandardCharsets.UTF_8));
+        return res;
+    }
+
+    @Test
+    void testTenantKeys() {
+        aesKeys.put("realm-a", keys("REALMA_1", "1234567890123456"));
+        hmacKeys.put("realm-a", keys("REALMA_1", "HMAC_KEY_A"));
+        TenantKeyRegistry registry = new TenantKeyRegistry(sources);
+
+        TenantKeyRegistry.TenantKeys tenant = registry.get("realm-a");
+        assertThat(tenant.hasOwnAesKeys(), is(true));
+        assertThat(tenant.hasOwnHmacKeys(), is(true));
+        assertThat(registry.getAes("realm-a").getCurrentKid(), equalTo("REALMA_1"));
+        assertThat(registry.getHmac("realm-a").getCurrentKid(), equalTo("REALMA_1"));
+        assertThat(registry.get("realm-a"), sameInstance(tenant));
+        assertThat(loads.get(), is(1));
+
+        String value = tenant.getAes().encryptForDatabaseStorage("value");
+        assertThat(registry.getAes("realm-a").decryptFromDatabaseStorageToString(value), equalTo("value"));
+    }
+
+    @Test
+    void testFallbackToGlobalKeys() {
+        Assertions.assertNotNull(CryptoAesGcmUtil.getDefault());
+        TenantKeyRegistry registry = new TenantKeyRegistry(sources);
+        TenantKeyRegistry.TenantKeys tenant = registry.get("realm-b");
+        assertThat(tenant.hasOwnAesKeys(), is(false));
+        assertThat(tenant.getAes(), sameInstance(CryptoAesGcmUtil.getDefault()));
+        assertThat(tenant.hasOwnHmacKeys(), is(false));
+    }
+
+    @Test
+    void testTenantKeysWithoutGlobalKeys() {
+        CryptoAesGcmUtil global = CryptoAesGcmUtil.getDefault();
+        CryptoAesGcmUtil.setDefault(null);
+        try {
+            aesKeys.put("realm-a", keys("REALMA_1", "1234567890123456"));
+            TenantKeyRegistry registry = new TenantKeyRegistry(sources);
+            assertThat(registry.getAes("realm-a").getCurrentKid(), equalTo("REALMA_1"));
+
+            // the keys of a tenant are never used by the tenants without keys
+            Assertions.assertNull(CryptoAesGcmUtil.getDefault());
+            Assertions.assertThrows(IllegalStateException.class, () -> registry.getAes("realm-b"));
+        } finally {
+            CryptoAesGcmUtil.setDefault(global);
+        }
+    }
+
+    @Test
+    void testCustomizer() throws Exception {
+        aesKeys.put("realm-a", keys("REALMA_1", "1234567890123456"));
+        hmacKeys.put("realm-a", keys("REALMA_1", "HMAC_KEY_A"));
+        List<String> customized = new ArrayList<>();
+        TenantKeyRegistry registry = new TenantKeyRegistry(sources, 10, new TenantKeyRegistry.TenantKeysCustomizer() {
+            @Override
+            public void customizeAes(String tenant, CryptoAesGcmUtil aes) {
+                aes.setStorageFormat(StorageFormat.COMPACT);
+                customized.add("aes|" + tenant);
+            }
+
+            @Override
+            public void customizeHmac(String tenant, HmacKeys hmac) {
+                customized.add("hmac|" + tenant);
+            }
+        });
+        CryptoAesGcmUtil aes = registry.getAes("realm-a");
+        assertThat(aes.getStorageFormat(), is(StorageFormat.COMPACT));
+        assertThat(customized, equalTo(List.of("aes|realm-a", "hmac|realm-a")));
+
+        // the AES instance of a loaded tenant is reloaded in place
+        aesKeys.get("realm-a").put("REALMA_2", "ABCDEFGHIJKLMNOP".getBytes(StandardCharsets.UTF_8));
+        registry.reload("realm-a");
+        assertThat(registry.getAes("realm-a"), sameInstance(aes));
+        assertThat(aes.getCurrentKid(), equalTo("REALMA_2"));
+        assertThat(aes.getStorageFormat(), is(StorageFormat.COMPACT));
+        assertThat(customized, equalTo(List.of("aes|realm-a", "hmac|realm-a", "hmac|realm-a")));
+    }
+
+    @Test
+    void testReload() throws Exception {
+        aesKeys.put("realm-a", keys("REALMA_1", "1234567890123456"));
+        TenantKeyRegistry registry = new TenantKeyRegistry(sources);
+        String value = registry.getAes("realm-a").encryptForDatabaseStorage("value");
+
+        aesKeys.get("realm-a").put("REALMA_2", "ABCDEFGHIJKLMNOP".getBytes(StandardCharsets.UTF_8));
+        registry.reload("realm-a");
+        assertThat(registry.getAes("realm-a").getCurrentKid(), equalTo("REALMA_2"));
+        assertThat(registry.getAes("realm-a").decryptFromDatabaseStorageToString(value), equalTo("value"));
+
+        // a failed reload keeps the previous keys
+        aesKeys.put("realm-a", new HashMap<>());
+        Assertions.assertThrows(IllegalStateException.class, () -> registry.reload("realm-a"));
+        assertThat(registry.getAes("realm-a").getCurrentKid(), equalTo("REALMA_2"));
+
+        registry.invalidate("realm-a");
+        Assertions.assertThrows(IllegalStateException.class, () -> registry.get("realm-a"));
+    }
+
+    @Test
+    void testBoundedSize() {
+        TenantKeyRegistry registry = new TenantKeyRegistry(sources, 3);
+        TenantKeyRegistry.TenantKeys first = registry.get("realm-1");
+        for (int i = 2; i <= 10; i++) {
+            registry.get("realm-" + i);
+        }
+        assertThat(registry.size(), is(3));
+        assertThat(registry.get("realm-10"), not(sameInstance(first)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TenantKeyRegistry(sources, 0));
+    }
+}
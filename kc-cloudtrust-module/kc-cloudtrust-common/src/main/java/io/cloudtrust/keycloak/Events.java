@@ -1,9 +1,13 @@
 package io.cloudtrust.keycloak;
 
+import io.cloudtrust.keycloak.authentication.tracing.StepLatencies;
+import io.cloudtrust.keycloak.events.EventDispatcher;
 import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.RequiredActionContext;
 import org.keycloak.events.Details;
 import org.keycloak.events.EventBuilder;
 import org.keycloak.events.EventType;
+import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.UserModel;
 
 public class Events {
@@ -13,6 +17,12 @@ public class Events {
     public static final String CT_EVENT_CREDENTIAL_ID = "credential_id";
     public static final String CT_EVENT_REASON = "reason";
     public static final String CT_EVENT_ERROR = "error";
+    /**
+     * Time elapsed since the start of the traced step which sent the event (see StepLatencies)
+     */
+    public static final String CT_EVENT_ELAPSED_MS = "elapsed_ms";
+
+    private static volatile EventDispatcher dispatcher;
 
     private Events() {
         // Helper does not need to be instantiated
@@ -30,15 +40,43 @@ public class Events {
     }
 
     public static EventBuilder cloneEvent(AuthenticationFlowContext context, String authType, UserModel user, String eventType, String credentialId) {
-        return cloneEvent(context.getEvent(), authType, user, eventType, credentialId);
+        return addElapsedTime(cloneEvent(context.getEvent(), authType, user, eventType, credentialId), context.getSession());
+    }
+
+    public static EventBuilder cloneEvent(RequiredActionContext context, String authType, UserModel user, String eventType, String credentialId) {
+        return addElapsedTime(cloneEvent(context.getEvent(), authType, user, eventType, credentialId), context.getSession());
+    }
+
+    private static EventBuilder addElapsedTime(EventBuilder event, KeycloakSession session) {
+        Long elapsed = StepLatencies.getElapsedMillis(session);
+        return elapsed != null ? event.detail(CT_EVENT_ELAPSED_MS, String.valueOf(elapsed)) : event;
     }
 
     public static void cloneEventSuccess(EventBuilder event, String authType, UserModel user, String eventType, String credentialId) {
         cloneEvent(event, authType, user, eventType, credentialId).success();
     }
 
+    /**
+     * Send a successful event. If a dispatcher has been installed, the event is stored asynchronously.
+     */
     public static void cloneEventSuccess(AuthenticationFlowContext context, String authType, UserModel user, String eventType, String credentialId) {
-        cloneEvent(context.getEvent(), authType, user, eventType, credentialId).success();
+        EventBuilder event = cloneEvent(context, authType, user, eventType, credentialId);
+        EventDispatcher eventDispatcher = dispatcher;
+        if (eventDispatcher == null) {
+            event.success();
+        } else {
+            eventDispatcher.success(context.getSession(), context.getRealm(), event);
+        }
+    }
+
+    /**
+     * Route the events sent by {@link #cloneEventSuccess(AuthenticationFlowContext, String, UserModel, String, String)}
+     * through the given dispatcher
+     *
+     * @param eventDispatcher dispatcher or null to store the events synchronously
+     */
+    public static void setDispatcher(EventDispatcher eventDispatcher) {
+        dispatcher = eventDispatcher;
     }
 
     /**
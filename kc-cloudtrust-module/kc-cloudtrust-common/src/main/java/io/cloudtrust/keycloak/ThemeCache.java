@@ -0,0 +1,104 @@
+package io.cloudtrust.keycloak;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.theme.Theme;
+import org.keycloak.theme.ThemeProvider;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the lookups of {@link ThemeUtils}: themes resolved by name and type, and the theme serving a resource,
+ * misses included.
+ * The cache belongs to the theme provider factories it was filled with: when themes are redeployed, Keycloak replaces
+ * these factories and the cache is discarded. The factories are compared once per Keycloak session, which then keeps
+ * the cache as an attribute. As the theme cache of Keycloak, it is disabled when cacheThemes is set to false in the
+ * theme SPI configuration.
+ */
+final class ThemeCache {
+    static final int MAX_RESOURCE_LOCATIONS = 1000;
+
+    private static final String SESSION_ATTRIBUTE = ThemeCache.class.getName();
+    private static final boolean ENABLED = Config.scope("theme").getBoolean("cacheThemes", true);
+    private static volatile ThemeCache current;
+
+    private final List<?> factories;
+    private final Map<String, Optional<Theme>> themes = new ConcurrentHashMap<>();
+    private final Map<String, Optional<String>> resourceLocations = new ConcurrentHashMap<>();
+
+    private ThemeCache(List<?> factories) {
+        this.factories = factories;
+    }
+
+    /**
+     * @return the cache matching the theme providers currently deployed, or null if themes can't be cached
+     */
+    static ThemeCache get(KeycloakSession session) {
+        if (!ENABLED) {
+            return null;
+        }
+        ThemeCache res = session.getAttribute(SESSION_ATTRIBUTE, ThemeCache.class);
+        if (res != null && res == current) {
+            return res;
+        }
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+        if (sessionFactory == null) {
+            return null;
+        }
+        List<?> deployed = sessionFactory.getProviderFactoriesStream(ThemeProvider.class).toList();
+        res = current;
+        if (res == null || !res.isFilledWith(deployed)) {
+            // entries added by requests still using the previous cache are lost with it
+            res = new ThemeCache(deployed);
+            current = res;
+        }
+        session.setAttribute(SESSION_ATTRIBUTE, res);
+        return res;
+    }
+
+    static void clear() {
+        current = null;
+    }
+
+    private boolean isFilledWith(List<?> deployed) {
+        if (deployed.size() != factories.size()) {
+            return false;
+        }
+        for (int i = 0; i < deployed.size(); i++) {
+            if (deployed.get(i) != factories.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the cached theme (empty if the theme does not exist), or null if the theme was not looked for yet
+     */
+    Optional<Theme> getTheme(String name, Theme.Type type) {
+        return themes.get(type.name() + '|' + name);
+    }
+
+    void putTheme(String name, Theme.Type type, Theme theme) {
+        themes.put(type.name() + '|' + name, Optional.ofNullable(theme));
+    }
+
+    /**
+     * @return the name of the theme serving the resource (empty if no theme of the chain has it), or null if the
+     * resource was not looked for yet
+     */
+    Optional<String> getResourceLocation(String themeName, String path) {
+        return resourceLocations.get(themeName + '|' + path);
+    }
+
+    void putResourceLocation(String themeName, String path, String location) {
+        // paths may come from requests: the number of cached locations is bounded
+        if (resourceLocations.size() < MAX_RESOURCE_LOCATIONS) {
+            resourceLocations.put(themeName + '|' + path, Optional.ofNullable(location));
+        }
+    }
+}
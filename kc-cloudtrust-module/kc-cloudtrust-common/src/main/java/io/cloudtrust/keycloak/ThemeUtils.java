@@ -10,6 +10,7 @@ import org.keycloak.theme.ThemeProvider;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 
@@ -36,7 +37,7 @@ public class ThemeUtils {
     }
 
     /**
-     * Look for a specific theme
+     * Look for a specific theme. Themes found, or not found, are cached until themes are redeployed.
      *
      * @param session The Keycloak session
      * @param type    Theme type
@@ -45,6 +46,22 @@ public class ThemeUtils {
      * @throws IOException
      */
     public static Theme findThemeByName(KeycloakSession session, Theme.Type type, String name) throws IOException {
+        if (name == null) {
+            return null;
+        }
+        ThemeCache cache = ThemeCache.get(session);
+        Optional<Theme> cached = cache != null ? cache.getTheme(name, type) : null;
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        Theme theme = lookupTheme(session, type, name);
+        if (cache != null) {
+            cache.putTheme(name, type, theme);
+        }
+        return theme;
+    }
+
+    private static Theme lookupTheme(KeycloakSession session, Theme.Type type, String name) throws IOException {
         Set<ThemeProvider> providers = session.getAllProviders(ThemeProvider.class);
         // We iterate through all the theme providers
         for (ThemeProvider provider : providers) {
@@ -58,7 +75,8 @@ public class ThemeUtils {
     }
 
     /**
-     * Returns a stream to a resource in this realm's theme
+     * Returns a stream to a resource in this realm's theme. The theme of the chain serving the resource, or the absence
+     * of the resource, is cached until themes are redeployed.
      *
      * @param path The path to the resource
      * @return A stream to a resource
@@ -67,20 +85,50 @@ public class ThemeUtils {
     public static InputStream getStreamToResourceImage(KeycloakSession session, String path) throws IOException {
         // We grab the current theme
         Theme theme = findTheme(session, Theme.Type.LOGIN);
+        if (theme == null) {
+            return null;
+        }
+        ThemeCache cache = ThemeCache.get(session);
+        Optional<String> location = cache != null ? cache.getResourceLocation(theme.getName(), path) : null;
+        if (location != null) {
+            if (location.isEmpty()) {
+                return null;
+            }
+            Theme locationTheme = findThemeByName(session, Theme.Type.LOGIN, location.get());
+            InputStream stream = locationTheme != null ? locationTheme.getResourceAsStream(path) : null;
+            if (stream != null) {
+                return stream;
+            }
+            // the resource moved: look for it again
+        }
+        String themeName = theme.getName();
         while (theme != null) {
             // We try to get a stream to the image...
             InputStream stream = theme.getResourceAsStream(path);
             // If we could, we're done!
             if (stream != null) {
+                if (cache != null) {
+                    cache.putResourceLocation(themeName, path, theme.getName());
+                }
                 return stream;
             } else {
                 // If we couldn't, then we will look in the parent theme instead
                 theme = findThemeByName(session, Theme.Type.LOGIN, theme.getParentName());
             }
         }
+        if (cache != null) {
+            cache.putResourceLocation(themeName, path, null);
+        }
         return null;
     }
 
+    /**
+     * Discard the cached themes and resource locations. They are discarded automatically when themes are redeployed.
+     */
+    public static void clearCache() {
+        ThemeCache.clear();
+    }
+
     /**
      * Load message stored in the theme
      */
@@ -0,0 +1,55 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Keycloak checks some capabilities of the providers with instanceof (CredentialValidator, ConditionalAuthenticator,
+ * CredentialRegistrator...). A wrapper exposing only the provider type would hide them: the wrapper is then exposed
+ * through a proxy which also implements the other interfaces of the wrapped provider and forwards their methods to it.
+ */
+final class ForwardingProxy {
+    private ForwardingProxy() {
+    }
+
+    /**
+     * @param type     provider type implemented by the wrapper
+     * @param wrapper  wrapper of the delegate
+     * @param delegate wrapped provider
+     * @return the wrapper itself if the delegate has no other public interface than the provider type, a proxy otherwise
+     */
+    static <T> T forward(Class<T> type, T wrapper, T delegate) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        interfaces.add(type);
+        for (Class<?> c = delegate.getClass(); c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (Modifier.isPublic(i.getModifiers()) && !i.isAssignableFrom(wrapper.getClass())) {
+                    interfaces.add(i);
+                }
+            }
+        }
+        if (interfaces.size() == 1) {
+            return wrapper;
+        }
+        InvocationHandler handler = (proxy, method, args) -> invoke(proxy, method, args, wrapper, delegate);
+        return type.cast(Proxy.newProxyInstance(delegate.getClass().getClassLoader(), interfaces.toArray(new Class<?>[0]), handler));
+    }
+
+    private static Object invoke(Object proxy, Method method, Object[] args, Object wrapper, Object delegate) throws Throwable {
+        if (method.getName().equals("equals") && method.getParameterCount() == 1 && method.getDeclaringClass() == Object.class) {
+            return proxy == args[0];
+        }
+        // methods of the provider type, and those of Object, are served by the wrapper
+        Object target = method.getDeclaringClass().isInstance(wrapper) ? wrapper : delegate;
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the steps of authentication flows, one timer per provider, execution and phase.
+ * While a step runs, its start time can be kept as session attribute so that events sent by the step carry their
+ * elapsed time (see {@link io.cloudtrust.keycloak.Events#CT_EVENT_ELAPSED_MS}).
+ */
+public class StepLatencies {
+    static final String STEP_TIMER = "cloudtrust.auth.step";
+    public static final String STEP_START_ATTRIBUTE = StepLatencies.class.getName() + ".start";
+
+    private static volatile StepLatencies defaultInstance;
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public StepLatencies() {
+        this(Metrics.globalRegistry);
+    }
+
+    public StepLatencies(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return an instance publishing to the global Micrometer registry
+     */
+    public static StepLatencies getDefault() {
+        StepLatencies res = defaultInstance;
+        if (res == null) {
+            res = new StepLatencies();
+            defaultInstance = res;
+        }
+        return res;
+    }
+
+    /**
+     * Run a step of an authentication flow and record its duration
+     *
+     * @param session         session of the request
+     * @param provider        identifier of the provider running the step
+     * @param execution       identifier of the execution of the flow, or of the required action
+     * @param phase           name of the traced method
+     * @param keepStartTime   true to keep the start time as session attribute while the step runs
+     * @param step            step to run
+     */
+    public void time(KeycloakSession session, String provider, String execution, String phase, boolean keepStartTime, Runnable step) {
+        long start = System.nanoTime();
+        Object previous = null;
+        if (keepStartTime && session != null) {
+            previous = session.getAttribute(STEP_START_ATTRIBUTE);
+            session.setAttribute(STEP_START_ATTRIBUTE, start);
+        }
+        try {
+            step.run();
+        } finally {
+            record(provider, execution, phase, System.nanoTime() - start);
+            if (keepStartTime && session != null) {
+                if (previous != null) {
+                    session.setAttribute(STEP_START_ATTRIBUTE, previous);
+                } else {
+                    session.removeAttribute(STEP_START_ATTRIBUTE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return time elapsed since the start of the step currently traced in the given session, or null
+     */
+    public static Long getElapsedMillis(KeycloakSession session) {
+        Long start = session != null ? session.getAttribute(STEP_START_ATTRIBUTE, Long.class) : null;
+        return start != null ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : null;
+    }
+
+    void record(String provider, String execution, String phase, long durationNanos) {
+        String key = provider + '|' + execution + '|' + phase;
+        timers.computeIfAbsent(key, k -> Timer.builder(STEP_TIMER)
+                        .description("Duration of the steps of authentication flows")
+                        .tag("provider", provider)
+                        .tag("execution", execution)
+                        .tag("phase", phase)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,72 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.RequiredActionFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.List;
+
+/**
+ * Authenticator recording the duration of authenticate and action of the authenticator it wraps
+ */
+public class TracingAuthenticator implements Authenticator {
+    private final Authenticator delegate;
+    private final String providerId;
+    private final StepLatencies latencies;
+    private final boolean addElapsedTime;
+
+    public TracingAuthenticator(Authenticator delegate, String providerId, StepLatencies latencies, boolean addElapsedTime) {
+        this.delegate = delegate;
+        this.providerId = providerId;
+        this.latencies = latencies;
+        this.addElapsedTime = addElapsedTime;
+    }
+
+    @Override
+    public void authenticate(AuthenticationFlowContext context) {
+        trace(context, "authenticate", () -> delegate.authenticate(context));
+    }
+
+    @Override
+    public void action(AuthenticationFlowContext context) {
+        trace(context, "action", () -> delegate.action(context));
+    }
+
+    private void trace(AuthenticationFlowContext context, String phase, Runnable step) {
+        String execution = context.getExecution() != null ? context.getExecution().getId() : providerId;
+        latencies.time(context.getSession(), providerId, execution, phase, addElapsedTime, step);
+    }
+
+    @Override
+    public boolean requiresUser() {
+        return delegate.requiresUser();
+    }
+
+    @Override
+    public boolean configuredFor(KeycloakSession session, RealmModel realm, UserModel user) {
+        return delegate.configuredFor(session, realm, user);
+    }
+
+    @Override
+    public void setRequiredActions(KeycloakSession session, RealmModel realm, UserModel user) {
+        delegate.setRequiredActions(session, realm, user);
+    }
+
+    @Override
+    public List<RequiredActionFactory> getRequiredActions(KeycloakSession session) {
+        return delegate.getRequiredActions(session);
+    }
+
+    @Override
+    public boolean areRequiredActionsEnabled(KeycloakSession session, RealmModel realm) {
+        return delegate.areRequiredActionsEnabled(session, realm);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,144 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.AuthenticatorFactory;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.EnvironmentDependentProviderFactory;
+import org.keycloak.provider.Provider;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authenticator factory decorating another one so that its authenticators are traced (see {@link StepLatencies}).
+ * Traced authenticators also implement the other interfaces of the decorated ones, such as CredentialValidator or
+ * ConditionalAuthenticator, which Keycloak checks with instanceof. The factory itself is registered as a service, so
+ * it can't be a proxy: it implements the interfaces Keycloak checks on factories (EnvironmentDependentProviderFactory,
+ * ServerInfoAwareProviderFactory) and forwards them to the decorated factory when it implements them.
+ * The decorating factory has the identifier of the decorated one: a module registers a subclass of this factory
+ * instead of the decorated factory, for instance:
+ * <pre>
+ * public class TracedPushAuthenticatorFactory extends TracingAuthenticatorFactory {
+ *     public TracedPushAuthenticatorFactory() {
+ *         super(new PushAuthenticatorFactory());
+ *     }
+ * }
+ * </pre>
+ */
+public class TracingAuthenticatorFactory implements AuthenticatorFactory, EnvironmentDependentProviderFactory, ServerInfoAwareProviderFactory {
+    private final AuthenticatorFactory delegate;
+    private final StepLatencies latencies;
+    private final boolean addElapsedTime;
+
+    public TracingAuthenticatorFactory(AuthenticatorFactory delegate) {
+        this(delegate, StepLatencies.getDefault(), false);
+    }
+
+    /**
+     * @param delegate       decorated factory
+     * @param latencies      receiver of the durations
+     * @param addElapsedTime true to add the elapsed time of the step to the events it sends with Events.cloneEvent
+     */
+    public TracingAuthenticatorFactory(AuthenticatorFactory delegate, StepLatencies latencies, boolean addElapsedTime) {
+        this.delegate = delegate;
+        this.latencies = latencies;
+        this.addElapsedTime = addElapsedTime;
+    }
+
+    @Override
+    public Authenticator create(KeycloakSession session) {
+        Authenticator provider = delegate.create(session);
+        return ForwardingProxy.forward(Authenticator.class, new TracingAuthenticator(provider, delegate.getId(), latencies, addElapsedTime), provider);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        delegate.init(config);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        delegate.postInit(factory);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean isSupported(Config.Scope config) {
+        return !(delegate instanceof EnvironmentDependentProviderFactory) || ((EnvironmentDependentProviderFactory) delegate).isSupported(config);
+    }
+
+    @Override
+    public Map<String, String> getOperationalInfo() {
+        return delegate instanceof ServerInfoAwareProviderFactory ? ((ServerInfoAwareProviderFactory) delegate).getOperationalInfo() : null;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int order() {
+        return delegate.order();
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigMetadata() {
+        return delegate.getConfigMetadata();
+    }
+
+    @Override
+    public Set<Class<? extends Provider>> dependsOn() {
+        return delegate.dependsOn();
+    }
+
+    @Override
+    public String getDisplayType() {
+        return delegate.getDisplayType();
+    }
+
+    @Override
+    public String getReferenceCategory() {
+        return delegate.getReferenceCategory();
+    }
+
+    @Override
+    public boolean isConfigurable() {
+        return delegate.isConfigurable();
+    }
+
+    @Override
+    public AuthenticationExecutionModel.Requirement[] getRequirementChoices() {
+        return delegate.getRequirementChoices();
+    }
+
+    @Override
+    public boolean isUserSetupAllowed() {
+        return delegate.isUserSetupAllowed();
+    }
+
+    @Override
+    public String getHelpText() {
+        return delegate.getHelpText();
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        return delegate.getConfigProperties();
+    }
+
+    @Override
+    public <C> C getConfig() {
+        return delegate.getConfig();
+    }
+}
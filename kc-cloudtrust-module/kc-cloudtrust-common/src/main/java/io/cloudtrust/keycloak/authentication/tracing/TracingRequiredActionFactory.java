@@ -0,0 +1,115 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.RequiredActionFactory;
+import org.keycloak.authentication.RequiredActionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RequiredActionConfigModel;
+import org.keycloak.provider.EnvironmentDependentProviderFactory;
+import org.keycloak.provider.Provider;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Required action factory decorating another one so that its required actions are traced (see {@link StepLatencies}).
+ * As {@link TracingAuthenticatorFactory}, it has the identifier of the decorated factory and is registered instead
+ * of it. Traced required actions also implement the other interfaces of the decorated ones and, as the authenticator
+ * factory, this factory forwards the factory interfaces checked by Keycloak.
+ */
+public class TracingRequiredActionFactory implements RequiredActionFactory, EnvironmentDependentProviderFactory, ServerInfoAwareProviderFactory {
+    private final RequiredActionFactory delegate;
+    private final StepLatencies latencies;
+    private final boolean addElapsedTime;
+
+    public TracingRequiredActionFactory(RequiredActionFactory delegate) {
+        this(delegate, StepLatencies.getDefault(), false);
+    }
+
+    /**
+     * @param delegate       decorated factory
+     * @param latencies      receiver of the durations
+     * @param addElapsedTime true to add the elapsed time of the step to the events it sends with Events.cloneEvent
+     */
+    public TracingRequiredActionFactory(RequiredActionFactory delegate, StepLatencies latencies, boolean addElapsedTime) {
+        this.delegate = delegate;
+        this.latencies = latencies;
+        this.addElapsedTime = addElapsedTime;
+    }
+
+    @Override
+    public RequiredActionProvider create(KeycloakSession session) {
+        RequiredActionProvider provider = delegate.create(session);
+        return ForwardingProxy.forward(RequiredActionProvider.class, new TracingRequiredActionProvider(provider, delegate.getId(), latencies, addElapsedTime), provider);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        delegate.init(config);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        delegate.postInit(factory);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean isSupported(Config.Scope config) {
+        return !(delegate instanceof EnvironmentDependentProviderFactory) || ((EnvironmentDependentProviderFactory) delegate).isSupported(config);
+    }
+
+    @Override
+    public Map<String, String> getOperationalInfo() {
+        return delegate instanceof ServerInfoAwareProviderFactory ? ((ServerInfoAwareProviderFactory) delegate).getOperationalInfo() : null;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int order() {
+        return delegate.order();
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigMetadata() {
+        return delegate.getConfigMetadata();
+    }
+
+    @Override
+    public Set<Class<? extends Provider>> dependsOn() {
+        return delegate.dependsOn();
+    }
+
+    @Override
+    public String getDisplayText() {
+        return delegate.getDisplayText();
+    }
+
+    @Override
+    public boolean isOneTimeAction() {
+        return delegate.isOneTimeAction();
+    }
+
+    @Override
+    public boolean isConfigurable() {
+        return delegate.isConfigurable();
+    }
+
+    @Override
+    public void validateConfig(KeycloakSession session, RealmModel realm, RequiredActionConfigModel model) {
+        delegate.validateConfig(session, realm, model);
+    }
+}
@@ -0,0 +1,65 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import org.keycloak.authentication.InitiatedActionSupport;
+import org.keycloak.authentication.RequiredActionContext;
+import org.keycloak.authentication.RequiredActionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Required action recording the duration of requiredActionChallenge and processAction of the required action it wraps.
+ * Other methods, including getMaxAuthAge, are those of the wrapped required action.
+ */
+public class TracingRequiredActionProvider implements RequiredActionProvider {
+    private final RequiredActionProvider delegate;
+    private final String providerId;
+    private final StepLatencies latencies;
+    private final boolean addElapsedTime;
+
+    public TracingRequiredActionProvider(RequiredActionProvider delegate, String providerId, StepLatencies latencies, boolean addElapsedTime) {
+        this.delegate = delegate;
+        this.providerId = providerId;
+        this.latencies = latencies;
+        this.addElapsedTime = addElapsedTime;
+    }
+
+    @Override
+    public void requiredActionChallenge(RequiredActionContext context) {
+        trace(context, "requiredActionChallenge", () -> delegate.requiredActionChallenge(context));
+    }
+
+    @Override
+    public void processAction(RequiredActionContext context) {
+        trace(context, "processAction", () -> delegate.processAction(context));
+    }
+
+    private void trace(RequiredActionContext context, String phase, Runnable step) {
+        String execution = context.getAction() != null ? context.getAction() : providerId;
+        latencies.time(context.getSession(), providerId, execution, phase, addElapsedTime, step);
+    }
+
+    @Override
+    public void evaluateTriggers(RequiredActionContext context) {
+        delegate.evaluateTriggers(context);
+    }
+
+    @Override
+    public InitiatedActionSupport initiatedActionSupport() {
+        return delegate.initiatedActionSupport();
+    }
+
+    @Override
+    public void initiatedActionCanceled(KeycloakSession session, AuthenticationSessionModel authSession) {
+        delegate.initiatedActionCanceled(session, authSession);
+    }
+
+    @Override
+    public int getMaxAuthAge() {
+        return delegate.getMaxAuthAge();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
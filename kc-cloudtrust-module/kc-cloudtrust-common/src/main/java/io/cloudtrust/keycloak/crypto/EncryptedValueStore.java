@@ -0,0 +1,68 @@
+package io.cloudtrust.keycloak.crypto;
+
+import java.util.List;
+
+/**
+ * Storage of encrypted values scanned by the {@link ReEncryptionJob}
+ */
+public interface EncryptedValueStore {
+    /**
+     * Load a page of stored values, ordered by identifier
+     *
+     * @param afterId  identifier of the last value of the previous page, null for the first page
+     * @param pageSize maximum number of values to load
+     * @return the values, or an empty list when the end of the storage has been reached
+     */
+    List<StoredValue> nextPage(String afterId, int pageSize);
+
+    /**
+     * Replace stored values by their re-encrypted version.
+     * A value which has been modified since it was loaded must not be overwritten.
+     *
+     * @param updates values to update
+     * @return the number of updated values
+     */
+    int update(List<ValueUpdate> updates);
+
+    class StoredValue {
+        private final String id;
+        private final String ownerId;
+        private final String value;
+
+        public StoredValue(String id, String ownerId, String value) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.value = value;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getOwnerId() {
+            return ownerId;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    class ValueUpdate {
+        private final StoredValue original;
+        private final String newValue;
+
+        public ValueUpdate(StoredValue original, String newValue) {
+            this.original = original;
+            this.newValue = newValue;
+        }
+
+        public StoredValue getOriginal() {
+            return original;
+        }
+
+        public String getNewValue() {
+            return newValue;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import jakarta.persistence.EntityManager;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Lookup of users by an attribute stored as an HMAC (email, phone number...).
+ * The value is hashed with every active HMAC key and matched with a single IN query, so that users whose attribute
+ * was hashed with a previous key are still found during a key rotation.
+ */
+public class HmacAttributeLookup {
+    private final KeycloakSession session;
+
+    public HmacAttributeLookup(KeycloakSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Find the users of a realm whose attribute is the HMAC of the given value under any of the active keys
+     *
+     * @param realm         realm
+     * @param attributeName name of the attribute holding the HMAC
+     * @param value         clear value
+     * @return the matching users
+     */
+    public Stream<UserModel> findUsers(RealmModel realm, String attributeName, String value) {
+        return findUserIds(realm, attributeName, CryptoUtil.computeHmacsForDatabaseStorage(value)).stream()
+                .map(id -> session.users().getUserById(realm, id))
+                .filter(Objects::nonNull);
+    }
+
+    List<String> findUserIds(RealmModel realm, String attributeName, List<String> hmacs) {
+        EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+        return em.createQuery("select distinct attr.user.id from UserAttributeEntity attr"
+                        + " where attr.user.realmId = :realmId and attr.name = :name and attr.value in :values", String.class)
+                .setParameter("realmId", realm.getId())
+                .setParameter("name", attributeName)
+                .setParameter("values", hmacs)
+                .getResultList();
+    }
+}
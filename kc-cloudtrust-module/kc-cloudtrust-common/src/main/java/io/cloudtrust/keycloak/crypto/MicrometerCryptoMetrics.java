@@ -0,0 +1,119 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.CryptoMetrics;
+import io.cloudtrust.crypto.CryptoUtil;
+import io.cloudtrust.crypto.StoredValueFormat;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the measures of the cryptographic operations to a Micrometer registry, by default the global registry
+ * to which Keycloak adds its own registry when metrics are enabled.
+ * Timers are tagged by kid (and by format for decryptions): their counts give the number of values still read with
+ * old keys or in legacy format. Meters are registered once and kept in local maps to avoid registry lookups on each
+ * operation.
+ */
+public class MicrometerCryptoMetrics implements CryptoMetrics {
+    static final String ENCRYPT_TIMER = "cloudtrust.crypto.encrypt";
+    static final String DECRYPT_TIMER = "cloudtrust.crypto.decrypt";
+    static final String DECRYPT_FAILURES = "cloudtrust.crypto.decrypt.failures";
+    static final String HMAC_TIMER = "cloudtrust.crypto.hmac";
+    static final String PAYLOAD_SIZE = "cloudtrust.crypto.payload.size";
+
+    private static final String NO_KID = "none";
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> encryptTimers = new ConcurrentHashMap<>();
+    private final Map<StoredValueFormat, Map<String, Timer>> decryptTimers = new EnumMap<>(StoredValueFormat.class);
+    private final Map<StoredValueFormat, Counter> failures = new EnumMap<>(StoredValueFormat.class);
+    private final Map<String, Timer> hmacTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary encryptSizes;
+    private final DistributionSummary decryptSizes;
+    private final DistributionSummary hmacSizes;
+
+    public MicrometerCryptoMetrics() {
+        this(Metrics.globalRegistry);
+    }
+
+    public MicrometerCryptoMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (StoredValueFormat format : StoredValueFormat.values()) {
+            decryptTimers.put(format, new ConcurrentHashMap<>());
+            failures.put(format, Counter.builder(DECRYPT_FAILURES)
+                    .description("Stored values which could not be decrypted")
+                    .tag("format", format.name())
+                    .register(registry));
+        }
+        this.encryptSizes = payloadSize("encrypt");
+        this.decryptSizes = payloadSize("decrypt");
+        this.hmacSizes = payloadSize("hmac");
+    }
+
+    /**
+     * Publish the measures of the default CryptoAesGcmUtil instance and of CryptoUtil to the given registry
+     *
+     * @param registry meter registry
+     * @return the installed metrics
+     */
+    public static MicrometerCryptoMetrics install(MeterRegistry registry) {
+        MicrometerCryptoMetrics res = new MicrometerCryptoMetrics(registry);
+        CryptoAesGcmUtil crypto = CryptoAesGcmUtil.getDefault();
+        if (crypto != null) {
+            crypto.setMetrics(res);
+        }
+        CryptoUtil.setMetrics(res);
+        return res;
+    }
+
+    private DistributionSummary payloadSize(String operation) {
+        return DistributionSummary.builder(PAYLOAD_SIZE)
+                .description("Size of the clear values")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String kid, String format) {
+        Timer.Builder builder = Timer.builder(name)
+                .tag("kid", kid)
+                .publishPercentileHistogram();
+        if (format != null) {
+            builder.tag("format", format);
+        }
+        return builder.register(registry);
+    }
+
+    @Override
+    public void encrypted(String kid, int payloadSize, long durationNanos) {
+        encryptTimers.computeIfAbsent(kid, k -> timer(ENCRYPT_TIMER, k, null)).record(durationNanos, TimeUnit.NANOSECONDS);
+        encryptSizes.record(payloadSize);
+    }
+
+    @Override
+    public void decrypted(String kid, StoredValueFormat format, int payloadSize, long durationNanos) {
+        String tag = kid == null ? NO_KID : kid;
+        decryptTimers.get(format).computeIfAbsent(tag, k -> timer(DECRYPT_TIMER, k, format.name()))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        decryptSizes.record(payloadSize);
+    }
+
+    @Override
+    public void decryptionFailed(StoredValueFormat format) {
+        failures.get(format).increment();
+    }
+
+    @Override
+    public void hmacComputed(String kid, int inputSize, long durationNanos) {
+        hmacTimers.computeIfAbsent(kid, k -> timer(HMAC_TIMER, k, null)).record(durationNanos, TimeUnit.NANOSECONDS);
+        hmacSizes.record(inputSize);
+    }
+}
@@ -0,0 +1,28 @@
+package io.cloudtrust.keycloak.crypto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple rate limiter used by a single thread: acquiring permits waits until the configured rate allows it
+ */
+class RateLimiter {
+    private final double permitsPerSecond;
+    private long nextFreeNanos;
+
+    RateLimiter(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    void acquire(int permits) throws InterruptedException {
+        if (permitsPerSecond <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (nextFreeNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextFreeNanos - now);
+            now = nextFreeNanos;
+        }
+        nextFreeNanos = now + (long) (permits * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+}
@@ -0,0 +1,42 @@
+package io.cloudtrust.keycloak.crypto;
+
+/**
+ * Persists the progress of a {@link ReEncryptionJob} so that it can be resumed after a stop or a restart
+ */
+public interface ReEncryptionCheckpoint {
+    /**
+     * @return identifier of the last processed value, or null if the job never ran
+     */
+    String load();
+
+    /**
+     * @param lastId identifier of the last processed value
+     */
+    void save(String lastId);
+
+    /**
+     * Forget the progress of the job, once the whole storage has been processed
+     */
+    void clear();
+
+    static ReEncryptionCheckpoint inMemory() {
+        return new ReEncryptionCheckpoint() {
+            private volatile String lastId;
+
+            @Override
+            public String load() {
+                return lastId;
+            }
+
+            @Override
+            public void save(String lastId) {
+                this.lastId = lastId;
+            }
+
+            @Override
+            public void clear() {
+                this.lastId = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.keycloak.crypto.EncryptedValueStore.StoredValue;
+import io.cloudtrust.keycloak.crypto.EncryptedValueStore.ValueUpdate;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Re-encrypts with the current key the values encrypted with older keys, so that old keys can be retired.
+ * Values are scanned page by page. Each page is split between parallel workers. The identifier of the last processed
+ * value is saved as checkpoint at most once per checkpoint interval, and when the job stops: a stopped job resumes
+ * from the last processed page, a job killed with its node processes again the pages of at most one interval, whose
+ * values are then already up to date.
+ * The number of values processed per second can be limited to keep the database load acceptable.
+ */
+public class ReEncryptionJob implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ReEncryptionJob.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final Duration DEFAULT_CHECKPOINT_INTERVAL = Duration.ofMinutes(1);
+
+    private final CryptoAesGcmUtil crypto;
+    private final EncryptedValueStore store;
+    private final ReEncryptionCheckpoint checkpoint;
+    private final ReEncryptionProgress progress = new ReEncryptionProgress();
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int workers = 1;
+    private double maxRowsPerSecond;
+    private long checkpointIntervalNanos = DEFAULT_CHECKPOINT_INTERVAL.toNanos();
+    private volatile boolean stopRequested;
+
+    public ReEncryptionJob(CryptoAesGcmUtil crypto, EncryptedValueStore store, ReEncryptionCheckpoint checkpoint) {
+        this.crypto = crypto;
+        this.store = store;
+        this.checkpoint = checkpoint;
+    }
+
+    public ReEncryptionJob pageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public ReEncryptionJob workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * @param maxRowsPerSecond maximum number of values scanned per second, 0 for no limit
+     */
+    public ReEncryptionJob maxRowsPerSecond(double maxRowsPerSecond) {
+        this.maxRowsPerSecond = maxRowsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param checkpointInterval minimum time between two saves of the checkpoint while the job runs, zero to save it
+     *                           after each page
+     */
+    public ReEncryptionJob checkpointInterval(Duration checkpointInterval) {
+        if (checkpointInterval == null || checkpointInterval.isNegative()) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative");
+        }
+        this.checkpointIntervalNanos = checkpointInterval.toNanos();
+        return this;
+    }
+
+    public ReEncryptionProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Ask the job to stop once the current page is processed
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    @Override
+    public void run() {
+        RateLimiter rateLimiter = new RateLimiter(maxRowsPerSecond);
+        ExecutorService executor = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+        String lastId = checkpoint.load();
+        String savedId = lastId;
+        long lastSave = System.nanoTime();
+        LOG.infof("Starting re-encryption with key %s from %s", crypto.getCurrentKid(), lastId == null ? "the beginning" : lastId);
+        try {
+            while (!stopRequested) {
+                List<StoredValue> page = store.nextPage(lastId, pageSize);
+                if (page.isEmpty()) {
+                    checkpoint.clear();
+                    savedId = lastId;
+                    progress.completed();
+                    LOG.infof("Re-encryption completed: %d values scanned, %d re-encrypted", progress.getScanned(), progress.getReEncrypted());
+                    return;
+                }
+                rateLimiter.acquire(page.size());
+                processPage(page, executor);
+                lastId = page.get(page.size() - 1).getId();
+                progress.pageProcessed(lastId);
+                long now = System.nanoTime();
+                if (now - lastSave >= checkpointIntervalNanos) {
+                    checkpoint.save(lastId);
+                    savedId = lastId;
+                    lastSave = now;
+                }
+            }
+            LOG.infof("Re-encryption stopped after %s", lastId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warnf("Re-encryption interrupted after %s", lastId);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            // the job stops, interrupted or failing: keep the pages processed since the last save
+            if (lastId != null && !lastId.equals(savedId)) {
+                checkpoint.save(lastId);
+            }
+        }
+    }
+
+    private void processPage(List<StoredValue> page, ExecutorService executor) throws InterruptedException {
+        progress.scanned(page.size());
+        if (executor == null) {
+            processSlice(page);
+            return;
+        }
+        int sliceSize = (page.size() + workers - 1) / workers;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < page.size(); i += sliceSize) {
+            List<StoredValue> slice = page.subList(i, Math.min(page.size(), i + sliceSize));
+            futures.add(executor.submit(() -> processSlice(slice)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Re-encryption failed", e.getCause());
+        }
+    }
+
+    private void processSlice(List<StoredValue> values) {
+        List<ValueUpdate> updates = new ArrayList<>();
+        for (StoredValue value : values) {
+            if (crypto.needsReEncryption(value.getValue())) {
+                try {
+                    updates.add(new ValueUpdate(value, crypto.reEncrypt(value.getValue())));
+                } catch (RuntimeException e) {
+                    LOG.warnf("Can't re-encrypt value %s: %s", value.getId(), e.getMessage());
+                    progress.failed();
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            int updated = store.update(updates);
+            progress.reEncrypted(updated);
+            progress.conflicts(updates.size() - updated);
+        }
+    }
+}
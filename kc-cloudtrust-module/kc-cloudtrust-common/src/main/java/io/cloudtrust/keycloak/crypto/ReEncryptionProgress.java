@@ -0,0 +1,88 @@
+package io.cloudtrust.keycloak.crypto;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress metrics of a {@link ReEncryptionJob}
+ */
+public class ReEncryptionProgress {
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder reEncrypted = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder pages = new LongAdder();
+    private volatile String lastId;
+    private volatile boolean completed;
+
+    void scanned(int count) {
+        scanned.add(count);
+    }
+
+    void reEncrypted(int count) {
+        reEncrypted.add(count);
+    }
+
+    void conflicts(int count) {
+        conflicts.add(count);
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void pageProcessed(String lastId) {
+        pages.increment();
+        this.lastId = lastId;
+    }
+
+    void completed() {
+        this.completed = true;
+    }
+
+    /**
+     * @return number of values read from the storage
+     */
+    public long getScanned() {
+        return scanned.sum();
+    }
+
+    /**
+     * @return number of values encrypted again with the current key
+     */
+    public long getReEncrypted() {
+        return reEncrypted.sum();
+    }
+
+    /**
+     * @return number of values already encrypted with the current key
+     */
+    public long getUpToDate() {
+        return getScanned() - getReEncrypted() - getConflicts() - getFailed();
+    }
+
+    /**
+     * @return number of values which have been modified by someone else while being re-encrypted
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * @return number of values which could not be decrypted
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getPages() {
+        return pages.sum();
+    }
+
+    public String getLastId() {
+        return lastId;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+}
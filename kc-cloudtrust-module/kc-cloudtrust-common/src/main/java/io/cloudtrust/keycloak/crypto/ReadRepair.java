@@ -0,0 +1,89 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.DecryptionResult;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lazy migration of encrypted user attributes: a value read with an old key, or stored in a legacy or clear format,
+ * is encrypted again with the current key and written back within the transaction of the request.
+ * The number of values written back per request is limited so that a request never pays for a whole migration.
+ */
+public class ReadRepair {
+    public static final int DEFAULT_MAX_REPAIRS_PER_REQUEST = 10;
+
+    private static final String REPAIR_COUNT_ATTRIBUTE = ReadRepair.class.getName() + ".count";
+    private static final LongAdder REPAIRED = new LongAdder();
+    private static final LongAdder DEFERRED = new LongAdder();
+
+    private final KeycloakSession session;
+    private final CryptoAesGcmUtil crypto;
+    private final int maxRepairsPerRequest;
+
+    public ReadRepair(KeycloakSession session, CryptoAesGcmUtil crypto) {
+        this(session, crypto, DEFAULT_MAX_REPAIRS_PER_REQUEST);
+    }
+
+    public ReadRepair(KeycloakSession session, CryptoAesGcmUtil crypto, int maxRepairsPerRequest) {
+        if (maxRepairsPerRequest < 0) {
+            throw new IllegalArgumentException("Maximum number of repairs can't be negative");
+        }
+        this.session = session;
+        this.crypto = crypto;
+        this.maxRepairsPerRequest = maxRepairsPerRequest;
+    }
+
+    /**
+     * Decrypt a user attribute and write it back encrypted with the current key if needed
+     *
+     * @param user          user
+     * @param attributeName name of the encrypted attribute
+     * @return the decrypted value or null if the attribute is not set
+     */
+    public String decryptAttribute(UserModel user, String attributeName) {
+        String stored = user.getFirstAttribute(attributeName);
+        if (stored == null) {
+            return null;
+        }
+        DecryptionResult result = crypto.decryptFromDatabaseStorageWithStatus(stored);
+        String value = new String(result.getValue(), StandardCharsets.UTF_8);
+        if (result.isStale()) {
+            if (acquireRepair()) {
+                // the decrypted bytes are written back as is: they may not be valid UTF-8
+                user.setSingleAttribute(attributeName, crypto.encryptForDatabaseStorage(result.getValue()));
+                REPAIRED.increment();
+            } else {
+                DEFERRED.increment();
+            }
+        }
+        return value;
+    }
+
+    private boolean acquireRepair() {
+        AtomicInteger count = session.getAttribute(REPAIR_COUNT_ATTRIBUTE, AtomicInteger.class);
+        if (count == null) {
+            count = new AtomicInteger();
+            session.setAttribute(REPAIR_COUNT_ATTRIBUTE, count);
+        }
+        return count.incrementAndGet() <= maxRepairsPerRequest;
+    }
+
+    /**
+     * @return number of values written back with the current key since startup
+     */
+    public static long getRepairedCount() {
+        return REPAIRED.sum();
+    }
+
+    /**
+     * @return number of stale values left unchanged because the limit of their request was reached
+     */
+    public static long getDeferredCount() {
+        return DEFERRED.sum();
+    }
+}
@@ -0,0 +1,43 @@
+package io.cloudtrust.keycloak.crypto;
+
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Stores the re-encryption checkpoint as a realm attribute, so that it survives a restart of Keycloak.
+ * Each save updates the realm, which evicts it from the realm cache of every node of the cluster: the checkpoint
+ * interval of the job ({@link ReEncryptionJob#checkpointInterval}) must stay long enough for the realm to remain cached
+ * between two saves.
+ */
+public class RealmAttributeCheckpoint implements ReEncryptionCheckpoint {
+    public static final String CHECKPOINT_ATTRIBUTE = "ct.reencryption.checkpoint";
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+
+    public RealmAttributeCheckpoint(KeycloakSessionFactory sessionFactory, String realmId) {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+    }
+
+    @Override
+    public String load() {
+        return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory,
+                session -> session.realms().getRealm(realmId).getAttribute(CHECKPOINT_ATTRIBUTE));
+    }
+
+    @Override
+    public void save(String lastId) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory,
+                session -> session.realms().getRealm(realmId).setAttribute(CHECKPOINT_ATTRIBUTE, lastId));
+    }
+
+    @Override
+    public void clear() {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            realm.removeAttribute(CHECKPOINT_ATTRIBUTE);
+        });
+    }
+}
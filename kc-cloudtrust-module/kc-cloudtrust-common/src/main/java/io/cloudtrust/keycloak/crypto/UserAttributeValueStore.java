@@ -0,0 +1,123 @@
+package io.cloudtrust.keycloak.crypto;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.UserCache;
+import org.keycloak.models.jpa.entities.UserAttributeEntity;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.jpa.JpaHashUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Encrypted user attributes of a realm, read and updated through JPA.
+ * Each page is read and each update is written in its own transaction. Values are updated with conditional bulk
+ * updates so that a value modified by Keycloak since it was read is neither overwritten nor a cause of failure.
+ */
+public class UserAttributeValueStore implements EncryptedValueStore {
+    private static final int MAX_SHORT_VALUE_LENGTH = 255;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final Set<String> attributeNames;
+
+    public UserAttributeValueStore(KeycloakSessionFactory sessionFactory, String realmId, Set<String> attributeNames) {
+        if (attributeNames == null || attributeNames.isEmpty()) {
+            throw new IllegalArgumentException("At least one attribute name is required");
+        }
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.attributeNames = Set.copyOf(attributeNames);
+    }
+
+    private static EntityManager getEntityManager(KeycloakSession session) {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+
+    @Override
+    public List<StoredValue> nextPage(String afterId, int pageSize) {
+        return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> getEntityManager(session)
+                .createQuery("select attr from UserAttributeEntity attr where attr.user.realmId = :realmId and attr.name in :names"
+                        + " and attr.id > :afterId order by attr.id", UserAttributeEntity.class)
+                .setParameter("realmId", realmId)
+                .setParameter("names", attributeNames)
+                .setParameter("afterId", afterId == null ? "" : afterId)
+                .setMaxResults(pageSize)
+                .getResultStream()
+                .map(attr -> new StoredValue(attr.getId(), attr.getUser().getId(), attr.getValue()))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public int update(List<ValueUpdate> updates) {
+        return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            EntityManager em = getEntityManager(session);
+            Set<String> updatedUsers = new HashSet<>();
+            int updated = 0;
+            for (ValueUpdate update : updates) {
+                // the row is only updated if it still holds the value which was read: a value modified or a row
+                // re-created by Keycloak since then is skipped
+                if (createUpdateQuery(em, update).executeUpdate() > 0) {
+                    updatedUsers.add(update.getOriginal().getOwnerId());
+                    updated++;
+                }
+            }
+            evictUsers(session, updatedUsers);
+            return updated;
+        });
+    }
+
+    /**
+     * Values longer than 255 characters are stored by Keycloak in the long value column, along with their hashes
+     * (see UserAttributeEntity.setValue): the update query writes the same columns
+     */
+    private static Query createUpdateQuery(EntityManager em, ValueUpdate update) {
+        String original = update.getOriginal().getValue();
+        String newValue = update.getNewValue();
+        boolean longValue = newValue != null && newValue.length() > MAX_SHORT_VALUE_LENGTH;
+        String condition;
+        if (original == null) {
+            condition = "attr.value is null and attr.longValue is null";
+        } else if (original.length() > MAX_SHORT_VALUE_LENGTH) {
+            condition = "attr.longValueHash = :originalHash";
+        } else {
+            condition = "attr.value = :original";
+        }
+        Query query = em.createQuery("update UserAttributeEntity attr set attr.value = :value, attr.longValue = :longValue,"
+                        + " attr.longValueHash = :longValueHash, attr.longValueHashLowerCase = :longValueHashLowerCase"
+                        + " where attr.id = :id and " + condition)
+                .setParameter("id", update.getOriginal().getId())
+                .setParameter("value", longValue ? null : newValue)
+                .setParameter("longValue", longValue ? newValue : null)
+                .setParameter("longValueHash", longValue ? JpaHashUtils.hashForAttributeValue(newValue) : null)
+                .setParameter("longValueHashLowerCase", longValue ? JpaHashUtils.hashForAttributeValueLowerCase(newValue) : null);
+        if (original != null && original.length() > MAX_SHORT_VALUE_LENGTH) {
+            query.setParameter("originalHash", JpaHashUtils.hashForAttributeValue(original));
+        } else if (original != null) {
+            query.setParameter("original", original);
+        }
+        return query;
+    }
+
+    private void evictUsers(KeycloakSession session, Set<String> userIds) {
+        UserCache userCache = session.getProvider(UserCache.class);
+        if (userCache == null || userIds.isEmpty()) {
+            return;
+        }
+        RealmModel realm = session.realms().getRealm(realmId);
+        for (String userId : userIds) {
+            UserModel user = session.users().getUserById(realm, userId);
+            if (user != null) {
+                userCache.evict(realm, user);
+            }
+        }
+    }
+}
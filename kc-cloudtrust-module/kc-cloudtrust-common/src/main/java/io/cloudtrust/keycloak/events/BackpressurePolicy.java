@@ -0,0 +1,19 @@
+package io.cloudtrust.keycloak.events;
+
+/**
+ * Behavior of {@link EventDispatcher} when its queue is full
+ */
+public enum BackpressurePolicy {
+    /**
+     * The caller waits until the flusher makes room in the queue
+     */
+    BLOCK,
+    /**
+     * The oldest queued event is dropped to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * The event is written by the caller in its own transaction, as if there were no queue
+     */
+    SYNCHRONOUS
+}
@@ -0,0 +1,27 @@
+package io.cloudtrust.keycloak.events;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.List;
+
+/**
+ * Persists a batch of events
+ */
+@FunctionalInterface
+public interface EventBatchWriter {
+    void write(List<Event> events);
+
+    /**
+     * @param sessionFactory Keycloak session factory
+     * @return a writer storing each batch in the event store of Keycloak, within a single transaction
+     */
+    static EventBatchWriter eventStore(KeycloakSessionFactory sessionFactory) {
+        return events -> KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            EventStoreProvider store = session.getProvider(EventStoreProvider.class);
+            events.forEach(store::onEvent);
+        });
+    }
+}
@@ -0,0 +1,285 @@
+package io.cloudtrust.keycloak.events;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventBuilder;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.EventType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous persistence of events: events are put in a bounded queue and a background thread writes them by
+ * batches, each batch in a single transaction, so that the request which raised an event does not wait for its
+ * insertion. A batch is written when it reaches the flush size or when the flush interval has elapsed since its first
+ * event. When the queue is full, the {@link BackpressurePolicy} decides whether the caller waits, the oldest event is
+ * dropped or the event is written synchronously.
+ * Event listeners are still notified synchronously: only the event store is bypassed.
+ */
+public class EventDispatcher implements Closeable {
+    private static final Logger LOG = Logger.getLogger(EventDispatcher.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_FLUSH_SIZE = 100;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(500);
+
+    static final String QUEUE_DEPTH = "cloudtrust.events.queue.depth";
+    static final String WRITTEN = "cloudtrust.events.written";
+    static final String DROPPED = "cloudtrust.events.dropped";
+    static final String FAILED = "cloudtrust.events.failed";
+    static final String SYNCHRONOUS = "cloudtrust.events.synchronous";
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final EventBatchWriter writer;
+    private final BlockingQueue<Event> queue;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final long pollNanos;
+    private final BackpressurePolicy policy;
+    private final Thread flusher;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder synchronous = new LongAdder();
+    private volatile boolean closed;
+
+    public EventDispatcher(EventBatchWriter writer) {
+        this(writer, DEFAULT_QUEUE_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL, BackpressurePolicy.SYNCHRONOUS);
+    }
+
+    public EventDispatcher(EventBatchWriter writer, int queueCapacity, int flushSize, Duration flushInterval, BackpressurePolicy policy) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        if (flushSize < 1) {
+            throw new IllegalArgumentException("Flush size must be positive");
+        }
+        if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Backpressure policy can't be null");
+        }
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        // the flusher does not wait longer than this so that it notices when the dispatcher is closed
+        this.pollNanos = Math.min(flushIntervalNanos, MAX_POLL_NANOS);
+        this.policy = policy;
+        this.flusher = new Thread(this::flushLoop, "cloudtrust-event-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Send a successful event as {@link EventBuilder#success()} does, except that the event is queued for storage
+     * instead of being stored within the request
+     *
+     * @param session Keycloak session of the request
+     * @param realm   realm of the event
+     * @param builder event to send
+     */
+    public void success(KeycloakSession session, RealmModel realm, EventBuilder builder) {
+        Event event = builder.getEvent();
+        event.setTime(Time.currentTimeMillis());
+        event.setId(UUID.randomUUID().toString());
+        if (realm.isEventsEnabled() && isStored(realm, event.getType())) {
+            dispatch(event.clone());
+        }
+        notifyListeners(session, realm, event);
+    }
+
+    private static boolean isStored(RealmModel realm, EventType type) {
+        Set<String> enabledTypes = realm.getEnabledEventTypesStream().collect(Collectors.toSet());
+        return enabledTypes.isEmpty() ? type.isSaveByDefault() : enabledTypes.contains(type.name());
+    }
+
+    private static void notifyListeners(KeycloakSession session, RealmModel realm, Event event) {
+        // same listeners as the ones of EventBuilder: the ones of the realm and the global ones
+        Set<String> realmListeners = realm.getEventsListenersStream().collect(Collectors.toCollection(HashSet::new));
+        List<EventListenerProvider> listeners = session.getKeycloakSessionFactory().getProviderFactoriesStream(EventListenerProvider.class)
+                .filter(f -> realmListeners.contains(f.getId()) || ((EventListenerProviderFactory) f).isGlobal())
+                .map(f -> session.getProvider(EventListenerProvider.class, f.getId()))
+                .collect(Collectors.toList());
+        for (EventListenerProvider listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                LOG.errorf(e, "Failed to send event to %s", listener);
+            }
+        }
+    }
+
+    /**
+     * Queue an event for storage
+     *
+     * @param event event to store
+     */
+    public void dispatch(Event event) {
+        if (closed) {
+            writeSynchronously(event);
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    writeSynchronously(event);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                break;
+            default:
+                if (!queue.offer(event)) {
+                    writeSynchronously(event);
+                }
+                break;
+        }
+    }
+
+    private void writeSynchronously(Event event) {
+        synchronous.increment();
+        write(Collections.singletonList(event));
+    }
+
+    private void flushLoop() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Event first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    List<Event> batch = new ArrayList<>(flushSize);
+                    batch.add(first);
+                    fill(batch, System.nanoTime() + flushIntervalNanos);
+                    write(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fill(List<Event> batch, long deadline) throws InterruptedException {
+        while (batch.size() < flushSize && !closed) {
+            queue.drainTo(batch, flushSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= flushSize || remaining <= 0) {
+                return;
+            }
+            Event next = queue.poll(Math.min(remaining, pollNanos), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    private void write(List<Event> batch) {
+        try {
+            writer.write(batch);
+            written.add(batch.size());
+        } catch (RuntimeException e) {
+            failed.add(batch.size());
+            LOG.warnf(e, "Failed to store %d events", batch.size());
+        }
+    }
+
+    /**
+     * Stop the flusher once the queued events are written. Events dispatched afterwards are written synchronously.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // events queued while the flusher was stopping
+        List<Event> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            write(remaining);
+        }
+    }
+
+    /**
+     * Publish the queue depth and the event counters to a Micrometer registry
+     *
+     * @param registry meter registry
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(QUEUE_DEPTH, queue, BlockingQueue::size)
+                .description("Events waiting to be stored")
+                .register(registry);
+        counter(registry, WRITTEN, written, "Events stored");
+        counter(registry, DROPPED, dropped, "Events dropped because the queue was full");
+        counter(registry, FAILED, failed, "Events which could not be stored");
+        counter(registry, SYNCHRONOUS, synchronous, "Events stored by the caller because the queue was full");
+    }
+
+    private static void counter(MeterRegistry registry, String name, LongAdder value, String description) {
+        FunctionCounter.builder(name, value, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * @return number of events waiting to be stored
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of events lost because their batch could not be stored
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return number of events written by the caller because the queue was full or the dispatcher closed
+     */
+    public long getSynchronousCount() {
+        return synchronous.sum();
+    }
+}
@@ -0,0 +1,181 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import org.keycloak.events.Event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only journal of events written to memory-mapped segment files.
+ * An event is appended by copying its record to the mapped segment: the operating system writes the pages to the
+ * file, so that appending costs no system call. A new segment is started when the current one is full or older than
+ * the maximum segment age. Segments are named after a sequence number so that their names sort in write order;
+ * a journal opened on an existing directory starts a new segment after the last one.
+ * The records of a journal can be read with {@link EventJournalReader}.
+ */
+public class EventJournal implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final Duration DEFAULT_MAX_SEGMENT_AGE = Duration.ofHours(1);
+
+    static final String SEGMENT_PREFIX = "journal-";
+
+    private final Path directory;
+    private final JournalEncoding encoding;
+    private final long segmentSize;
+    private final long maxSegmentAgeMillis;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private long nextSequence;
+    private Segment current;
+    private boolean closed;
+
+    public EventJournal(Path directory, JournalEncoding encoding) throws IOException {
+        this(directory, encoding, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENT_AGE);
+    }
+
+    public EventJournal(Path directory, JournalEncoding encoding, long segmentSize, Duration maxSegmentAge) throws IOException {
+        this(directory, encoding, segmentSize, maxSegmentAge, System::currentTimeMillis);
+    }
+
+    EventJournal(Path directory, JournalEncoding encoding, long segmentSize, Duration maxSegmentAge, LongSupplier clock) throws IOException {
+        if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + Integer.MAX_VALUE);
+        }
+        if (maxSegmentAge == null || maxSegmentAge.isNegative() || maxSegmentAge.isZero()) {
+            throw new IllegalArgumentException("Maximum segment age must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.encoding = encoding;
+        this.segmentSize = segmentSize;
+        this.maxSegmentAgeMillis = maxSegmentAge.toMillis();
+        this.clock = clock;
+        List<Path> segments = EventJournalReader.listSegments(directory);
+        this.nextSequence = segments.isEmpty() ? 0 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.indexOf('.')));
+    }
+
+    /**
+     * Append an event to the journal
+     *
+     * @param event event to append
+     * @throws UncheckedIOException if a new segment can't be created
+     */
+    public void append(Event event) {
+        byte[] record = encoding.encode(event);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            long now = clock.getAsLong();
+            if (current == null || current.buffer.remaining() < record.length || now - current.createdAt >= maxSegmentAgeMillis) {
+                rotate(record.length, now);
+            }
+            // the first byte of the record is written last so that a reader never sees the start of an incomplete record
+            MappedByteBuffer buffer = current.buffer;
+            int position = buffer.position();
+            buffer.put(position + 1, record, 1, record.length - 1);
+            buffer.put(position, record[0]);
+            buffer.position(position + record.length);
+            appended.increment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rotate(int minSize, long now) throws IOException {
+        if (current != null) {
+            current.close();
+            rotations.increment();
+        }
+        String name = String.format("%s%020d.%s", SEGMENT_PREFIX, nextSequence++, encoding.getExtension());
+        current = new Segment(directory.resolve(name), Math.max(segmentSize, minSize), now);
+    }
+
+    /**
+     * Force the records appended to the current segment to be written to the storage device
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (current != null) {
+                current.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of events appended by this instance
+     */
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+
+    /**
+     * @return number of segments closed by this instance because they were full or too old
+     */
+    public long getRotationCount() {
+        return rotations.sum();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Segment {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final long createdAt;
+
+        Segment(Path path, long size, long createdAt) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.createdAt = createdAt;
+        }
+
+        void close() throws IOException {
+            try {
+                buffer.force();
+                // remove the unused end of the segment
+                channel.truncate(buffer.position());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
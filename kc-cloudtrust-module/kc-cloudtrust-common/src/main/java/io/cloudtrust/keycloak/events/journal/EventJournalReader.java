@@ -0,0 +1,88 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import org.keycloak.events.Event;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replays the events of an {@link EventJournal}, segment after segment in write order.
+ * The segment being written can be read as well: reading stops at its last complete record.
+ */
+public class EventJournalReader {
+    private final Path directory;
+
+    public EventJournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the segments of the journal, in write order
+     */
+    public List<Path> getSegments() throws IOException {
+        return listSegments(directory);
+    }
+
+    static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> encodingOf(f) != null)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static JournalEncoding encodingOf(Path segment) {
+        String name = segment.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (!name.startsWith(EventJournal.SEGMENT_PREFIX) || dot < 0) {
+            return null;
+        }
+        return JournalEncoding.fromExtension(name.substring(dot + 1));
+    }
+
+    /**
+     * Replay all the events of the journal
+     *
+     * @param consumer receiver of the events
+     * @return number of replayed events
+     */
+    public long replay(Consumer<Event> consumer) throws IOException {
+        return replay(0, consumer);
+    }
+
+    /**
+     * Replay the events of the journal which occurred at or after the given time
+     *
+     * @param sinceMillis time of the first event to replay, in milliseconds since the epoch
+     * @param consumer    receiver of the events
+     * @return number of replayed events
+     */
+    public long replay(long sinceMillis, Consumer<Event> consumer) throws IOException {
+        long count = 0;
+        for (Path segment : getSegments()) {
+            JournalEncoding encoding = encodingOf(segment);
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                Event event;
+                while ((event = encoding.decode(buffer)) != null) {
+                    if (event.getTime() >= sinceMillis) {
+                        consumer.accept(event);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
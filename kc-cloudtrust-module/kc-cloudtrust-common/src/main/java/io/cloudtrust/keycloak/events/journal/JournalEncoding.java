@@ -0,0 +1,197 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodings of the records of an {@link EventJournal}. The first byte of a record is never zero: the unused end of a
+ * segment is filled with zeros, which marks the end of its records.
+ */
+public enum JournalEncoding {
+    /**
+     * One JSON object per line
+     */
+    NDJSON("ndjson") {
+        @Override
+        byte[] encode(Event event) {
+            try {
+                byte[] json = MAPPER.writeValueAsBytes(event);
+                byte[] res = new byte[json.length + 1];
+                System.arraycopy(json, 0, res, 0, json.length);
+                res[json.length] = '\n';
+                return res;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot serialize event", e);
+            }
+        }
+
+        @Override
+        Event decode(ByteBuffer buffer) {
+            int start = buffer.position();
+            if (!buffer.hasRemaining() || buffer.get(start) == 0) {
+                return null;
+            }
+            int end = start;
+            while (end < buffer.limit() && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end == buffer.limit()) {
+                // incomplete record
+                return null;
+            }
+            byte[] json = new byte[end - start];
+            buffer.get(json);
+            buffer.get();
+            try {
+                return MAPPER.readValue(json, Event.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Invalid journal record", e);
+            }
+        }
+    },
+    /**
+     * Length-prefixed binary records: marker, length, time and the fields of the event as UTF-8 strings
+     */
+    BINARY("bin") {
+        @Override
+        byte[] encode(Event event) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeByte(RECORD_MARKER);
+                out.writeInt(0);
+                out.writeLong(event.getTime());
+                writeString(out, event.getId());
+                writeString(out, event.getType() != null ? event.getType().name() : null);
+                writeString(out, event.getRealmId());
+                writeString(out, event.getRealmName());
+                writeString(out, event.getClientId());
+                writeString(out, event.getUserId());
+                writeString(out, event.getSessionId());
+                writeString(out, event.getIpAddress());
+                writeString(out, event.getError());
+                Map<String, String> details = event.getDetails();
+                out.writeInt(details != null ? details.size() : -1);
+                if (details != null) {
+                    for (Map.Entry<String, String> detail : details.entrySet()) {
+                        writeString(out, detail.getKey());
+                        writeString(out, detail.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot serialize event", e);
+            }
+            ByteBuffer res = ByteBuffer.wrap(bytes.toByteArray());
+            res.putInt(1, res.capacity() - BINARY_HEADER_SIZE);
+            return res.array();
+        }
+
+        @Override
+        Event decode(ByteBuffer buffer) {
+            if (buffer.remaining() < BINARY_HEADER_SIZE || buffer.get(buffer.position()) != RECORD_MARKER) {
+                return null;
+            }
+            int length = buffer.getInt(buffer.position() + 1);
+            if (length < 0 || buffer.remaining() - BINARY_HEADER_SIZE < length) {
+                // incomplete record
+                return null;
+            }
+            buffer.position(buffer.position() + BINARY_HEADER_SIZE);
+            Event event = new Event();
+            event.setTime(buffer.getLong());
+            event.setId(readString(buffer));
+            String type = readString(buffer);
+            event.setType(type != null ? EventType.valueOf(type) : null);
+            event.setRealmId(readString(buffer));
+            event.setRealmName(readString(buffer));
+            event.setClientId(readString(buffer));
+            event.setUserId(readString(buffer));
+            event.setSessionId(readString(buffer));
+            event.setIpAddress(readString(buffer));
+            event.setError(readString(buffer));
+            int detailCount = buffer.getInt();
+            if (detailCount >= 0) {
+                Map<String, String> details = new HashMap<>();
+                for (int i = 0; i < detailCount; i++) {
+                    details.put(readString(buffer), readString(buffer));
+                }
+                event.setDetails(details);
+            }
+            return event;
+        }
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final byte RECORD_MARKER = (byte) 0xCE;
+    private static final int BINARY_HEADER_SIZE = 5;
+
+    private final String extension;
+
+    JournalEncoding(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return extension of the segment files written with this encoding
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the encoding of the segments with the given extension, or null if the extension is unknown
+     */
+    static JournalEncoding fromExtension(String extension) {
+        for (JournalEncoding encoding : values()) {
+            if (encoding.extension.equals(extension)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the record of the event, including its framing
+     */
+    abstract byte[] encode(Event event);
+
+    /**
+     * Read the record at the position of the buffer and move the position after it
+     *
+     * @return the event or null if there is no complete record at the position of the buffer
+     */
+    abstract Event decode(ByteBuffer buffer);
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import io.cloudtrust.keycloak.Events;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.admin.AdminEvent;
+
+import java.util.Map;
+
+/**
+ * Appends the Cloudtrust events, i.e. the events with a {@link Events#CT_EVENT_TYPE} detail, to an
+ * {@link EventJournal}. Other events and admin events are ignored.
+ */
+public class JournalEventListenerProvider implements EventListenerProvider {
+    private final EventJournal journal;
+
+    public JournalEventListenerProvider(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        Map<String, String> details = event.getDetails();
+        if (details != null && details.containsKey(Events.CT_EVENT_TYPE)) {
+            journal.append(event);
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        // admin events are not journaled
+    }
+
+    @Override
+    public void close() {
+        // the journal is shared by all the sessions
+    }
+}
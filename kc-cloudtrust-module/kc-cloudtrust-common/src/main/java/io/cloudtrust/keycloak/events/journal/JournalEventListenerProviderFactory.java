@@ -0,0 +1,88 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Factory of {@link JournalEventListenerProvider}. Modules which deploy the listener register this factory in their
+ * META-INF/services/org.keycloak.events.EventListenerProviderFactory file, then the listener is enabled per realm.
+ * Options (spi-events-listener-ct-event-journal-*): directory, segment-size-mb, rotation-interval-minutes and
+ * encoding (ndjson or binary). The journal is opened when the first event is received.
+ */
+public class JournalEventListenerProviderFactory implements EventListenerProviderFactory {
+    public static final String ID = "ct-event-journal";
+
+    private static final String DEFAULT_DIRECTORY = "ct-event-journal";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Path directory;
+    private long segmentSize = EventJournal.DEFAULT_SEGMENT_SIZE;
+    private Duration rotationInterval = EventJournal.DEFAULT_MAX_SEGMENT_AGE;
+    private JournalEncoding encoding = JournalEncoding.NDJSON;
+    private volatile EventJournal journal;
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new JournalEventListenerProvider(getJournal());
+    }
+
+    EventJournal getJournal() {
+        EventJournal res = journal;
+        if (res == null) {
+            lock.lock();
+            try {
+                if (journal == null) {
+                    journal = new EventJournal(directory, encoding, segmentSize, rotationInterval);
+                }
+                res = journal;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open event journal in " + directory, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        String dataDir = System.getProperty("jboss.server.data.dir", "data");
+        directory = Paths.get(config.get("directory", Paths.get(dataDir, DEFAULT_DIRECTORY).toString()));
+        segmentSize = config.getLong("segmentSizeMb", EventJournal.DEFAULT_SEGMENT_SIZE / (1024 * 1024)) * 1024 * 1024;
+        rotationInterval = Duration.ofMinutes(config.getLong("rotationIntervalMinutes", EventJournal.DEFAULT_MAX_SEGMENT_AGE.toMinutes()));
+        encoding = JournalEncoding.valueOf(config.get("encoding", JournalEncoding.NDJSON.name()).toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        EventJournal res = journal;
+        if (res != null) {
+            try {
+                res.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close event journal", e);
+            }
+        }
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
@@ -0,0 +1,157 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import io.cloudtrust.keycloak.Events;
+import org.keycloak.events.Details;
+import org.keycloak.events.Event;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of events keyed by realm, event type, Cloudtrust event type, authentication type and error.
+ * Counters are {@link LongAdder}s so that concurrent logins do not contend on the same counter. The number of
+ * counters is bounded: events which would need a new counter once the limit is reached are only counted as
+ * discarded, so that unexpected values can't exhaust the memory.
+ */
+public class EventCounters {
+    public static final int DEFAULT_MAX_SERIES = 10000;
+    static final String METRIC_NAME = "cloudtrust_events_total";
+    static final String DISCARDED_METRIC_NAME = "cloudtrust_events_discarded_total";
+
+    private static final EventCounters GLOBAL = new EventCounters(DEFAULT_MAX_SERIES);
+
+    private final int maxSeries;
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final LongAdder discarded = new LongAdder();
+
+    public EventCounters(int maxSeries) {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("Maximum number of series must be positive");
+        }
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * @return the counters shared by the event metrics listener and the event metrics endpoint
+     */
+    public static EventCounters global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Count an event
+     *
+     * @param event event to count
+     */
+    public void increment(Event event) {
+        Map<String, String> details = event.getDetails();
+        Key key = new Key(event.getRealmId(), event.getType() != null ? event.getType().name() : null,
+                details != null ? details.get(Events.CT_EVENT_TYPE) : null,
+                details != null ? details.get(Details.AUTH_TYPE) : null,
+                event.getError());
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() >= maxSeries) {
+                discarded.increment();
+                return;
+            }
+            counter = counters.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return number of events which were not counted because the maximum number of counters was reached
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * @return number of counted events matching all the given values (null matches a missing value)
+     */
+    public long get(String realmId, String eventType, String ctEventType, String authType, String error) {
+        LongAdder counter = counters.get(new Key(realmId, eventType, ctEventType, authType, error));
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Write the counters of a realm in the Prometheus text exposition format
+     *
+     * @param realmId   identifier of the realm
+     * @param realmName name of the realm, used as label
+     * @return the counters of the realm
+     */
+    public String toPrometheus(String realmId, String realmName) {
+        StringBuilder res = new StringBuilder(1024);
+        res.append("# HELP ").append(METRIC_NAME).append(" Events by realm, type, Cloudtrust event type, authentication type and error\n");
+        res.append("# TYPE ").append(METRIC_NAME).append(" counter\n");
+        counters.forEach((key, counter) -> {
+            if (Objects.equals(realmId, key.realmId)) {
+                res.append(METRIC_NAME).append('{');
+                label(res, "realm", realmName).append(',');
+                label(res, "type", key.eventType).append(',');
+                label(res, "ct_event_type", key.ctEventType).append(',');
+                label(res, "auth_type", key.authType).append(',');
+                label(res, "error", key.error).append("} ").append(counter.sum()).append('\n');
+            }
+        });
+        res.append("# HELP ").append(DISCARDED_METRIC_NAME).append(" Events not counted because the maximum number of series was reached\n");
+        res.append("# TYPE ").append(DISCARDED_METRIC_NAME).append(" counter\n");
+        res.append(DISCARDED_METRIC_NAME).append(' ').append(discarded.sum()).append('\n');
+        return res.toString();
+    }
+
+    private static StringBuilder label(StringBuilder res, String name, String value) {
+        res.append(name).append("=\"");
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    res.append('\\').append(c);
+                } else if (c == '\n') {
+                    res.append("\\n");
+                } else {
+                    res.append(c);
+                }
+            }
+        }
+        return res.append('"');
+    }
+
+    private static final class Key {
+        private final String realmId;
+        private final String eventType;
+        private final String ctEventType;
+        private final String authType;
+        private final String error;
+        private final int hash;
+
+        Key(String realmId, String eventType, String ctEventType, String authType, String error) {
+            this.realmId = realmId;
+            this.eventType = eventType;
+            this.ctEventType = ctEventType;
+            this.authType = authType;
+            this.error = error;
+            this.hash = Objects.hash(realmId, eventType, ctEventType, authType, error);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(realmId, key.realmId) && Objects.equals(eventType, key.eventType)
+                    && Objects.equals(ctEventType, key.ctEventType) && Objects.equals(authType, key.authType)
+                    && Objects.equals(error, key.error);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
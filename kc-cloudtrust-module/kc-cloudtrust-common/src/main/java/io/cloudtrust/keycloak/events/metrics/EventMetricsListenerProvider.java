@@ -0,0 +1,31 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.admin.AdminEvent;
+
+/**
+ * Counts the events of the realms where it is enabled instead of storing them
+ */
+public class EventMetricsListenerProvider implements EventListenerProvider {
+    private final EventCounters counters;
+
+    public EventMetricsListenerProvider(EventCounters counters) {
+        this.counters = counters;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        counters.increment(event);
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        // admin events are not counted
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,41 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Factory of {@link EventMetricsListenerProvider}, counting events in {@link EventCounters#global()}.
+ * To be registered in META-INF/services/org.keycloak.events.EventListenerProviderFactory by the deploying module,
+ * along with {@link EventMetricsResourceProviderFactory}.
+ */
+public class EventMetricsListenerProviderFactory implements EventListenerProviderFactory {
+    public static final String ID = "ct-event-metrics";
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new EventMetricsListenerProvider(EventCounters.global());
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        // nothing to do
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
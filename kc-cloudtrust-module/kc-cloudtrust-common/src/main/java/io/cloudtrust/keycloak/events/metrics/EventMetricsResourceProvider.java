@@ -0,0 +1,49 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import io.cloudtrust.keycloak.api.ApiResource;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+/**
+ * Serves the event counters of a realm in the Prometheus text format. The caller needs a bearer token allowed to
+ * view the events of the realm.
+ * Counters are kept in memory by each Keycloak node and only count the events of that node: each node must be scraped
+ * directly (not through a load balancer), the scraper adding the instance label, and the series summed across nodes.
+ */
+public class EventMetricsResourceProvider extends ApiResource implements RealmResourceProvider {
+    static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final EventCounters counters;
+
+    public EventMetricsResourceProvider(KeycloakSession session, EventCounters counters) {
+        super(session);
+        this.counters = counters;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Produces(PROMETHEUS_CONTENT_TYPE)
+    public Response getMetrics() {
+        // authentication replaces the realm of the context by the realm of the token
+        String realmName = session.getContext().getRealm().getName();
+        AdminAuth auth = auth();
+        RealmModel realm = getRealm(auth, realmName);
+        AdminPermissions.evaluator(session, realm, auth).realm().requireViewEvents();
+        return Response.ok(counters.toPrometheus(realm.getId(), realm.getName()), PROMETHEUS_CONTENT_TYPE).build();
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,39 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Factory of {@link EventMetricsResourceProvider}, served at /realms/{realm}/ct-event-metrics
+ */
+public class EventMetricsResourceProviderFactory implements RealmResourceProviderFactory {
+    public static final String ID = "ct-event-metrics";
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new EventMetricsResourceProvider(session, EventCounters.global());
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        // nothing to do
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
@@ -2,12 +2,15 @@ package io.cloudtrust.keycloak;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderFactory;
 import org.keycloak.theme.Theme;
 import org.keycloak.theme.Theme.Type;
 import org.keycloak.theme.ThemeProvider;
@@ -15,8 +18,12 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -48,12 +55,16 @@ class ThemeUtilsTest {
     @Mock
     ThemeProvider emailAndLoginThemeProvider;
 
+    private final Map<String, Object> sessionAttributes = new HashMap<>();
+
     @BeforeEach
     public void setup() throws IOException {
         MockitoAnnotations.openMocks(this);
 
         Mockito.when(keycloakSession.getContext()).thenReturn(context);
         Mockito.when(context.getRealm()).thenReturn(realm);
+        Mockito.when(keycloakSession.getAttribute(Mockito.anyString(), Mockito.any())).thenAnswer(i -> sessionAttributes.get(i.<String>getArgument(0)));
+        Mockito.doAnswer(i -> sessionAttributes.put(i.getArgument(0), i.getArgument(1))).when(keycloakSession).setAttribute(Mockito.anyString(), Mockito.any());
 
         Mockito.when(realm.getAccountTheme()).thenReturn("accountTheme");
         Mockito.when(realm.getAdminTheme()).thenReturn("adminTheme");
@@ -74,6 +85,8 @@ class ThemeUtilsTest {
         Mockito.when(adminTheme.getName()).thenReturn("admin");
         Mockito.when(emailTheme.getName()).thenReturn("email");
         Mockito.when(loginTheme.getName()).thenReturn("login");
+
+        ThemeUtils.clearCache();
     }
 
     @ParameterizedTest
@@ -111,4 +124,61 @@ class ThemeUtilsTest {
                 Arguments.of(Type.COMMON, ACCOUNT_AND_ADMIN_THEME_PROVIDER | EMAIL_AND_LOGIN_THEME_PROVIDER, null)
         );
     }
+
+    private void deployThemes(ProviderFactory<?>... factories) {
+        KeycloakSessionFactory sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        Mockito.when(sessionFactory.getProviderFactoriesStream(ThemeProvider.class)).thenAnswer(i -> Stream.of(factories));
+        Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.when(keycloakSession.getAllProviders(ThemeProvider.class)).thenReturn(Set.of(emailAndLoginThemeProvider));
+    }
+
+    @Test
+    void cachedThemeTest() throws IOException {
+        deployThemes(Mockito.mock(ProviderFactory.class));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("login", ThemeUtils.findTheme(keycloakSession, Type.LOGIN).getName());
+            Assertions.assertNull(ThemeUtils.findThemeByName(keycloakSession, Type.LOGIN, "unknown"));
+        }
+        Mockito.verify(emailAndLoginThemeProvider, Mockito.times(1)).hasTheme("loginTheme", Type.LOGIN);
+        Mockito.verify(emailAndLoginThemeProvider, Mockito.times(1)).hasTheme("unknown", Type.LOGIN);
+        // the deployed factories are only listed by the first lookup of the session
+        KeycloakSessionFactory sessionFactory = keycloakSession.getKeycloakSessionFactory();
+        Mockito.verify(sessionFactory, Mockito.times(1)).getProviderFactoriesStream(ThemeProvider.class);
+
+        // themes redeployed, seen by the next session
+        deployThemes(Mockito.mock(ProviderFactory.class));
+        ThemeUtils.findTheme(keycloakSession, Type.LOGIN);
+        Mockito.verify(emailAndLoginThemeProvider, Mockito.times(1)).hasTheme("loginTheme", Type.LOGIN);
+        sessionAttributes.clear();
+        ThemeUtils.findTheme(keycloakSession, Type.LOGIN);
+        Mockito.verify(emailAndLoginThemeProvider, Mockito.times(2)).hasTheme("loginTheme", Type.LOGIN);
+    }
+
+    @Test
+    void cachedResourceLocationTest() throws IOException {
+        Theme baseTheme = Mockito.mock(Theme.class);
+        Mockito.when(baseTheme.getName()).thenReturn("base");
+        Mockito.when(baseTheme.getResourceAsStream("img/logo.png")).thenAnswer(i -> new ByteArrayInputStream(new byte[]{1}));
+        Mockito.when(loginTheme.getName()).thenReturn("loginTheme");
+        Mockito.when(loginTheme.getParentName()).thenReturn("base");
+        Mockito.when(emailAndLoginThemeProvider.hasTheme("base", Type.LOGIN)).thenReturn(true);
+        Mockito.when(emailAndLoginThemeProvider.getTheme("base", Type.LOGIN)).thenReturn(baseTheme);
+        deployThemes(Mockito.mock(ProviderFactory.class));
+
+        for (int i = 0; i < 3; i++) {
+            try (InputStream stream = ThemeUtils.getStreamToResourceImage(keycloakSession, "img/logo.png")) {
+                Assertions.assertEquals(1, stream.read());
+            }
+            Assertions.assertNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "img/missing.png"));
+        }
+        // the login theme is looked into only once: the resource is then read from its parent theme
+        Mockito.verify(loginTheme, Mockito.times(1)).getResourceAsStream("img/logo.png");
+        Mockito.verify(baseTheme, Mockito.times(3)).getResourceAsStream("img/logo.png");
+        Mockito.verify(loginTheme, Mockito.times(1)).getResourceAsStream("img/missing.png");
+        Mockito.verify(baseTheme, Mockito.times(1)).getResourceAsStream("img/missing.png");
+
+        ThemeUtils.clearCache();
+        Assertions.assertNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "img/missing.png"));
+        Mockito.verify(loginTheme, Mockito.times(2)).getResourceAsStream("img/missing.png");
+    }
 }
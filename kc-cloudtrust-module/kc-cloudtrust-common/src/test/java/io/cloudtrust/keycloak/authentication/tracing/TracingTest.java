@@ -0,0 +1,171 @@
+package io.cloudtrust.keycloak.authentication.tracing;
+
+import io.cloudtrust.keycloak.Events;
+import io.cloudtrust.keycloak.authentication.CloudtrustRequiredActionProvider;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.AuthenticatorFactory;
+import org.keycloak.authentication.CredentialValidator;
+import org.keycloak.authentication.RequiredActionContext;
+import org.keycloak.authentication.RequiredActionFactory;
+import org.keycloak.authentication.authenticators.conditional.ConditionalAuthenticator;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.events.EventBuilder;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.EnvironmentDependentProviderFactory;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+class TracingTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final StepLatencies latencies = new StepLatencies(registry);
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final KeycloakSession session = Mockito.mock(KeycloakSession.class);
+    private final RealmModel realm = Mockito.mock(RealmModel.class);
+
+    TracingTest() {
+        Mockito.when(session.getAttribute(Mockito.anyString())).thenAnswer(i -> attributes.get(i.<String>getArgument(0)));
+        Mockito.when(session.getAttribute(Mockito.anyString(), Mockito.any())).thenAnswer(i -> attributes.get(i.<String>getArgument(0)));
+        Mockito.when(session.removeAttribute(Mockito.anyString())).thenAnswer(i -> attributes.remove(i.<String>getArgument(0)));
+        Mockito.doAnswer(i -> attributes.put(i.getArgument(0), i.getArgument(1))).when(session).setAttribute(Mockito.anyString(), Mockito.any());
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(Mockito.mock(KeycloakSessionFactory.class));
+        Mockito.when(realm.getEventsListenersStream()).thenAnswer(i -> Stream.of());
+    }
+
+    private long count(String execution, String phase) {
+        Timer timer = registry.find(StepLatencies.STEP_TIMER).tag("execution", execution).tag("phase", phase).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private AuthenticationFlowContext authenticationContext(String executionId) {
+        AuthenticationExecutionModel execution = new AuthenticationExecutionModel();
+        execution.setId(executionId);
+        EventBuilder event = new EventBuilder(realm, session, Mockito.mock(ClientConnection.class));
+        AuthenticationFlowContext context = Mockito.mock(AuthenticationFlowContext.class);
+        Mockito.when(context.getSession()).thenReturn(session);
+        Mockito.when(context.getExecution()).thenReturn(execution);
+        Mockito.when(context.getEvent()).thenReturn(event);
+        return context;
+    }
+
+    @Test
+    void authenticatorTest() {
+        AtomicReference<EventBuilder> sent = new AtomicReference<>();
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getUsername()).thenReturn("username");
+        Authenticator authenticator = Mockito.mock(Authenticator.class);
+        Mockito.doAnswer(i -> {
+            sent.set(Events.cloneEvent(i.<AuthenticationFlowContext>getArgument(0), "otp", user, "OTP_SUCCESS", null));
+            return null;
+        }).when(authenticator).authenticate(Mockito.any());
+        AuthenticatorFactory delegate = Mockito.mock(AuthenticatorFactory.class);
+        Mockito.when(delegate.getId()).thenReturn("otp-authenticator");
+        Mockito.when(delegate.create(session)).thenReturn(authenticator);
+
+        TracingAuthenticatorFactory factory = new TracingAuthenticatorFactory(delegate, latencies, true);
+        Assertions.assertEquals("otp-authenticator", factory.getId());
+        Authenticator traced = factory.create(session);
+        traced.authenticate(authenticationContext("exec-1"));
+        traced.authenticate(authenticationContext("exec-1"));
+        traced.action(authenticationContext("exec-1"));
+        traced.authenticate(authenticationContext("exec-2"));
+
+        Assertions.assertEquals(2, count("exec-1", "authenticate"));
+        Assertions.assertEquals(1, count("exec-1", "action"));
+        Assertions.assertEquals(1, count("exec-2", "authenticate"));
+        Mockito.verify(authenticator, Mockito.times(3)).authenticate(Mockito.any());
+        Assertions.assertNotNull(sent.get().getEvent().getDetails().get(Events.CT_EVENT_ELAPSED_MS));
+        Assertions.assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void delegateInterfacesTest() {
+        CredentialProvider<?> credentialProvider = Mockito.mock(CredentialProvider.class);
+        Authenticator authenticator = Mockito.mock(Authenticator.class, Mockito.withSettings().extraInterfaces(CredentialValidator.class));
+        Mockito.when(((CredentialValidator<CredentialProvider<?>>) authenticator).getCredentialProvider(session)).thenAnswer(i -> credentialProvider);
+        AuthenticatorFactory delegate = Mockito.mock(AuthenticatorFactory.class);
+        Mockito.when(delegate.getId()).thenReturn("otp-authenticator");
+        Mockito.when(delegate.create(session)).thenReturn(authenticator);
+
+        Authenticator traced = new TracingAuthenticatorFactory(delegate, latencies, false).create(session);
+        Assertions.assertInstanceOf(CredentialValidator.class, traced);
+        Assertions.assertSame(credentialProvider, ((CredentialValidator<?>) traced).getCredentialProvider(session));
+        traced.authenticate(authenticationContext("exec-1"));
+        Assertions.assertEquals(1, count("exec-1", "authenticate"));
+        Mockito.verify(authenticator).authenticate(Mockito.any());
+        Assertions.assertEquals(traced, traced);
+
+        ConditionalAuthenticator condition = Mockito.mock(ConditionalAuthenticator.class);
+        Mockito.when(condition.matchCondition(Mockito.any())).thenReturn(true);
+        Mockito.when(delegate.create(session)).thenReturn(condition);
+        traced = new TracingAuthenticatorFactory(delegate, latencies, false).create(session);
+        Assertions.assertTrue(((ConditionalAuthenticator) traced).matchCondition(authenticationContext("exec-2")));
+    }
+
+    @Test
+    void delegateFactoryInterfacesTest() {
+        Config.Scope config = Mockito.mock(Config.Scope.class);
+        AuthenticatorFactory delegate = Mockito.mock(AuthenticatorFactory.class,
+                Mockito.withSettings().extraInterfaces(EnvironmentDependentProviderFactory.class, ServerInfoAwareProviderFactory.class));
+        Mockito.when(((EnvironmentDependentProviderFactory) delegate).isSupported(config)).thenReturn(false);
+        Mockito.when(((ServerInfoAwareProviderFactory) delegate).getOperationalInfo()).thenReturn(Map.of("version", "1"));
+        TracingAuthenticatorFactory factory = new TracingAuthenticatorFactory(delegate, latencies, false);
+        Assertions.assertFalse(factory.isSupported(config));
+        Assertions.assertEquals(Map.of("version", "1"), factory.getOperationalInfo());
+
+        TracingRequiredActionFactory actionFactory = new TracingRequiredActionFactory(Mockito.mock(RequiredActionFactory.class), latencies, false);
+        Assertions.assertTrue(actionFactory.isSupported(config));
+        Assertions.assertNull(actionFactory.getOperationalInfo());
+    }
+
+    @Test
+    void failingStepTest() {
+        Authenticator authenticator = Mockito.mock(Authenticator.class);
+        Mockito.doThrow(new IllegalStateException()).when(authenticator).action(Mockito.any());
+        Authenticator traced = new TracingAuthenticator(authenticator, "provider", latencies, true);
+        AuthenticationFlowContext context = authenticationContext("exec-1");
+
+        Assertions.assertThrows(IllegalStateException.class, () -> traced.action(context));
+        Assertions.assertEquals(1, count("exec-1", "action"));
+        Assertions.assertTrue(attributes.isEmpty());
+        Assertions.assertNull(StepLatencies.getElapsedMillis(session));
+    }
+
+    @Test
+    void requiredActionTest() {
+        CloudtrustRequiredActionProvider action = Mockito.mock(CloudtrustRequiredActionProvider.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doNothing().when(action).requiredActionChallenge(Mockito.any());
+        Mockito.doNothing().when(action).processAction(Mockito.any());
+        RequiredActionFactory delegate = Mockito.mock(RequiredActionFactory.class);
+        Mockito.when(delegate.getId()).thenReturn("ct-action");
+        Mockito.when(delegate.create(session)).thenReturn(action);
+        RequiredActionContext context = Mockito.mock(RequiredActionContext.class);
+        Mockito.when(context.getSession()).thenReturn(session);
+        Mockito.when(context.getAction()).thenReturn("ct-action");
+
+        TracingRequiredActionFactory factory = new TracingRequiredActionFactory(delegate, latencies, false);
+        var traced = factory.create(session);
+        traced.requiredActionChallenge(context);
+        traced.processAction(context);
+
+        Assertions.assertEquals(1, count("ct-action", "requiredActionChallenge"));
+        Assertions.assertEquals(1, count("ct-action", "processAction"));
+        Assertions.assertEquals(24 * 60 * 60, traced.getMaxAuthAge());
+    }
+}
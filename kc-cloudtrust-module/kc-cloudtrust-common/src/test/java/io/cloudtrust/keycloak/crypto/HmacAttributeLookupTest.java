@@ -0,0 +1,55 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+class HmacAttributeLookupTest {
+    @Test
+    @SuppressWarnings("unchecked")
+    void findUsersTest() {
+        KeycloakSession session = Mockito.mock(KeycloakSession.class);
+        JpaConnectionProvider jpa = Mockito.mock(JpaConnectionProvider.class);
+        EntityManager em = Mockito.mock(EntityManager.class);
+        TypedQuery<String> query = Mockito.mock(TypedQuery.class);
+        UserProvider users = Mockito.mock(UserProvider.class);
+        RealmModel realm = Mockito.mock(RealmModel.class);
+        UserModel user = Mockito.mock(UserModel.class);
+
+        Mockito.when(session.getProvider(JpaConnectionProvider.class)).thenReturn(jpa);
+        Mockito.when(jpa.getEntityManager()).thenReturn(em);
+        Mockito.when(em.createQuery(ArgumentMatchers.anyString(), ArgumentMatchers.eq(String.class))).thenReturn(query);
+        Mockito.when(query.setParameter(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenReturn(query);
+        Mockito.when(query.getResultList()).thenReturn(List.of("user-1", "deleted-user"));
+        Mockito.when(session.users()).thenReturn(users);
+        Mockito.when(users.getUserById(realm, "user-1")).thenReturn(user);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+
+        HmacAttributeLookup lookup = new HmacAttributeLookup(session);
+        List<String> hmacs = List.of("new-hmac", "old-hmac");
+        Assertions.assertEquals(List.of("user-1", "deleted-user"), lookup.findUserIds(realm, "emailHmac", hmacs));
+        Mockito.verify(query).setParameter("realmId", "realm-id");
+        Mockito.verify(query).setParameter("name", "emailHmac");
+        Mockito.verify(query).setParameter("values", hmacs);
+
+        CryptoUtil.setHmacKeySource(() -> Map.of(
+                "TEH_1", "OLD_KEY".getBytes(StandardCharsets.UTF_8),
+                "TEH_2", "NEW_KEY".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(List.of(user), lookup.findUsers(realm, "emailHmac", "someone@example.com").collect(Collectors.toList()));
+        Mockito.verify(query).setParameter("values", CryptoUtil.computeHmacsForDatabaseStorage("someone@example.com"));
+    }
+}
@@ -0,0 +1,46 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import io.cloudtrust.crypto.StoredValueFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class MicrometerCryptoMetricsTest {
+    private static final String OLD_KEY = "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}";
+
+    @Test
+    void recordTest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CryptoAesGcmUtil oldCrypto = CryptoAesGcmUtil.fromJSON("[" + OLD_KEY + "]");
+        CryptoAesGcmUtil crypto = CryptoAesGcmUtil.fromJSON("[" + NEW_KEY + "," + OLD_KEY + "]");
+        crypto.setMetrics(new MicrometerCryptoMetrics(registry));
+
+        String oldValue = oldCrypto.encryptForDatabaseStorage("old");
+        crypto.decryptFromDatabaseStorage(crypto.encryptForDatabaseStorage("value"));
+        crypto.decryptFromDatabaseStorage(oldValue);
+        crypto.decryptFromDatabaseStorage(oldValue);
+        crypto.decryptFromDatabaseStorage("clear");
+        Assertions.assertThrows(IllegalStateException.class, () -> crypto.decryptFromDatabaseStorage("{\"kid\":\"TEE_2\",\"val\":\"QUFB\"}"));
+
+        Assertions.assertEquals(1, registry.get(MicrometerCryptoMetrics.ENCRYPT_TIMER).tag("kid", "TEE_4").timer().count());
+        Assertions.assertEquals(1, registry.get(MicrometerCryptoMetrics.DECRYPT_TIMER).tag("kid", "TEE_4").timer().count());
+        Assertions.assertEquals(2, registry.get(MicrometerCryptoMetrics.DECRYPT_TIMER).tag("kid", "TEE_3").timer().count());
+        Assertions.assertEquals(1, registry.get(MicrometerCryptoMetrics.DECRYPT_TIMER)
+                .tag("format", StoredValueFormat.PLAIN_TEXT.name()).tag("kid", "none").timer().count());
+        Assertions.assertEquals(1, registry.get(MicrometerCryptoMetrics.DECRYPT_FAILURES)
+                .tag("format", StoredValueFormat.JSON_ENVELOPE.name()).counter().count());
+        Assertions.assertEquals(4, registry.get(MicrometerCryptoMetrics.PAYLOAD_SIZE).tag("operation", "decrypt").summary().count());
+    }
+
+    @Test
+    void hmacTest() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerCryptoMetrics metrics = new MicrometerCryptoMetrics(registry);
+        metrics.hmacComputed("TEH_1", 20, 1000);
+        metrics.hmacComputed("TEH_1", 30, 1000);
+        Assertions.assertEquals(2, registry.get(MicrometerCryptoMetrics.HMAC_TIMER).tag("kid", "TEH_1").timer().count());
+        Assertions.assertEquals(50, registry.get(MicrometerCryptoMetrics.PAYLOAD_SIZE).tag("operation", "hmac").summary().totalAmount());
+    }
+}
@@ -0,0 +1,181 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+class ReEncryptionJobTest {
+    private static final String OLD_KEY = "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}";
+
+    private CryptoAesGcmUtil oldCrypto;
+    private CryptoAesGcmUtil crypto;
+    private InMemoryStore store;
+
+    @BeforeEach
+    void setup() throws Exception {
+        oldCrypto = CryptoAesGcmUtil.fromJSON("[" + OLD_KEY + "]");
+        crypto = CryptoAesGcmUtil.fromJSON("[" + NEW_KEY + "," + OLD_KEY + "]");
+        store = new InMemoryStore();
+        for (int i = 0; i < 100; i++) {
+            CryptoAesGcmUtil codec = i % 4 == 0 ? crypto : oldCrypto;
+            store.values.put(String.format("id-%03d", i), codec.encryptForDatabaseStorage("value-" + i));
+        }
+    }
+
+    private void assertAllValuesUpToDate() {
+        store.values.forEach((id, value) -> {
+            Assertions.assertFalse(crypto.needsReEncryption(value));
+            Assertions.assertEquals("value-" + Integer.parseInt(id.substring(3)), crypto.decryptFromDatabaseStorageToString(value));
+        });
+    }
+
+    @Test
+    void reEncryptAllValuesTest() {
+        ReEncryptionCheckpoint checkpoint = ReEncryptionCheckpoint.inMemory();
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, checkpoint).pageSize(7).workers(3);
+        job.run();
+
+        ReEncryptionProgress progress = job.getProgress();
+        Assertions.assertTrue(progress.isCompleted());
+        Assertions.assertEquals(100, progress.getScanned());
+        Assertions.assertEquals(75, progress.getReEncrypted());
+        Assertions.assertEquals(25, progress.getUpToDate());
+        Assertions.assertEquals(15, progress.getPages());
+        Assertions.assertNull(checkpoint.load());
+        assertAllValuesUpToDate();
+    }
+
+    @Test
+    void resumeFromCheckpointTest() {
+        ReEncryptionCheckpoint checkpoint = ReEncryptionCheckpoint.inMemory();
+        checkpoint.save("id-049");
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, checkpoint).pageSize(10);
+        job.run();
+        Assertions.assertEquals(50, job.getProgress().getScanned());
+        Assertions.assertTrue(crypto.needsReEncryption(store.values.get("id-001")));
+        Assertions.assertFalse(crypto.needsReEncryption(store.values.get("id-051")));
+    }
+
+    @Test
+    void stopTest() {
+        ReEncryptionCheckpoint checkpoint = ReEncryptionCheckpoint.inMemory();
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, checkpoint).pageSize(10);
+        store.onPage = job::stop;
+        job.run();
+        Assertions.assertFalse(job.getProgress().isCompleted());
+        Assertions.assertEquals(1, job.getProgress().getPages());
+        Assertions.assertEquals("id-009", checkpoint.load());
+
+        store.onPage = null;
+        new ReEncryptionJob(crypto, store, checkpoint).run();
+        assertAllValuesUpToDate();
+    }
+
+    @Test
+    void checkpointIntervalTest() {
+        List<String> saved = new ArrayList<>();
+        ReEncryptionCheckpoint checkpoint = new ReEncryptionCheckpoint() {
+            @Override
+            public String load() {
+                return saved.isEmpty() ? null : saved.get(saved.size() - 1);
+            }
+
+            @Override
+            public void save(String lastId) {
+                saved.add(lastId);
+            }
+
+            @Override
+            public void clear() {
+                saved.clear();
+            }
+        };
+        // with the default interval, a short run only saves its checkpoint when it stops
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, checkpoint).pageSize(10);
+        store.onPage = () -> {
+            if (job.getProgress().getPages() == 4) {
+                job.stop();
+            }
+        };
+        job.run();
+        Assertions.assertEquals(List.of("id-049"), saved);
+
+        store.onPage = null;
+        ReEncryptionJob eachPage = new ReEncryptionJob(crypto, store, checkpoint).pageSize(10).checkpointInterval(Duration.ZERO);
+        store.onPage = () -> {
+            if (eachPage.getProgress().getPages() == 2) {
+                eachPage.stop();
+            }
+        };
+        eachPage.run();
+        Assertions.assertEquals(List.of("id-049", "id-059", "id-069", "id-079"), saved);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> eachPage.checkpointInterval(Duration.ofSeconds(-1)));
+    }
+
+    @Test
+    void conflictAndFailureTest() throws Exception {
+        CryptoAesGcmUtil unknownKeyCrypto = CryptoAesGcmUtil.fromJSON("[{\"kid\": \"TEE_2\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}]");
+        store.values.put("id-000", unknownKeyCrypto.encryptForDatabaseStorage("value"));
+        store.concurrentlyModified = "id-001";
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, ReEncryptionCheckpoint.inMemory()).pageSize(50);
+        job.run();
+        Assertions.assertEquals(1, job.getProgress().getFailed());
+        Assertions.assertEquals(1, job.getProgress().getConflicts());
+        Assertions.assertEquals(74, job.getProgress().getReEncrypted());
+    }
+
+    @Test
+    void rateLimitTest() {
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, ReEncryptionCheckpoint.inMemory()).pageSize(50).maxRowsPerSecond(500);
+        long start = System.nanoTime();
+        job.run();
+        // second page has to wait for 50 rows at 500 rows/s
+        Assertions.assertTrue(System.nanoTime() - start >= 90_000_000L);
+    }
+
+    @Test
+    void invalidParametersTest() {
+        ReEncryptionJob job = new ReEncryptionJob(crypto, store, ReEncryptionCheckpoint.inMemory());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> job.pageSize(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> job.workers(0));
+    }
+
+    private static class InMemoryStore implements EncryptedValueStore {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+        private Runnable onPage;
+        private String concurrentlyModified;
+
+        @Override
+        public List<StoredValue> nextPage(String afterId, int pageSize) {
+            if (onPage != null) {
+                onPage.run();
+            }
+            return new TreeMap<>(values).tailMap(afterId == null ? "" : afterId, false).entrySet().stream()
+                    .limit(pageSize)
+                    .map(e -> new StoredValue(e.getKey(), "user-" + e.getKey(), e.getValue()))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public int update(List<ValueUpdate> updates) {
+            int updated = 0;
+            for (ValueUpdate update : updates) {
+                String id = update.getOriginal().getId();
+                if (!id.equals(concurrentlyModified) && values.replace(id, update.getOriginal().getValue(), update.getNewValue())) {
+                    updated++;
+                }
+            }
+            return updated;
+        }
+    }
+}
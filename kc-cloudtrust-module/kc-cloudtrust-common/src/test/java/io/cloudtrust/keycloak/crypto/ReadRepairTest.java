@@ -0,0 +1,90 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoAesGcmUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class ReadRepairTest {
+    private static final String OLD_KEY = "{\"kid\": \"TEE_3\", \"value\": \"MTIzNDU2Nzg5MDEyMzQ1Ng==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_4\", \"value\": \"QUJDREVGR0hJSktMTU5PUA==\"}";
+
+    private CryptoAesGcmUtil oldCrypto;
+    private CryptoAesGcmUtil crypto;
+    private KeycloakSession session;
+
+    @BeforeEach
+    void setup() throws Exception {
+        oldCrypto = CryptoAesGcmUtil.fromJSON("[" + OLD_KEY + "]");
+        crypto = CryptoAesGcmUtil.fromJSON("[" + NEW_KEY + "," + OLD_KEY + "]");
+        Map<String, Object> attributes = new HashMap<>();
+        session = Mockito.mock(KeycloakSession.class);
+        Mockito.doAnswer(inv -> attributes.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(session).setAttribute(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+        Mockito.when(session.getAttribute(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenAnswer(inv -> attributes.get(inv.<String>getArgument(0)));
+    }
+
+    private UserModel mockUser(String storedValue) {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getFirstAttribute("secret")).thenReturn(storedValue);
+        return user;
+    }
+
+    @Test
+    void upToDateValueTest() {
+        UserModel user = mockUser(crypto.encryptForDatabaseStorage("value"));
+        Assertions.assertEquals("value", new ReadRepair(session, crypto).decryptAttribute(user, "secret"));
+        Mockito.verify(user, Mockito.never()).setSingleAttribute(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+    }
+
+    @Test
+    void missingValueTest() {
+        UserModel user = mockUser(null);
+        Assertions.assertNull(new ReadRepair(session, crypto).decryptAttribute(user, "secret"));
+    }
+
+    @Test
+    void staleValuesTest() {
+        ReadRepair readRepair = new ReadRepair(session, crypto, 2);
+        long repaired = ReadRepair.getRepairedCount();
+        long deferred = ReadRepair.getDeferredCount();
+
+        UserModel oldKeyUser = mockUser(oldCrypto.encryptForDatabaseStorage("value"));
+        UserModel clearUser = mockUser("clear");
+        UserModel deferredUser = mockUser(oldCrypto.encryptForDatabaseStorage("other"));
+
+        Assertions.assertEquals("value", readRepair.decryptAttribute(oldKeyUser, "secret"));
+        Assertions.assertEquals("clear", readRepair.decryptAttribute(clearUser, "secret"));
+        Assertions.assertEquals("other", readRepair.decryptAttribute(deferredUser, "secret"));
+
+        Mockito.verify(oldKeyUser).setSingleAttribute(ArgumentMatchers.eq("secret"),
+                ArgumentMatchers.argThat(v -> !crypto.needsReEncryption(v) && "value".equals(crypto.decryptFromDatabaseStorageToString(v))));
+        Mockito.verify(clearUser).setSingleAttribute(ArgumentMatchers.eq("secret"), ArgumentMatchers.argThat(v -> !crypto.needsReEncryption(v)));
+        Mockito.verify(deferredUser, Mockito.never()).setSingleAttribute(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+        Assertions.assertEquals(repaired + 2, ReadRepair.getRepairedCount());
+        Assertions.assertEquals(deferred + 1, ReadRepair.getDeferredCount());
+    }
+
+    @Test
+    void binaryValueTest() {
+        byte[] binary = {(byte) 0xFF, (byte) 0xC3, 0x41, 0};
+        UserModel user = mockUser(oldCrypto.encryptForDatabaseStorage(binary));
+        new ReadRepair(session, crypto).decryptAttribute(user, "secret");
+        Mockito.verify(user).setSingleAttribute(ArgumentMatchers.eq("secret"),
+                ArgumentMatchers.argThat(v -> Arrays.equals(binary, crypto.decryptFromDatabaseStorage(v))));
+    }
+
+    @Test
+    void invalidLimitTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ReadRepair(session, crypto, -1));
+    }
+}
@@ -0,0 +1,59 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.keycloak.crypto.EncryptedValueStore.StoredValue;
+import io.cloudtrust.keycloak.crypto.EncryptedValueStore.ValueUpdate;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+class UserAttributeValueStoreTest {
+    @Test
+    void conditionalUpdateTest() {
+        EntityManager em = Mockito.mock(EntityManager.class);
+        List<String> queries = new ArrayList<>();
+        List<Query> created = new ArrayList<>();
+        Mockito.when(em.createQuery(ArgumentMatchers.anyString())).thenAnswer(inv -> {
+            queries.add(inv.getArgument(0));
+            Query query = Mockito.mock(Query.class);
+            Mockito.when(query.setParameter(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenReturn(query);
+            // the second row was modified since it was read
+            Mockito.when(query.executeUpdate()).thenReturn(created.size() == 1 ? 0 : 1);
+            created.add(query);
+            return query;
+        });
+        JpaConnectionProvider jpa = Mockito.mock(JpaConnectionProvider.class);
+        Mockito.when(jpa.getEntityManager()).thenReturn(em);
+        KeycloakSession session = Mockito.mock(KeycloakSession.class);
+        Mockito.when(session.getProvider(JpaConnectionProvider.class)).thenReturn(jpa);
+        Mockito.when(session.getTransactionManager()).thenReturn(Mockito.mock(KeycloakTransactionManager.class));
+        KeycloakSessionFactory sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        Mockito.when(sessionFactory.create()).thenReturn(session);
+
+        String longValue = "x".repeat(300);
+        UserAttributeValueStore store = new UserAttributeValueStore(sessionFactory, "realm", Set.of("secret"));
+        int updated = store.update(List.of(
+                new ValueUpdate(new StoredValue("1", "user-1", "old-1"), "new-1"),
+                new ValueUpdate(new StoredValue("2", "user-2", "old-2"), "new-2"),
+                new ValueUpdate(new StoredValue("3", "user-3", longValue), longValue + "y")));
+
+        Assertions.assertEquals(2, updated);
+        Assertions.assertTrue(queries.get(0).endsWith("where attr.id = :id and attr.value = :original"));
+        Assertions.assertTrue(queries.get(2).endsWith("where attr.id = :id and attr.longValueHash = :originalHash"));
+        Mockito.verify(created.get(0)).setParameter("value", "new-1");
+        Mockito.verify(created.get(0)).setParameter("longValue", null);
+        Mockito.verify(created.get(2)).setParameter("value", null);
+        Mockito.verify(created.get(2)).setParameter("longValue", longValue + "y");
+        Mockito.verify(em, Mockito.never()).find(ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+}
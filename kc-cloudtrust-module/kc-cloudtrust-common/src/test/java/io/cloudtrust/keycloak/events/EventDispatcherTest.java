@@ -0,0 +1,188 @@
+package io.cloudtrust.keycloak.events;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventBuilder;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.EventType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+class EventDispatcherTest {
+    private final List<List<Event>> batches = new CopyOnWriteArrayList<>();
+
+    private static Event event(String id) {
+        Event event = new Event();
+        event.setId(id);
+        event.setType(EventType.CUSTOM_REQUIRED_ACTION);
+        return event;
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void flushBySizeTest() throws Exception {
+        try (EventDispatcher dispatcher = new EventDispatcher(batches::add, 100, 10, Duration.ofMinutes(1), BackpressurePolicy.BLOCK)) {
+            for (int i = 0; i < 25; i++) {
+                dispatcher.dispatch(event("e" + i));
+            }
+            waitFor(() -> dispatcher.getWrittenCount() == 20);
+            Assertions.assertEquals(2, batches.size());
+            Assertions.assertEquals(10, batches.get(0).size());
+            Assertions.assertEquals("e0", batches.get(0).get(0).getId());
+        }
+        // remaining events are written on close
+        Assertions.assertEquals(25, batches.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void flushByIntervalTest() throws Exception {
+        try (EventDispatcher dispatcher = new EventDispatcher(batches::add, 100, 10, Duration.ofMillis(20), BackpressurePolicy.BLOCK)) {
+            dispatcher.dispatch(event("e1"));
+            dispatcher.dispatch(event("e2"));
+            waitFor(() -> dispatcher.getWrittenCount() == 2);
+            Assertions.assertEquals(0, dispatcher.getQueueDepth());
+        }
+    }
+
+    @Test
+    void backpressureTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(1);
+        EventBatchWriter slowWriter = events -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(new ArrayList<>(events));
+        };
+        List<Event> synchronousWrites = new CopyOnWriteArrayList<>();
+        EventBatchWriter writer = events -> {
+            if (Thread.currentThread().getName().equals("cloudtrust-event-flusher")) {
+                slowWriter.write(events);
+            } else {
+                synchronousWrites.addAll(events);
+            }
+        };
+
+        try (EventDispatcher dispatcher = new EventDispatcher(writer, 2, 1, Duration.ofMillis(10), BackpressurePolicy.DROP_OLDEST)) {
+            dispatcher.dispatch(event("e0"));
+            Assertions.assertTrue(writing.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 4; i++) {
+                dispatcher.dispatch(event("e" + i));
+            }
+            Assertions.assertEquals(2, dispatcher.getQueueDepth());
+            Assertions.assertEquals(2, dispatcher.getDroppedCount());
+            release.countDown();
+        }
+        Assertions.assertEquals(List.of("e0", "e3", "e4"), batches.stream().flatMap(List::stream).map(Event::getId).toList());
+
+        CountDownLatch release2 = new CountDownLatch(1);
+        CountDownLatch writing2 = new CountDownLatch(1);
+        batches.clear();
+        EventBatchWriter writer2 = events -> {
+            if (Thread.currentThread().getName().equals("cloudtrust-event-flusher")) {
+                writing2.countDown();
+                try {
+                    release2.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                batches.add(events);
+            } else {
+                synchronousWrites.addAll(events);
+            }
+        };
+        try (EventDispatcher dispatcher = new EventDispatcher(writer2, 1, 1, Duration.ofMillis(10), BackpressurePolicy.SYNCHRONOUS)) {
+            dispatcher.dispatch(event("e0"));
+            Assertions.assertTrue(writing2.await(5, TimeUnit.SECONDS));
+            dispatcher.dispatch(event("e1"));
+            dispatcher.dispatch(event("e2"));
+            Assertions.assertEquals(1, dispatcher.getSynchronousCount());
+            Assertions.assertEquals("e2", synchronousWrites.get(0).getId());
+            release2.countDown();
+        }
+    }
+
+    @Test
+    void failureTest() throws Exception {
+        try (EventDispatcher dispatcher = new EventDispatcher(events -> {
+            throw new IllegalStateException("database is down");
+        }, 10, 5, Duration.ofMillis(10), BackpressurePolicy.BLOCK)) {
+            dispatcher.dispatch(event("e1"));
+            waitFor(() -> dispatcher.getFailedCount() == 1);
+            Assertions.assertEquals(0, dispatcher.getWrittenCount());
+        }
+    }
+
+    @Test
+    void metricsTest() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EventDispatcher dispatcher = new EventDispatcher(batches::add, 10, 5, Duration.ofMinutes(1), BackpressurePolicy.BLOCK);
+        dispatcher.bindTo(registry);
+        dispatcher.close();
+        dispatcher.dispatch(event("e1"));
+        Assertions.assertEquals(0, registry.get(EventDispatcher.QUEUE_DEPTH).gauge().value());
+        Assertions.assertEquals(1, registry.get(EventDispatcher.WRITTEN).functionCounter().count());
+        Assertions.assertEquals(1, registry.get(EventDispatcher.SYNCHRONOUS).functionCounter().count());
+        Assertions.assertEquals(0, registry.get(EventDispatcher.DROPPED).functionCounter().count());
+    }
+
+    @Test
+    void successTest() throws Exception {
+        RealmModel realm = Mockito.mock(RealmModel.class);
+        KeycloakSession session = Mockito.mock(KeycloakSession.class);
+        KeycloakSessionFactory sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        EventListenerProviderFactory listenerFactory = Mockito.mock(EventListenerProviderFactory.class);
+        EventListenerProvider listener = Mockito.mock(EventListenerProvider.class);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(realm.isEventsEnabled()).thenReturn(true);
+        Mockito.when(realm.getEnabledEventTypesStream()).thenAnswer(i -> Stream.of(EventType.CUSTOM_REQUIRED_ACTION.name()));
+        Mockito.when(realm.getEventsListenersStream()).thenAnswer(i -> Stream.of("listener"));
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.when(sessionFactory.getProviderFactoriesStream(EventListenerProvider.class)).thenAnswer(i -> Stream.of(listenerFactory));
+        Mockito.when(listenerFactory.getId()).thenReturn("listener");
+        Mockito.when(session.getProvider(EventListenerProvider.class, "listener")).thenReturn(listener);
+
+        try (EventDispatcher dispatcher = new EventDispatcher(batches::add, 10, 1, Duration.ofMillis(10), BackpressurePolicy.BLOCK)) {
+            // the builder does not store the event itself: the realm has no event store in this test
+            EventBuilder builder = new EventBuilder(realm, session).event(EventType.CUSTOM_REQUIRED_ACTION).user("user-id");
+            dispatcher.success(session, realm, builder);
+            Mockito.verify(listener).onEvent(Mockito.any(Event.class));
+            waitFor(() -> dispatcher.getWrittenCount() == 1);
+            Event stored = batches.get(0).get(0);
+            Assertions.assertEquals("user-id", stored.getUserId());
+            Assertions.assertNotNull(stored.getId());
+            Assertions.assertTrue(stored.getTime() > 0);
+        }
+    }
+
+    @Test
+    void invalidParametersTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventDispatcher(batches::add, 0, 1, Duration.ofSeconds(1), BackpressurePolicy.BLOCK));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventDispatcher(batches::add, 1, 0, Duration.ofSeconds(1), BackpressurePolicy.BLOCK));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventDispatcher(batches::add, 1, 1, Duration.ZERO, BackpressurePolicy.BLOCK));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventDispatcher(batches::add, 1, 1, Duration.ofSeconds(1), null));
+    }
+}
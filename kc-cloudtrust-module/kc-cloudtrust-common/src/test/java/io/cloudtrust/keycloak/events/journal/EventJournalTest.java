@@ -0,0 +1,142 @@
+package io.cloudtrust.keycloak.events.journal;
+
+import io.cloudtrust.keycloak.Events;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.keycloak.Config;
+import org.keycloak.events.Details;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.mockito.Mockito;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class EventJournalTest {
+    @TempDir
+    Path tempDir;
+
+    private static Event event(int index) {
+        Event event = new Event();
+        event.setId("id-" + index);
+        event.setTime(1000L + index);
+        event.setType(EventType.CUSTOM_REQUIRED_ACTION);
+        event.setRealmId("realm-id");
+        event.setUserId("user-" + index);
+        Map<String, String> details = new HashMap<>();
+        details.put(Events.CT_EVENT_TYPE, "ACTIVATION");
+        details.put(Details.AUTH_TYPE, "push");
+        details.put(Events.CT_EVENT_USERNAME, "user\n\"" + index + "\" é");
+        event.setDetails(details);
+        return event;
+    }
+
+    private List<Event> readAll() throws Exception {
+        List<Event> res = new ArrayList<>();
+        new EventJournalReader(tempDir).replay(res::add);
+        return res;
+    }
+
+    @ParameterizedTest
+    @EnumSource(JournalEncoding.class)
+    void appendAndReplayTest(JournalEncoding encoding) throws Exception {
+        try (EventJournal journal = new EventJournal(tempDir, encoding)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(event(i));
+            }
+            // the segment being written can be read
+            Assertions.assertEquals(10, readAll().size());
+        }
+        List<Event> events = readAll();
+        Assertions.assertEquals(10, events.size());
+        Event event = events.get(3);
+        Assertions.assertEquals("id-3", event.getId());
+        Assertions.assertEquals(1003L, event.getTime());
+        Assertions.assertEquals(EventType.CUSTOM_REQUIRED_ACTION, event.getType());
+        Assertions.assertEquals("user-3", event.getUserId());
+        Assertions.assertNull(event.getClientId());
+        Assertions.assertEquals(event(3).getDetails(), event.getDetails());
+
+        List<Event> recent = new ArrayList<>();
+        Assertions.assertEquals(2, new EventJournalReader(tempDir).replay(1008L, recent::add));
+        Assertions.assertEquals("id-8", recent.get(0).getId());
+    }
+
+    @Test
+    void sizeRotationTest() throws Exception {
+        try (EventJournal journal = new EventJournal(tempDir, JournalEncoding.BINARY, 512, Duration.ofHours(1))) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(event(i));
+            }
+            Assertions.assertTrue(journal.getRotationCount() > 0);
+        }
+        List<Path> segments = new EventJournalReader(tempDir).getSegments();
+        Assertions.assertTrue(segments.size() > 1);
+        // closed segments are truncated to their content
+        Assertions.assertTrue(Files.size(segments.get(0)) <= 512);
+        List<Event> events = readAll();
+        Assertions.assertEquals(20, events.size());
+        Assertions.assertEquals("id-19", events.get(19).getId());
+    }
+
+    @Test
+    void timeRotationTest() throws Exception {
+        AtomicLong now = new AtomicLong(0);
+        try (EventJournal journal = new EventJournal(tempDir, JournalEncoding.NDJSON, 4096, Duration.ofMinutes(1), now::get)) {
+            journal.append(event(1));
+            now.addAndGet(30_000);
+            journal.append(event(2));
+            now.addAndGet(30_000);
+            journal.append(event(3));
+        }
+        Assertions.assertEquals(2, new EventJournalReader(tempDir).getSegments().size());
+
+        // a journal opened again starts a new segment
+        try (EventJournal journal = new EventJournal(tempDir, JournalEncoding.BINARY)) {
+            journal.append(event(4));
+        }
+        List<Path> segments = new EventJournalReader(tempDir).getSegments();
+        Assertions.assertEquals(3, segments.size());
+        Assertions.assertTrue(segments.get(2).getFileName().toString().endsWith("00000000000000000002.bin"));
+        Assertions.assertEquals(List.of("id-1", "id-2", "id-3", "id-4"), readAll().stream().map(Event::getId).toList());
+    }
+
+    @Test
+    void listenerTest() throws Exception {
+        Config.Scope config = Mockito.mock(Config.Scope.class);
+        Mockito.when(config.get(Mockito.eq("directory"), Mockito.anyString())).thenReturn(tempDir.toString());
+        Mockito.when(config.get(Mockito.eq("encoding"), Mockito.anyString())).thenReturn("binary");
+        Mockito.when(config.getLong(Mockito.anyString(), Mockito.anyLong())).thenAnswer(i -> i.getArgument(1));
+
+        JournalEventListenerProviderFactory factory = new JournalEventListenerProviderFactory();
+        factory.init(config);
+        JournalEventListenerProvider listener = (JournalEventListenerProvider) factory.create(null);
+        listener.onEvent(event(1));
+        Event other = event(2);
+        other.getDetails().remove(Events.CT_EVENT_TYPE);
+        listener.onEvent(other);
+        listener.onEvent(new Event());
+        factory.close();
+
+        Assertions.assertEquals(List.of("id-1"), readAll().stream().map(Event::getId).toList());
+        Assertions.assertTrue(new EventJournalReader(tempDir).getSegments().get(0).toString().endsWith(".bin"));
+    }
+
+    @Test
+    void closedJournalTest() throws Exception {
+        EventJournal journal = new EventJournal(tempDir, JournalEncoding.NDJSON);
+        journal.close();
+        Event event = event(1);
+        Assertions.assertThrows(IllegalStateException.class, () -> journal.append(event));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventJournal(tempDir, JournalEncoding.NDJSON, 0, Duration.ofMinutes(1)));
+    }
+}
@@ -0,0 +1,73 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import io.cloudtrust.keycloak.Events;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Details;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+class EventCountersTest {
+    private static Event event(String realmId, EventType type, String ctEventType, String authType, String error) {
+        Event event = new Event();
+        event.setRealmId(realmId);
+        event.setType(type);
+        event.setError(error);
+        Map<String, String> details = new HashMap<>();
+        if (ctEventType != null) {
+            details.put(Events.CT_EVENT_TYPE, ctEventType);
+        }
+        details.put(Details.AUTH_TYPE, authType);
+        event.setDetails(details);
+        return event;
+    }
+
+    @Test
+    void countTest() {
+        EventCounters counters = new EventCounters(100);
+        EventMetricsListenerProvider listener = new EventMetricsListenerProvider(counters);
+        IntStream.range(0, 1000).parallel().forEach(i -> listener.onEvent(event("realm-1", EventType.CUSTOM_REQUIRED_ACTION, "OTP_SUCCESS", "otp", null)));
+        listener.onEvent(event("realm-1", EventType.LOGIN_ERROR, null, "otp", "invalid_user_credentials"));
+        listener.onEvent(event("realm-2", EventType.CUSTOM_REQUIRED_ACTION, "OTP_SUCCESS", "otp", null));
+        listener.onEvent(new Event());
+
+        Assertions.assertEquals(1000, counters.get("realm-1", "CUSTOM_REQUIRED_ACTION", "OTP_SUCCESS", "otp", null));
+        Assertions.assertEquals(1, counters.get("realm-1", "LOGIN_ERROR", null, "otp", "invalid_user_credentials"));
+        Assertions.assertEquals(1, counters.get("realm-2", "CUSTOM_REQUIRED_ACTION", "OTP_SUCCESS", "otp", null));
+        Assertions.assertEquals(1, counters.get(null, null, null, null, null));
+        Assertions.assertEquals(0, counters.get("realm-1", "LOGIN", null, null, null));
+    }
+
+    @Test
+    void prometheusTest() {
+        EventCounters counters = new EventCounters(100);
+        counters.increment(event("realm-1", EventType.CUSTOM_REQUIRED_ACTION, "OTP_SUCCESS", "otp", null));
+        counters.increment(event("realm-1", EventType.CUSTOM_REQUIRED_ACTION, "OTP_SUCCESS", "otp", null));
+        counters.increment(event("realm-1", EventType.LOGIN_ERROR, null, "a\"b\\c\nd", "error"));
+        counters.increment(event("realm-2", EventType.LOGIN, null, "password", null));
+
+        String text = counters.toPrometheus("realm-1", "my-realm");
+        Assertions.assertTrue(text.startsWith("# HELP cloudtrust_events_total "));
+        Assertions.assertTrue(text.contains("# TYPE cloudtrust_events_total counter\n"));
+        Assertions.assertTrue(text.contains("cloudtrust_events_total{realm=\"my-realm\",type=\"CUSTOM_REQUIRED_ACTION\",ct_event_type=\"OTP_SUCCESS\",auth_type=\"otp\",error=\"\"} 2\n"));
+        Assertions.assertTrue(text.contains("cloudtrust_events_total{realm=\"my-realm\",type=\"LOGIN_ERROR\",ct_event_type=\"\",auth_type=\"a\\\"b\\\\c\\nd\",error=\"error\"} 1\n"));
+        Assertions.assertFalse(text.contains("password"));
+        Assertions.assertTrue(text.endsWith("cloudtrust_events_discarded_total 0\n"));
+    }
+
+    @Test
+    void maxSeriesTest() {
+        EventCounters counters = new EventCounters(2);
+        for (int i = 0; i < 5; i++) {
+            counters.increment(event("realm-1", EventType.LOGIN, "type-" + i, "otp", null));
+        }
+        counters.increment(event("realm-1", EventType.LOGIN, "type-0", "otp", null));
+        Assertions.assertEquals(2, counters.get("realm-1", "LOGIN", "type-0", "otp", null));
+        Assertions.assertEquals(3, counters.getDiscardedCount());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EventCounters(0));
+    }
+}
@@ -0,0 +1,84 @@
+package io.cloudtrust.keycloak.events.metrics;
+
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.RuntimeDelegate;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+import org.keycloak.services.resources.admin.permissions.RealmPermissionEvaluator;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EventMetricsResourceProviderTest {
+    @Test
+    void metricsOfRequestedRealmTest() {
+        RealmModel requested = mock(RealmModel.class);
+        when(requested.getId()).thenReturn("realm-1");
+        when(requested.getName()).thenReturn("my-realm");
+        RealmModel master = mock(RealmModel.class);
+        when(master.getName()).thenReturn("master");
+        KeycloakContext context = mock(KeycloakContext.class);
+        when(context.getRealm()).thenReturn(requested);
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.getContext()).thenReturn(context);
+        AdminAuth adminAuth = mock(AdminAuth.class);
+
+        EventCounters counters = new EventCounters(100);
+        Event event = new Event();
+        event.setRealmId("realm-1");
+        counters.increment(event);
+
+        List<String> requestedRealms = new ArrayList<>();
+        EventMetricsResourceProvider provider = new EventMetricsResourceProvider(session, counters) {
+            @Override
+            protected AdminAuth auth() {
+                // as ApiResource, authenticating a token of the master realm changes the realm of the context
+                when(context.getRealm()).thenReturn(master);
+                return adminAuth;
+            }
+
+            @Override
+            protected RealmModel getRealm(AdminAuth auth, String realmName) {
+                requestedRealms.add(realmName);
+                return requested;
+            }
+        };
+
+        AdminPermissionEvaluator evaluator = mock(AdminPermissionEvaluator.class);
+        RealmPermissionEvaluator realmEvaluator = mock(RealmPermissionEvaluator.class);
+        when(evaluator.realm()).thenReturn(realmEvaluator);
+        // no JAX-RS implementation is available in the tests
+        RuntimeDelegate runtimeDelegate = mock(RuntimeDelegate.class);
+        Response.ResponseBuilder builder = mock(Response.ResponseBuilder.class, Mockito.RETURNS_SELF);
+        when(runtimeDelegate.createResponseBuilder()).thenReturn(builder);
+        RuntimeDelegate.setInstance(runtimeDelegate);
+        try (MockedStatic<AdminPermissions> permissions = Mockito.mockStatic(AdminPermissions.class)) {
+            permissions.when(() -> AdminPermissions.evaluator(any(), eq(requested), any(AdminAuth.class))).thenReturn(evaluator);
+            provider.getMetrics();
+
+            Assertions.assertEquals(List.of("my-realm"), requestedRealms);
+            verify(realmEvaluator).requireViewEvents();
+            ArgumentCaptor<Object> entity = ArgumentCaptor.forClass(Object.class);
+            verify(builder).entity(entity.capture());
+            Assertions.assertTrue(entity.getValue().toString().contains("cloudtrust_events_total{realm=\"my-realm\","));
+        } finally {
+            RuntimeDelegate.setInstance(null);
+        }
+    }
+}